@@ -4,7 +4,12 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
 import fr.insalyon.dasi.positif.dao.JpaUtil;
+import fr.insalyon.dasi.positif.dao.StatistiquesCache;
+import fr.insalyon.dasi.positif.metier.modele.Employe;
+import fr.insalyon.dasi.positif.metier.modele.Personne;
+import fr.insalyon.dasi.positif.metier.service.CachePredictions;
 import fr.insalyon.dasi.positif.metier.service.Service;
+import fr.insalyon.dasi.positif.util.AstroTest;
 import fr.insalyon.dasi.positifihm.action.Action;
 import fr.insalyon.dasi.positifihm.action.ActionCaracteristiqueMediums;
 import fr.insalyon.dasi.positifihm.action.ActionCommencerConsultation;
@@ -18,12 +23,14 @@ import fr.insalyon.dasi.positifihm.action.ActionProfil;
 import fr.insalyon.dasi.positifihm.action.ActionProfilClientPourEmploye;
 import fr.insalyon.dasi.positifihm.action.ActionProfilEmployer;
 import fr.insalyon.dasi.positifihm.action.ActionStat;
+import fr.insalyon.dasi.positifihm.action.ActionSuivreDemande;
 import fr.insalyon.dasi.positifihm.action.ActionTerminerVoyance;
 import fr.insalyon.dasi.positifihm.serialisation.Serialisation;
 import fr.insalyon.dasi.positifihm.serialisation.SerialisationAccueilEmploye;
 import fr.insalyon.dasi.positifihm.serialisation.SerialisationCaracteristiqueMediums;
 import fr.insalyon.dasi.positifihm.serialisation.SerialisationConnexion;
 import fr.insalyon.dasi.positifihm.serialisation.SerialisationConsulterMediums;
+import fr.insalyon.dasi.positifihm.serialisation.SerialisationDemande;
 import fr.insalyon.dasi.positifihm.serialisation.SerialisationDetailConvo;
 import fr.insalyon.dasi.positifihm.serialisation.SerialisationHistorique;
 import fr.insalyon.dasi.positifihm.serialisation.SerialisationInscription;
@@ -39,6 +46,7 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
+import org.apache.http.pool.PoolStats;
 
 /**
  *
@@ -60,9 +68,14 @@ public class ActionServlet extends HttpServlet {
             throws ServletException, IOException {
         response.setContentType("text/html;charset=UTF-8");
         response.setContentType("application/json;charset=UTF-8");
+        String todo = (String) request.getParameter("todo");
+        // Le catalogue des médiums est écrit en octets déjà encodés
+        // (cf. Service.obtenirCatalogue()) : le Writer ne doit pas être ouvert
+        if (traiterCatalogue(todo, request, response)) {
+            return;
+        }
         try (PrintWriter out = response.getWriter()) {
             HttpSession session = request.getSession(true);
-            String todo = (String) request.getParameter("todo");
             Service s = new Service();
             Action action;
             Serialisation serialisation;
@@ -97,26 +110,23 @@ public class ActionServlet extends HttpServlet {
                     serialisation = new SerialisationStat();
                     serialisation.serialize(request, response);
                     break;
-                case "consulterMediums":
-                    action = new ActionConsulterMediums();
+                case "commencerConsultation":
+                    action = new ActionCommencerConsultation();
                     action.act(request);
-                    serialisation = new SerialisationConsulterMediums();
+                    serialisation = new SerialisationDemande();
                     serialisation.serialize(request, response);
                     break;
-                case "caractMedium":
-                    action = new ActionCaracteristiqueMediums();
+                case "suivreDemande":
+                    action = new ActionSuivreDemande();
                     action.act(request);
-                    serialisation = new SerialisationCaracteristiqueMediums();
+                    Integer erreur = (Integer) request.getAttribute("erreur");
+                    if (erreur != null) {
+                        response.sendError(erreur);
+                        break;
+                    }
+                    serialisation = new SerialisationDemande();
                     serialisation.serialize(request, response);
                     break;
-                case "commencerConsultation":
-                    action = new ActionCommencerConsultation();
-                    action.act(request);
-                    JsonObject jsonStart = new JsonObject();
-                    jsonStart.addProperty("done", true);
-                    Gson gsonStart = new GsonBuilder().setPrettyPrinting().create();
-                    gsonStart.toJson(jsonStart, out);
-                    break;
                 case "retournerClient":
                     action = new ActionProfil();
                     action.act(request);
@@ -161,6 +171,47 @@ public class ActionServlet extends HttpServlet {
                     Gson gsonDone = new GsonBuilder().setPrettyPrinting().create();
                     gsonDone.toJson(jsonDone, out);
                     break;
+                case "statistiquesCache":
+                    if (!verifierEmploye(session, response)) {
+                        break;
+                    }
+                    JsonObject jsonCache = new JsonObject();
+                    for (StatistiquesCache stats : Service.obtenirStatistiquesCache().values()) {
+                        JsonObject jsonEntite = new JsonObject();
+                        jsonEntite.addProperty("succes", stats.getSucces());
+                        jsonEntite.addProperty("echecs", stats.getEchecs());
+                        jsonEntite.addProperty("invalidations", stats.getInvalidations());
+                        jsonEntite.addProperty("evictions", stats.getEvictions());
+                        jsonEntite.addProperty("taux", stats.getTauxSucces());
+                        jsonCache.add(stats.getEntite(), jsonEntite);
+                    }
+                    Gson gsonCache = new GsonBuilder().setPrettyPrinting().create();
+                    gsonCache.toJson(jsonCache, out);
+                    break;
+                case "statistiquesAstro":
+                    if (!verifierEmploye(session, response)) {
+                        break;
+                    }
+                    PoolStats pool = AstroTest.obtenirStatistiquesPool();
+                    JsonObject jsonAstro = new JsonObject();
+                    jsonAstro.addProperty("appels", AstroTest.getNombreAppels());
+                    jsonAstro.addProperty("echecs", AstroTest.getNombreEchecs());
+                    jsonAstro.addProperty("appelsRegroupes", AstroTest.getNombreAppelsRegroupes());
+                    jsonAstro.addProperty("dureeMoyenneMs", AstroTest.getDureeMoyenneMs());
+                    jsonAstro.addProperty("dureeMaxMs", AstroTest.getDureeMaxMs());
+                    jsonAstro.addProperty("connexionsPretees", pool.getLeased());
+                    jsonAstro.addProperty("connexionsLibres", pool.getAvailable());
+                    jsonAstro.addProperty("appelsEnAttente", pool.getPending());
+                    jsonAstro.addProperty("connexionsMax", pool.getMax());
+                    CachePredictions cachePredictions = Service.obtenirCachePredictions();
+                    jsonAstro.addProperty("cacheTaille", cachePredictions.getTaille());
+                    jsonAstro.addProperty("cacheSucces", cachePredictions.getSucces());
+                    jsonAstro.addProperty("cacheEchecs", cachePredictions.getEchecs());
+                    jsonAstro.addProperty("cacheEvictions", cachePredictions.getEvictions());
+                    jsonAstro.addProperty("cacheTaux", cachePredictions.getTauxSucces());
+                    Gson gsonAstro = new GsonBuilder().setPrettyPrinting().create();
+                    gsonAstro.toJson(jsonAstro, out);
+                    break;
                 case "deconnexion":
                     JsonObject jsonPers = new JsonObject();
                     session.removeAttribute("personneConnectee");
@@ -171,14 +222,61 @@ public class ActionServlet extends HttpServlet {
         }
     }
 
+    /**
+     * Réserve une action aux employés connectés : les statistiques internes
+     * ne sont pas montrées aux clients ni aux visiteurs.
+     *
+     * @return vrai si un employé est connecté, sinon l'erreur est envoyée
+     */
+    private boolean verifierEmploye(HttpSession session, HttpServletResponse response) throws IOException {
+        Personne personne = (Personne) session.getAttribute("personneConnectee");
+        if (personne == null) {
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+            return false;
+        }
+        if (!(personne instanceof Employe)) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Traite les actions qui écrivent l'instantané du catalogue des médiums.
+     *
+     * @return vrai si l'action a été traitée
+     */
+    private boolean traiterCatalogue(String todo, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        Action action;
+        Serialisation serialisation;
+        switch (todo) {
+            case "consulterMediums":
+                action = new ActionConsulterMediums();
+                serialisation = new SerialisationConsulterMediums();
+                break;
+            case "caractMedium":
+                action = new ActionCaracteristiqueMediums();
+                serialisation = new SerialisationCaracteristiqueMediums();
+                break;
+            default:
+                return false;
+        }
+        action.act(request);
+        serialisation.serialize(request, response);
+        return true;
+    }
+
     @Override
     public void init() throws ServletException {
         super.init();
         JpaUtil.init();
+        Service.demarrer();
     }
 
     @Override
     public void destroy() {
+        Service.arreter();
         JpaUtil.destroy();
         super.destroy();
     }
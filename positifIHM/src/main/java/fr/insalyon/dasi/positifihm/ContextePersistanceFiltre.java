@@ -0,0 +1,54 @@
+package fr.insalyon.dasi.positifihm;
+
+import fr.insalyon.dasi.positif.dao.JpaUtil;
+import java.io.IOException;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+
+/**
+ * Ouvre un unique contexte de persistance pour tout le traitement d'une
+ * requête de l'ActionServlet : les appels au Service faits par l'Action puis
+ * la sérialisation partagent le même Entity Manager.
+ * <br>Mode optionnel, activé par le paramètre de contexte
+ * <code>positif.contexteParRequete</code> (cf.&nbsp;META-INF/context.xml) ou
+ * par la propriété système du même nom.
+ *
+ * @author brunosader
+ */
+@WebFilter(filterName = "ContextePersistanceFiltre", servletNames = {"ActionServlet"})
+public class ContextePersistanceFiltre implements Filter {
+
+    public static final String PARAMETRE_ACTIVATION = "positif.contexteParRequete";
+
+    private boolean actif;
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        actif = Boolean.parseBoolean(filterConfig.getServletContext().getInitParameter(PARAMETRE_ACTIVATION))
+                || Boolean.getBoolean(PARAMETRE_ACTIVATION);
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        if (!actif || JpaUtil.estContexteRequete()) {
+            chain.doFilter(request, response);
+            return;
+        }
+        JpaUtil.ouvrirContexteRequete();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            JpaUtil.fermerContexteRequete();
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
@@ -0,0 +1,70 @@
+package fr.insalyon.dasi.positifihm;
+
+import fr.insalyon.dasi.positif.metier.modele.Personne;
+import fr.insalyon.dasi.positif.metier.service.Service;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+/**
+ * Flux Server-Sent Events des événements des voyances de la Personne
+ * connectée (cf.&nbsp;HubEvenements) : les pages s'y abonnent avec un
+ * EventSource au lieu d'interroger périodiquement l'ActionServlet.
+ *
+ * @author brunosader
+ */
+@WebServlet(name = "EvenementsServlet", urlPatterns = {"/Evenements"}, asyncSupported = true, loadOnStartup = 1)
+public class EvenementsServlet extends HttpServlet {
+
+    /**
+     * Délai conseillé au navigateur avant de se reconnecter
+     */
+    static final int DELAI_RECONNEXION_MS = 5000;
+
+    private HubEvenements hub;
+
+    @Override
+    public void init() throws ServletException {
+        super.init();
+        hub = new HubEvenements();
+        Service.ajouterEcouteur(hub);
+    }
+
+    @Override
+    public void destroy() {
+        Service.retirerEcouteur(hub);
+        hub.arreter();
+        super.destroy();
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        HttpSession session = request.getSession(false);
+        Personne personne = session == null ? null : (Personne) session.getAttribute("personneConnectee");
+        if (personne == null) {
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+            return;
+        }
+        response.setContentType("text/event-stream;charset=UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        // Écrit avant le passage de la sortie en mode non bloquant
+        // (cf. HubEvenements.connecter())
+        response.getOutputStream().write(("retry: " + DELAI_RECONNEXION_MS + "\n\n").getBytes(StandardCharsets.UTF_8));
+        response.flushBuffer();
+        AsyncContext contexte = request.startAsync();
+        contexte.setTimeout(0);
+        hub.connecter(personne.getId(), contexte);
+    }
+
+    @Override
+    public String getServletInfo() {
+        return "Flux des événements des voyances";
+    }
+}
@@ -0,0 +1,315 @@
+package fr.insalyon.dasi.positifihm;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import fr.insalyon.dasi.positif.metier.service.EcouteurEvenements;
+import fr.insalyon.dasi.positif.metier.service.EvenementVoyance;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+/**
+ * Pousse les événements des voyances (cf.&nbsp;EvenementVoyance) aux
+ * navigateurs connectés, par Server-Sent Events : chaque page ouverte garde
+ * une connexion (cf.&nbsp;EvenementsServlet), rangée sous l'identifiant de la
+ * Personne connectée.
+ * <br>Les écritures ne bloquent jamais : chaque connexion a sa file de
+ * messages, écrite en mode non bloquant quand le conteneur signale que la
+ * sortie est prête (WriteListener). Une connexion lente ne retarde ni les
+ * transactions ni les autres connexions ; une connexion dont la file
+ * déborde, ou qui n'a rien pu écrire depuis DELAI_ECRITURE_MAX_SECONDES,
+ * est fermée (le navigateur se reconnecte).
+ * <br>Un commentaire est envoyé périodiquement pour que les proxys ne
+ * ferment pas les connexions inactives et pour repérer celles qui sont
+ * mortes.
+ *
+ * @author brunosader
+ */
+public class HubEvenements implements EcouteurEvenements {
+
+    /**
+     * Période d'envoi du commentaire de maintien des connexions
+     */
+    static final long PERIODE_MAINTIEN_SECONDES = 20;
+
+    /**
+     * Durée au-delà de laquelle une connexion dont la sortie n'est plus prête
+     * est fermée
+     */
+    static final long DELAI_ECRITURE_MAX_SECONDES = 30;
+
+    /**
+     * Nombre maximal de messages en attente d'écriture sur une connexion
+     */
+    static final int FILE_MAX = 100;
+
+    private static final Logger LOGGER = Logger.getLogger(HubEvenements.class.getName());
+
+    private static final byte[] MAINTIEN = ": maintien\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private final ConcurrentMap<Long, Set<Connexion>> connexions = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService planificateur;
+
+    /**
+     * Connexion d'une page : file des messages à écrire, vidée sans bloquer.
+     */
+    final class Connexion implements WriteListener {
+
+        private final long personneId;
+
+        private final AsyncContext contexte;
+
+        private final ServletOutputStream sortie;
+
+        private final Queue<byte[]> file = new ArrayDeque<>();
+
+        /**
+         * Instant depuis lequel la sortie n'est pas prête (le conteneur
+         * appellera onWritePossible()), 0 si elle l'est
+         */
+        private long bloqueeDepuis;
+
+        private boolean fermee;
+
+        Connexion(long personneId, AsyncContext contexte, ServletOutputStream sortie) {
+            this.personneId = personneId;
+            this.contexte = contexte;
+            this.sortie = sortie;
+        }
+
+        /**
+         * Met un message dans la file et l'écrit si la sortie est prête.
+         */
+        synchronized void envoyer(byte[] message) {
+            if (fermee) {
+                return;
+            }
+            if (file.size() >= FILE_MAX) {
+                LOGGER.log(Level.FINE, "Connexion de la personne #{0} fermée : file pleine", personneId);
+                fermer();
+                return;
+            }
+            file.add(message);
+            if (bloqueeDepuis == 0) {
+                ecrire();
+            }
+        }
+
+        @Override
+        public synchronized void onWritePossible() {
+            bloqueeDepuis = 0;
+            ecrire();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            LOGGER.log(Level.FINE, "Connexion perdue", t);
+            fermer();
+        }
+
+        /**
+         * @return vrai si la sortie n'est pas prête depuis plus longtemps que
+         * le délai donné
+         */
+        synchronized boolean estBloquee(long maintenant, long delaiMs) {
+            return bloqueeDepuis != 0 && maintenant - bloqueeDepuis > delaiMs;
+        }
+
+        /**
+         * Écrit les messages de la file tant que la sortie est prête. Doit
+         * être appelé sous le verrou.
+         */
+        private void ecrire() {
+            if (fermee) {
+                return;
+            }
+            try {
+                while (sortie.isReady()) {
+                    byte[] message = file.poll();
+                    if (message == null) {
+                        return;
+                    }
+                    sortie.write(message);
+                    if (sortie.isReady()) {
+                        sortie.flush();
+                    }
+                }
+                bloqueeDepuis = System.currentTimeMillis();
+            } catch (IOException | IllegalStateException ex) {
+                LOGGER.log(Level.FINE, "Connexion perdue", ex);
+                fermer();
+            }
+        }
+
+        synchronized void fermer() {
+            if (fermee) {
+                return;
+            }
+            fermee = true;
+            file.clear();
+            deconnecter(this);
+            try {
+                contexte.complete();
+            } catch (IllegalStateException ex) {
+                // Déjà terminé par le conteneur
+            }
+        }
+    }
+
+    public HubEvenements() {
+        planificateur = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "HubEvenements");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        planificateur.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                maintenir();
+            }
+        }, PERIODE_MAINTIEN_SECONDES, PERIODE_MAINTIEN_SECONDES, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Enregistre la connexion d'une page et passe sa sortie en mode non
+     * bloquant ; elle est oubliée à sa fermeture.
+     *
+     * @param personneId l'identifiant de la Personne connectée
+     * @param contexte le contexte asynchrone de la requête
+     * @throws IOException si la sortie de la réponse n'est pas disponible
+     */
+    public void connecter(long personneId, AsyncContext contexte) throws IOException {
+        final Connexion connexion = new Connexion(personneId, contexte, contexte.getResponse().getOutputStream());
+        Set<Connexion> ensemble = connexions.get(personneId);
+        if (ensemble == null) {
+            Set<Connexion> nouveau = new CopyOnWriteArraySet<>();
+            ensemble = connexions.putIfAbsent(personneId, nouveau);
+            if (ensemble == null) {
+                ensemble = nouveau;
+            }
+        }
+        ensemble.add(connexion);
+        contexte.addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) {
+                deconnecter(connexion);
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                deconnecter(connexion);
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                deconnecter(connexion);
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+        connexion.sortie.setWriteListener(connexion);
+    }
+
+    /**
+     * @return le nombre de connexions ouvertes
+     */
+    public int getNombreConnexions() {
+        int nombre = 0;
+        for (Set<Connexion> ensemble : connexions.values()) {
+            nombre += ensemble.size();
+        }
+        return nombre;
+    }
+
+    @Override
+    public void recevoir(EvenementVoyance evenement) {
+        Set<Connexion> ensemble = connexions.get(evenement.getDestinataireId());
+        if (ensemble == null || ensemble.isEmpty()) {
+            return;
+        }
+        byte[] message = ("event: " + evenement.getType().name().toLowerCase(Locale.ROOT)
+                + "\ndata: " + enJson(evenement) + "\n\n").getBytes(StandardCharsets.UTF_8);
+        for (Connexion connexion : ensemble) {
+            connexion.envoyer(message);
+        }
+    }
+
+    /**
+     * Ferme toutes les connexions et arrête le Thread de maintien.
+     */
+    public void arreter() {
+        planificateur.shutdownNow();
+        for (Set<Connexion> ensemble : connexions.values()) {
+            for (Connexion connexion : ensemble) {
+                connexion.fermer();
+            }
+        }
+    }
+
+    static String enJson(EvenementVoyance evenement) {
+        JsonObject json = new JsonObject();
+        json.addProperty("type", evenement.getType().name().toLowerCase(Locale.ROOT));
+        json.addProperty("conversationId", evenement.getConversationId());
+        if (evenement.getPredictions() != null) {
+            JsonArray predictions = new JsonArray();
+            for (String prediction : evenement.getPredictions()) {
+                predictions.add(new JsonPrimitive(prediction));
+            }
+            json.add("predictions", predictions);
+        }
+        return json.toString();
+    }
+
+    /**
+     * Passage du Thread de maintien : ferme les connexions bloquées, envoie
+     * le commentaire de maintien aux autres.
+     */
+    private void maintenir() {
+        long maintenant = System.currentTimeMillis();
+        for (Map.Entry<Long, Set<Connexion>> entree : connexions.entrySet()) {
+            for (Connexion connexion : entree.getValue()) {
+                if (connexion.estBloquee(maintenant, TimeUnit.SECONDS.toMillis(DELAI_ECRITURE_MAX_SECONDES))) {
+                    LOGGER.log(Level.FINE, "Connexion de la personne #{0} fermée : écriture bloquée", entree.getKey());
+                    connexion.fermer();
+                } else {
+                    connexion.envoyer(MAINTIEN);
+                }
+            }
+        }
+    }
+
+    private void deconnecter(Connexion connexion) {
+        Set<Connexion> ensemble = connexions.get(connexion.personneId);
+        if (ensemble != null) {
+            ensemble.remove(connexion);
+            if (ensemble.isEmpty()) {
+                connexions.remove(connexion.personneId, ensemble);
+            }
+        }
+    }
+}
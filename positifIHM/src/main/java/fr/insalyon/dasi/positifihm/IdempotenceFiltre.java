@@ -0,0 +1,168 @@
+package fr.insalyon.dasi.positifihm;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Rend idempotentes les actions de l'ActionServlet qui modifient des données :
+ * une requête qui porte la même clé d'idempotence qu'une précédente (en-tête
+ * <code>Idempotency-Key</code> ou paramètre <code>cleIdempotence</code>)
+ * reçoit la réponse de celle-ci, sans nouvelle transaction. Si la première
+ * est encore en cours, la requête répétée attend sa réponse.
+ * <br>Les clés sont propres à chaque session et à chaque action ; une
+ * requête sans clé est traitée normalement. Une requête qui reprend la clé
+ * d'une précédente avec d'autres paramètres est refusée (422) : elle ne
+ * reçoit pas la réponse d'une autre intention.
+ *
+ * @author brunosader
+ */
+@WebFilter(filterName = "IdempotenceFiltre", servletNames = {"ActionServlet"})
+public class IdempotenceFiltre implements Filter {
+
+    public static final String EN_TETE = "Idempotency-Key";
+
+    public static final String PARAMETRE = "cleIdempotence";
+
+    /**
+     * Les actions concernées
+     */
+    static final Set<String> TODOS = new HashSet<>(Arrays.asList(
+            "commencerConsultation", "genererVoyance", "terminerVoyance", "inscription"));
+
+    static final int TAILLE_MAX = 10000;
+
+    static final long DUREE_VIE_MS = 10 * 60 * 1000;
+
+    /**
+     * Attente maximale de la réponse de la première requête
+     */
+    static final long ATTENTE_MAX_MS = 30 * 1000;
+
+    /**
+     * Clé reprise avec d'autres paramètres (Unprocessable Entity)
+     */
+    static final int SC_CLE_REUTILISEE = 422;
+
+    private final TableIdempotence table = new TableIdempotence(TAILLE_MAX, DUREE_VIE_MS);
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest requete = (HttpServletRequest) request;
+        String todo = requete.getParameter("todo");
+        String cle = requete.getHeader(EN_TETE);
+        if (cle == null) {
+            cle = requete.getParameter(PARAMETRE);
+        }
+        if (cle == null || cle.isEmpty() || !TODOS.contains(todo)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        cle = requete.getSession(true).getId() + "|" + todo + "|" + cle;
+        byte[] empreinte = empreinte(requete);
+
+        while (true) {
+            TableIdempotence.Entree entree = new TableIdempotence.Entree(empreinte);
+            TableIdempotence.Entree premiere = table.reserver(cle, entree);
+            if (premiere == null) {
+                traiter(cle, entree, request, (HttpServletResponse) response, chain);
+                return;
+            }
+            if (!premiere.correspond(empreinte)) {
+                ((HttpServletResponse) response).sendError(SC_CLE_REUTILISEE);
+                return;
+            }
+            boolean disponible;
+            try {
+                disponible = premiere.attendre(ATTENTE_MAX_MS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new ServletException(ex);
+            }
+            if (disponible) {
+                repondre(response, premiere);
+                return;
+            }
+            if (!premiere.estAbandonnee()) {
+                // Toujours en cours après l'attente maximale
+                ((HttpServletResponse) response).sendError(HttpServletResponse.SC_CONFLICT);
+                return;
+            }
+            // La première a échoué : la requête est traitée à son tour
+        }
+    }
+
+    /**
+     * Empreinte (SHA-256) des paramètres de la requête, hors clé
+     * d'idempotence : la table ne garde pas les paramètres eux-mêmes (mots de
+     * passe de l'inscription).
+     */
+    static byte[] empreinte(HttpServletRequest requete) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        for (Map.Entry<String, String[]> parametre : new TreeMap<>(requete.getParameterMap()).entrySet()) {
+            if (PARAMETRE.equals(parametre.getKey())) {
+                continue;
+            }
+            digest.update(parametre.getKey().getBytes(StandardCharsets.UTF_8));
+            for (String valeur : parametre.getValue()) {
+                digest.update((byte) 0);
+                digest.update(valeur.getBytes(StandardCharsets.UTF_8));
+            }
+            digest.update((byte) 1);
+        }
+        return digest.digest();
+    }
+
+    private void traiter(String cle, TableIdempotence.Entree entree, ServletRequest request,
+            HttpServletResponse response, FilterChain chain) throws IOException, ServletException {
+        ReponseMemorisee memorisee = new ReponseMemorisee(response);
+        try {
+            chain.doFilter(request, memorisee);
+        } catch (IOException | ServletException | RuntimeException ex) {
+            table.oublier(cle, entree);
+            entree.abandonner();
+            throw ex;
+        }
+        entree.terminer(memorisee.getContenu(), memorisee.getContentType());
+        repondre(response, entree);
+    }
+
+    private void repondre(ServletResponse response, TableIdempotence.Entree entree) throws IOException {
+        if (entree.getTypeContenu() != null) {
+            response.setContentType(entree.getTypeContenu());
+        }
+        try (PrintWriter out = response.getWriter()) {
+            out.print(entree.getContenu());
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
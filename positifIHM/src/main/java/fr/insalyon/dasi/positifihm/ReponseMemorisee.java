@@ -0,0 +1,36 @@
+package fr.insalyon.dasi.positifihm;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Réponse dont le corps, écrit par getWriter(), est gardé en mémoire au lieu
+ * d'être envoyé (cf.&nbsp;IdempotenceFiltre).
+ *
+ * @author brunosader
+ */
+public class ReponseMemorisee extends HttpServletResponseWrapper {
+
+    private final StringWriter corps = new StringWriter();
+
+    private final PrintWriter writer = new PrintWriter(corps);
+
+    public ReponseMemorisee(HttpServletResponse response) {
+        super(response);
+    }
+
+    @Override
+    public PrintWriter getWriter() {
+        return writer;
+    }
+
+    /**
+     * @return le corps de la réponse écrit jusqu'ici
+     */
+    public String getContenu() {
+        writer.flush();
+        return corps.toString();
+    }
+}
@@ -0,0 +1,180 @@
+package fr.insalyon.dasi.positifihm;
+
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Table en mémoire des requêtes déjà traitées, par clé d'idempotence : une
+ * requête répétée (double clic, nouvel essai d'un proxy) reçoit la réponse
+ * de la première au lieu d'être traitée une seconde fois.
+ * <br>La table est bornée (les plus anciennes entrées sont oubliées les
+ * premières) et chaque entrée expire après une durée fixe.
+ *
+ * @author brunosader
+ */
+public class TableIdempotence {
+
+    /**
+     * Réponse d'une requête, disponible une fois la requête traitée.
+     */
+    public static class Entree {
+
+        private final long creation = System.currentTimeMillis();
+
+        /**
+         * Empreinte des paramètres de la requête : une requête répétée doit
+         * porter les mêmes
+         */
+        private final byte[] empreinte;
+
+        private final CountDownLatch fin = new CountDownLatch(1);
+
+        private volatile boolean abandonnee;
+
+        private volatile String contenu;
+
+        private volatile String typeContenu;
+
+        /**
+         * @param empreinte l'empreinte des paramètres de la requête
+         */
+        public Entree(byte[] empreinte) {
+            this.empreinte = empreinte;
+        }
+
+        /**
+         * @param autre l'empreinte des paramètres d'une requête répétée
+         * @return vrai si la requête répétée porte les mêmes paramètres
+         */
+        boolean correspond(byte[] autre) {
+            return MessageDigest.isEqual(empreinte, autre);
+        }
+
+        /**
+         * Enregistre la réponse et libère les requêtes répétées en attente.
+         *
+         * @param contenu le corps de la réponse
+         * @param typeContenu le type de contenu de la réponse
+         */
+        void terminer(String contenu, String typeContenu) {
+            this.contenu = contenu;
+            this.typeContenu = typeContenu;
+            fin.countDown();
+        }
+
+        /**
+         * Le traitement a échoué : les requêtes répétées en attente seront
+         * traitées normalement.
+         */
+        void abandonner() {
+            abandonnee = true;
+            fin.countDown();
+        }
+
+        /**
+         * @param delaiMs le délai d'attente maximal
+         * @return vrai si la réponse est disponible
+         * @throws InterruptedException si l'attente est interrompue
+         */
+        boolean attendre(long delaiMs) throws InterruptedException {
+            return fin.await(delaiMs, TimeUnit.MILLISECONDS) && !abandonnee;
+        }
+
+        /**
+         * @return vrai si le traitement a échoué
+         */
+        boolean estAbandonnee() {
+            return abandonnee;
+        }
+
+        public String getContenu() {
+            return contenu;
+        }
+
+        public String getTypeContenu() {
+            return typeContenu;
+        }
+    }
+
+    private final int tailleMax;
+
+    private final long dureeVieMs;
+
+    /**
+     * Dans l'ordre d'insertion : les plus anciennes entrées sont en tête
+     */
+    private final LinkedHashMap<String, Entree> entrees;
+
+    /**
+     * @param tailleMax le nombre maximal d'entrées
+     * @param dureeVieMs la durée de vie d'une entrée
+     */
+    public TableIdempotence(final int tailleMax, long dureeVieMs) {
+        this.tailleMax = tailleMax;
+        this.dureeVieMs = dureeVieMs;
+        this.entrees = new LinkedHashMap<String, Entree>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entree> eldest) {
+                return size() > tailleMax;
+            }
+        };
+    }
+
+    /**
+     * Réserve une clé pour une nouvelle requête.
+     *
+     * @param cle la clé d'idempotence
+     * @param nouvelle l'entrée à enregistrer si la clé est libre
+     * @return l'entrée de la requête qui a déjà réservé cette clé, null si la
+     * clé était libre (la nouvelle entrée est alors enregistrée)
+     */
+    public synchronized Entree reserver(String cle, Entree nouvelle) {
+        purger();
+        Entree existante = entrees.get(cle);
+        if (existante != null && !existante.abandonnee) {
+            return existante;
+        }
+        entrees.put(cle, nouvelle);
+        return null;
+    }
+
+    /**
+     * Oublie l'entrée d'une requête dont le traitement a échoué.
+     *
+     * @param cle la clé d'idempotence
+     * @param entree l'entrée de la requête
+     */
+    public synchronized void oublier(String cle, Entree entree) {
+        if (entrees.get(cle) == entree) {
+            entrees.remove(cle);
+        }
+    }
+
+    /**
+     * @return le nombre d'entrées
+     */
+    public synchronized int getTaille() {
+        return entrees.size();
+    }
+
+    /**
+     * Retire les entrées expirées : elles sont en tête de la table, la durée
+     * de vie étant la même pour toutes. Doit être appelé sous le verrou.
+     */
+    private void purger() {
+        long limite = System.currentTimeMillis() - dureeVieMs;
+        Iterator<Entree> it = entrees.values().iterator();
+        while (it.hasNext() && it.next().creation < limite) {
+            it.remove();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TableIdempotence[entrees=" + entrees.size() + "/" + tailleMax + ", dureeVie=" + dureeVieMs / 1000 + " s]";
+    }
+}
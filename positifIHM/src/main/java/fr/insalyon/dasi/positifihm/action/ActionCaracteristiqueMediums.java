@@ -5,7 +5,7 @@
  */
 package fr.insalyon.dasi.positifihm.action;
 
-import fr.insalyon.dasi.positif.metier.modele.Medium;
+import fr.insalyon.dasi.positif.metier.service.CatalogueMediums;
 import fr.insalyon.dasi.positif.metier.service.Service;
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -88,13 +88,11 @@ public class ActionCaracteristiqueMediums extends Action {
     }// </editor-fold>
 
     public void act(HttpServletRequest request) {
-        Service s = new Service();
         String chaine = request.getParameter("myId");
         Long id = Long.parseLong(chaine);
-        Medium Med = s.getMediumParId(id);
-        request.setAttribute("nom", Med.getNom());
-        request.setAttribute("desc", Med.getDescriptif());
-        request.setAttribute("id", Med.getId());
+        // Fiche de l'instantané du catalogue, sans accès à la base
+        CatalogueMediums.Fiche fiche = Service.obtenirCatalogue().obtenir(id);
+        request.setAttribute("fiche", fiche);
     }
 
 }
@@ -5,6 +5,7 @@
  */
 package fr.insalyon.dasi.positifihm.action;
 
+import fr.insalyon.dasi.positif.metier.affectation.DemandeEnAttente;
 import fr.insalyon.dasi.positif.metier.modele.Client;
 import fr.insalyon.dasi.positif.metier.modele.Medium;
 import fr.insalyon.dasi.positif.metier.modele.Personne;
@@ -98,6 +99,7 @@ public class ActionCommencerConsultation extends Action {
         HttpSession session = request.getSession(true);
         Personne pers = (Personne) session.getAttribute("personneConnectee");
         Client monClient = s.getClientParId(pers.getId());
-        s.demanderVoyance(monClient,unMedium);
+        DemandeEnAttente demande = s.demanderVoyanceOuAttendre(monClient, unMedium);
+        request.setAttribute("demande", demande);
     }
 }
@@ -5,11 +5,10 @@
  */
 package fr.insalyon.dasi.positifihm.action;
 
-import fr.insalyon.dasi.positif.metier.modele.Medium;
+import fr.insalyon.dasi.positif.metier.service.CatalogueMediums;
 import fr.insalyon.dasi.positif.metier.service.Service;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.List;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -90,8 +89,9 @@ public class ActionConsulterMediums extends Action {
 
     public void act(HttpServletRequest request)
     {
-        Service s = new Service();
-        List<Medium> listeMediums = s.obtenirTousMediums();
-        request.setAttribute("listeMediums",listeMediums);
+        // Instantané du catalogue, sans accès à la base
+        CatalogueMediums catalogue = Service.obtenirCatalogue();
+        request.setAttribute("catalogue", catalogue);
+        request.setAttribute("mediumsDisponibles", Service.obtenirMediumsDisponibles());
     }
 }
@@ -99,7 +99,7 @@ public class ActionGenererVoyance extends Action {
         HttpSession session = request.getSession(true);
         Conversation convo = s.getConversationParId(idConvo);
         s.AccepterVoyance(convo);
-        List<String> lesPredictions = s.ObtenirPredictions(convo.getClient(),amour,sante,travail);
+        List<String> lesPredictions = s.genererPredictions(convo,amour,sante,travail);
         session.setAttribute("lesPredictions",lesPredictions);
     }
 
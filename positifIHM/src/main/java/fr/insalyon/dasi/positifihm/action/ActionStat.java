@@ -7,11 +7,11 @@ package fr.insalyon.dasi.positifihm.action;
 
 import fr.insalyon.dasi.positif.metier.modele.Client;
 import fr.insalyon.dasi.positif.metier.modele.Conversation;
+import fr.insalyon.dasi.positif.metier.modele.LigneStatistique;
 import fr.insalyon.dasi.positif.metier.modele.Personne;
 import fr.insalyon.dasi.positif.metier.service.Service;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.HashMap;
 import java.util.List;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
@@ -94,8 +94,8 @@ public class ActionStat extends Action {
 
     public void act(HttpServletRequest request) {
         Service s = new Service();
-        HashMap<String,Integer>  stats1 = s.ObtenirHistogrammeVoyancesParMedium();
-        HashMap<String,Integer>  stats2 = s.ObtenirHistogrammeVoyancesParEmploye();
+        List<LigneStatistique>  stats1 = s.ObtenirHistogrammeVoyancesParMedium();
+        List<LigneStatistique>  stats2 = s.ObtenirHistogrammeVoyancesParEmploye();
         request.setAttribute("stats1", stats1);
         request.setAttribute("stats2", stats2);
     }
@@ -0,0 +1,115 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package fr.insalyon.dasi.positifihm.action;
+
+import fr.insalyon.dasi.positif.metier.affectation.DemandeEnAttente;
+import fr.insalyon.dasi.positif.metier.modele.Personne;
+import fr.insalyon.dasi.positif.metier.service.Service;
+import java.io.IOException;
+import java.io.PrintWriter;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+/**
+ *
+ * @author brunosader
+ */
+@WebServlet(name = "ActionSuivreDemande", urlPatterns = {"/ActionSuivreDemande"})
+public class ActionSuivreDemande extends Action {
+
+    /**
+     * Processes requests for both HTTP <code>GET</code> and <code>POST</code>
+     * methods.
+     *
+     * @param request servlet request
+     * @param response servlet response
+     * @throws ServletException if a servlet-specific error occurs
+     * @throws IOException if an I/O error occurs
+     */
+    protected void processRequest(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        response.setContentType("text/html;charset=UTF-8");
+        try (PrintWriter out = response.getWriter()) {
+            /* TODO output your page here. You may use following sample code. */
+            out.println("<!DOCTYPE html>");
+            out.println("<html>");
+            out.println("<head>");
+            out.println("<title>Servlet ActionSuivreDemande</title>");
+            out.println("</head>");
+            out.println("<body>");
+            out.println("<h1>Servlet ActionSuivreDemande at " + request.getContextPath() + "</h1>");
+            out.println("</body>");
+            out.println("</html>");
+        }
+    }
+
+    // <editor-fold defaultstate="collapsed" desc="HttpServlet methods. Click on the + sign on the left to edit the code.">
+    /**
+     * Handles the HTTP <code>GET</code> method.
+     *
+     * @param request servlet request
+     * @param response servlet response
+     * @throws ServletException if a servlet-specific error occurs
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        processRequest(request, response);
+    }
+
+    /**
+     * Handles the HTTP <code>POST</code> method.
+     *
+     * @param request servlet request
+     * @param response servlet response
+     * @throws ServletException if a servlet-specific error occurs
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        processRequest(request, response);
+    }
+
+    /**
+     * Returns a short description of the servlet.
+     *
+     * @return a String containing servlet description
+     */
+    @Override
+    public String getServletInfo() {
+        return "Short description";
+    }// </editor-fold>
+
+    public void act(HttpServletRequest request) {
+        Service s = new Service();
+        long id = Long.parseLong(request.getParameter("demandeId"));
+        HttpSession session = request.getSession(true);
+        Personne pers = (Personne) session.getAttribute("personneConnectee");
+        // Un client ne suit que ses propres demandes : vérifié avant toute
+        // consultation, qui rafraîchirait la demande
+        if (pers == null) {
+            request.setAttribute("erreur", HttpServletResponse.SC_UNAUTHORIZED);
+            return;
+        }
+        Long clientId = s.obtenirClientDemande(id);
+        if (clientId == null || !clientId.equals(pers.getId())) {
+            request.setAttribute("erreur", HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        DemandeEnAttente demande = s.consulterDemande(id);
+        if ("true".equals(request.getParameter("annuler"))) {
+            s.annulerDemande(id);
+            demande = s.consulterDemande(id);
+        }
+        request.setAttribute("demande", demande);
+    }
+}
@@ -99,6 +99,8 @@ public class SerialisationAccueilEmploye extends Serialisation {
             request.removeAttribute("monEmploye");
             JsonObject jsonPers = new JsonObject();
             jsonPers.addProperty("prenom", monEmploye.getPrenom());
+            jsonPers.addProperty("occupation", monEmploye.getOccupation());
+            jsonPers.addProperty("capacite", monEmploye.getCapacite());
             List<Conversation> listeConvo = monEmploye.getConversations();
             if (listeConvo.size() > 0) {
                 jsonPers.addProperty("bool", true);
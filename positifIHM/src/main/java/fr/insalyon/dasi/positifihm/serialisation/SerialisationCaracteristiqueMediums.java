@@ -5,11 +5,11 @@
  */
 package fr.insalyon.dasi.positifihm.serialisation;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonObject;
+import fr.insalyon.dasi.positif.metier.service.CatalogueMediums;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -23,6 +23,8 @@ import javax.servlet.http.HttpServletResponse;
 @WebServlet(name = "SerialisationCaracteristiqueMediums", urlPatterns = {"/SerialisationCaracteristiqueMediums"})
 public class SerialisationCaracteristiqueMediums extends Serialisation {
 
+    private static final byte[] MEDIUM_INCONNU = "{\"Medium\":null}".getBytes(StandardCharsets.UTF_8);
+
     /**
      * Processes requests for both HTTP <code>GET</code> and <code>POST</code>
      * methods.
@@ -89,18 +91,13 @@ public class SerialisationCaracteristiqueMediums extends Serialisation {
     }// </editor-fold>
 
     public void serialize(HttpServletRequest request, HttpServletResponse response) throws IOException {
-        try (PrintWriter out = response.getWriter()) {
-            JsonObject jsonPers = new JsonObject();
-            jsonPers.addProperty("nom",(String) request.getAttribute("nom"));
-            jsonPers.addProperty("desc",(String) request.getAttribute("desc"));
-            jsonPers.addProperty("id",(Long) request.getAttribute("id"));
-            request.removeAttribute("nom");
-            request.removeAttribute("desc");
-            request.removeAttribute("id");
-            JsonObject jsonMediumContainer = new JsonObject();
-            jsonMediumContainer.add("Medium", jsonPers);
-            Gson gsonMedium = new GsonBuilder().setPrettyPrinting().create();
-            gsonMedium.toJson(jsonMediumContainer, out);
+        CatalogueMediums.Fiche fiche = (CatalogueMediums.Fiche) request.getAttribute("fiche");
+        request.removeAttribute("fiche");
+        // JSON déjà encodé par le catalogue : écrit tel quel
+        byte[] json = fiche != null ? fiche.getDetail() : MEDIUM_INCONNU;
+        response.setContentLength(json.length);
+        try (OutputStream out = response.getOutputStream()) {
+            out.write(json);
         }
     }
 
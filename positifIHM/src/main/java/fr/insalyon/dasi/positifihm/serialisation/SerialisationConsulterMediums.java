@@ -5,14 +5,13 @@
  */
 package fr.insalyon.dasi.positifihm.serialisation;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
-import fr.insalyon.dasi.positif.metier.modele.Medium;
+import fr.insalyon.dasi.positif.metier.service.CatalogueMediums;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -26,6 +25,10 @@ import javax.servlet.http.HttpServletResponse;
 @WebServlet(name = "SerialisationConsulterMediums", urlPatterns = {"/SerialisationConsulterMediums"})
 public class SerialisationConsulterMediums extends Serialisation {
 
+    private static final byte[] DEBUT = "{\"Mediums\":[".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] FIN = "]}".getBytes(StandardCharsets.UTF_8);
+
     /**
      * Processes requests for both HTTP <code>GET</code> and <code>POST</code>
      * methods.
@@ -92,20 +95,25 @@ public class SerialisationConsulterMediums extends Serialisation {
     }// </editor-fold>
 
     public void serialize(HttpServletRequest request, HttpServletResponse response) throws IOException {
-        try (PrintWriter out = response.getWriter()) {
-            JsonObject jsonPers = new JsonObject();
-            List<Medium> listeMediums = (List<Medium>) request.getAttribute("listeMediums");
-            JsonArray jsonArrayMediums = new JsonArray();
-            for (Medium unMedium : listeMediums) {
-                jsonPers = new JsonObject();
-                jsonPers.addProperty("nom", unMedium.getNom());
-                jsonPers.addProperty("id", unMedium.getId());
-                jsonArrayMediums.add(jsonPers);
+        CatalogueMediums catalogue = (CatalogueMediums) request.getAttribute("catalogue");
+        Set<Long> mediumsDisponibles = (Set<Long>) request.getAttribute("mediumsDisponibles");
+        request.removeAttribute("catalogue");
+        request.removeAttribute("mediumsDisponibles");
+        // Assemblage des éléments JSON déjà encodés par le catalogue
+        ByteArrayOutputStream json = new ByteArrayOutputStream(256 * (catalogue.getFiches().size() + 1));
+        json.write(DEBUT);
+        boolean premier = true;
+        for (CatalogueMediums.Fiche fiche : catalogue.getFiches()) {
+            if (!premier) {
+                json.write(',');
             }
-            JsonObject jsonMediumContainer = new JsonObject();
-            jsonMediumContainer.add("Mediums", jsonArrayMediums);
-            Gson gsonMedium = new GsonBuilder().setPrettyPrinting().create();
-            gsonMedium.toJson(jsonMediumContainer, out);
+            premier = false;
+            json.write(fiche.getResume(mediumsDisponibles == null ? null : mediumsDisponibles.contains(fiche.getId())));
+        }
+        json.write(FIN);
+        response.setContentLength(json.size());
+        try (OutputStream out = response.getOutputStream()) {
+            json.writeTo(out);
         }
     }
 
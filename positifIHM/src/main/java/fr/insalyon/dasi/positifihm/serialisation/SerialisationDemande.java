@@ -0,0 +1,112 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package fr.insalyon.dasi.positifihm.serialisation;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import fr.insalyon.dasi.positif.metier.affectation.DemandeEnAttente;
+import java.io.IOException;
+import java.io.PrintWriter;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ *
+ * @author brunosader
+ */
+@WebServlet(name = "SerialisationDemande", urlPatterns = {"/SerialisationDemande"})
+public class SerialisationDemande extends Serialisation {
+
+    /**
+     * Processes requests for both HTTP <code>GET</code> and <code>POST</code>
+     * methods.
+     *
+     * @param request servlet request
+     * @param response servlet response
+     * @throws ServletException if a servlet-specific error occurs
+     * @throws IOException if an I/O error occurs
+     */
+    protected void processRequest(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        response.setContentType("text/html;charset=UTF-8");
+        try (PrintWriter out = response.getWriter()) {
+            /* TODO output your page here. You may use following sample code. */
+            out.println("<!DOCTYPE html>");
+            out.println("<html>");
+            out.println("<head>");
+            out.println("<title>Servlet SerialisationDemande</title>");
+            out.println("</head>");
+            out.println("<body>");
+            out.println("<h1>Servlet SerialisationDemande at " + request.getContextPath() + "</h1>");
+            out.println("</body>");
+            out.println("</html>");
+        }
+    }
+
+    // <editor-fold defaultstate="collapsed" desc="HttpServlet methods. Click on the + sign on the left to edit the code.">
+    /**
+     * Handles the HTTP <code>GET</code> method.
+     *
+     * @param request servlet request
+     * @param response servlet response
+     * @throws ServletException if a servlet-specific error occurs
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        processRequest(request, response);
+    }
+
+    /**
+     * Handles the HTTP <code>POST</code> method.
+     *
+     * @param request servlet request
+     * @param response servlet response
+     * @throws ServletException if a servlet-specific error occurs
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        processRequest(request, response);
+    }
+
+    /**
+     * Returns a short description of the servlet.
+     *
+     * @return a String containing servlet description
+     */
+    @Override
+    public String getServletInfo() {
+        return "Short description";
+    }// </editor-fold>
+
+    public void serialize(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        try (PrintWriter out = response.getWriter()) {
+            DemandeEnAttente demande = (DemandeEnAttente) request.getAttribute("demande");
+            request.removeAttribute("demande");
+            JsonObject jsonDemande = new JsonObject();
+            if (demande == null) {
+                jsonDemande.addProperty("done", false);
+            } else {
+                jsonDemande.addProperty("done", demande.getEtat() != DemandeEnAttente.Etat.REFUSEE);
+                jsonDemande.addProperty("etat", demande.getEtat().name());
+                jsonDemande.addProperty("demandeId", demande.getId());
+                jsonDemande.addProperty("position", demande.getPosition());
+                jsonDemande.addProperty("attenteSecondes", demande.getAttenteEstimeeMs() / 1000);
+                jsonDemande.addProperty("conversationId", demande.getConversationId());
+            }
+            Gson mygson = new GsonBuilder().setPrettyPrinting().create();
+            mygson.toJson(jsonDemande, out);
+        }
+    }
+
+}
@@ -99,6 +99,7 @@ public class SerialisationProfil extends Serialisation {
             jsonPers.addProperty("chinois", monClient.getSigneChinois());
             jsonPers.addProperty("totem", monClient.getAnimal());
             jsonPers.addProperty("couleur", monClient.getCouleur());
+            jsonPers.addProperty("profilEnAttente", monClient.isProfilEnAttente());
             Gson mygson = new GsonBuilder().setPrettyPrinting().create();
             mygson.toJson(jsonPers, out);
         }
@@ -98,10 +98,14 @@ public class SerialisationRecupererPrediction extends Serialisation {
             session.removeAttribute("lesPredictions");
             JsonObject jsonPers = new JsonObject();
             JsonArray jsonArrayPredictions = new JsonArray();
-            for (String unePrediction : mesPredictions) {
-                JsonObject jsonPrediction = new JsonObject();
-                jsonPrediction.addProperty("message",unePrediction);
-                jsonArrayPredictions.add(jsonPrediction);
+            // Pas de prédictions si le Service Web a échoué ou si le profil
+            // astral du client est encore en attente
+            if (mesPredictions != null) {
+                for (String unePrediction : mesPredictions) {
+                    JsonObject jsonPrediction = new JsonObject();
+                    jsonPrediction.addProperty("message",unePrediction);
+                    jsonArrayPredictions.add(jsonPrediction);
+                }
             }
             jsonPers.add("predictions",jsonArrayPredictions);
             Gson mygson = new GsonBuilder().setPrettyPrinting().create();
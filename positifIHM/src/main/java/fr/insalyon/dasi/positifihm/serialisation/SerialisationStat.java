@@ -10,14 +10,12 @@ import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import fr.insalyon.dasi.positif.metier.modele.Conversation;
+import fr.insalyon.dasi.positif.metier.modele.LigneStatistique;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -101,34 +99,26 @@ public class SerialisationStat extends Serialisation {
             JsonArray jsonArrayStat = new JsonArray();
             JsonArray jsonArrayStat2 = new JsonArray();
             
-            HashMap<String,Integer> Stats1 = (HashMap<String,Integer>) request.getAttribute("stats1");
+            List<LigneStatistique> Stats1 = (List<LigneStatistique>) request.getAttribute("stats1");
             request.removeAttribute("stats1");
             
-            HashMap<String,Integer> Stats2 = (HashMap<String,Integer>) request.getAttribute("stats2");
+            List<LigneStatistique> Stats2 = (List<LigneStatistique>) request.getAttribute("stats2");
             request.removeAttribute("stats2");
          
-            Set cles = Stats1.keySet();
-            Iterator it = cles.iterator();
-            while (it.hasNext()){
-               Object cle = it.next(); // tu peux typer plus finement ici
-               Object val = Stats1.get(cle).toString() ; // tu peux typer plus finement ici
+            for (LigneStatistique ligne : Stats1){
                JsonObject jsonStat = new JsonObject();
-               jsonStat.addProperty("personne", (String) cle);
-               jsonStat.addProperty("valeur", (String) val);
+               jsonStat.addProperty("id", ligne.getId());
+               jsonStat.addProperty("personne", ligne.getLibelle());
+               jsonStat.addProperty("valeur", ligne.getNombre());
                jsonArrayStat.add(jsonStat);
-            
             }
             
-            Set cles2 = Stats2.keySet();
-            Iterator it2 = cles2.iterator();
-            while (it2.hasNext()){
-               Object cle = it2.next(); // tu peux typer plus finement ici
-               Object val = Stats2.get(cle).toString() ; // tu peux typer plus finement ici
+            for (LigneStatistique ligne : Stats2){
                JsonObject jsonStat2 = new JsonObject();
-               jsonStat2.addProperty("personne", (String) cle);
-               jsonStat2.addProperty("valeur", (String) val);
+               jsonStat2.addProperty("id", ligne.getId());
+               jsonStat2.addProperty("personne", ligne.getLibelle());
+               jsonStat2.addProperty("valeur", ligne.getNombre());
                jsonArrayStat2.add(jsonStat2);
-            
             }
          
             JsonObject jsonStatContainer = new JsonObject();
@@ -0,0 +1,16 @@
+/*
+ * Clé d'idempotence des actions qui modifient des données (cf. IdempotenceFiltre) :
+ * toutes les requêtes d'une même intention de l'utilisateur (double clic,
+ * nouvel essai) envoient la même clé, renouvelée une fois la réponse reçue.
+ */
+var cleIdempotence = nouvelleCleIdempotence();
+
+function nouvelleCleIdempotence() {
+    return Date.now().toString(36) + '-' + Math.random().toString(36).substring(2);
+}
+
+$(document).ajaxComplete(function (event, xhr, settings) {
+    if (typeof settings.data === 'string' && settings.data.indexOf('cleIdempotence=') >= 0) {
+        cleIdempotence = nouvelleCleIdempotence();
+    }
+});
@@ -1,9 +1,10 @@
 package fr.insalyon.dasi.positif.dao;
 
 import fr.insalyon.dasi.positif.metier.modele.Client;
+import java.util.Date;
 import java.util.List;
 import javax.persistence.EntityManager;
-import javax.persistence.Query;
+import javax.persistence.TypedQuery;
 
 /**
  * Le Data Access Object de Personne
@@ -18,20 +19,49 @@ public class ClientDAO extends PersonneDAO {
      */
     public static List<Client> obtenirTous() {
         EntityManager em = JpaUtil.obtenirEntityManager();
-        return em.createQuery("SELECT c FROM Client c").getResultList();
+        return JpaUtil.preparerLecture(em.createQuery("SELECT c FROM Client c")).getResultList();
     }
     
+    /**
+     * Récupère les profils astraux (couleur, animal) les plus répandus parmi
+     * les clients
+     * @param nombre le nombre maximal de profils
+     * @return des couples (couleur, animal), le plus répandu en premier
+     */
+    public static List<Object[]> obtenirProfilsFrequents(int nombre) {
+        EntityManager em = JpaUtil.obtenirEntityManager();
+        return em.createQuery("SELECT c.couleur, c.animal, COUNT(c) "
+                + "FROM Client c "
+                + "WHERE c.couleur IS NOT NULL AND c.animal IS NOT NULL "
+                + "GROUP BY c.couleur, c.animal "
+                + "ORDER BY COUNT(c) DESC", Object[].class)
+                .setMaxResults(nombre)
+                .getResultList();
+    }
+
+    /**
+     * Récupère un lot de clients dont le profil astral est en attente et dont
+     * l'instant du prochain essai d'enrichissement est passé (recherche par
+     * l'index sur l'état du profil et cet instant)
+     * @param maintenant l'instant courant
+     * @param taille le nombre maximal de clients du lot
+     * @return les clients, les plus anciens en premier
+     */
+    public static List<Client> obtenirProfilsEnAttente(Date maintenant, int taille) {
+        EntityManager em = JpaUtil.obtenirEntityManager();
+        TypedQuery<Client> q = em.createQuery("SELECT c "
+                + "FROM Client c "
+                + "WHERE c.etatProfil = :etat "
+                + "AND c.prochainEnrichissement <= :maintenant "
+                + "ORDER BY c.prochainEnrichissement, c.id", Client.class);
+        q.setParameter("etat", Client.EtatProfil.EN_ATTENTE);
+        q.setParameter("maintenant", maintenant);
+        q.setMaxResults(taille);
+        return q.getResultList();
+    }
+
     public static  Client obtenirClientParId(long id) {
-         EntityManager em = JpaUtil.obtenirEntityManager();
-        try {
-            Query q = em.createQuery("SELECT p "
-                                   + "FROM Client p "
-                                   + "WHERE p.id = :id");
-            q.setParameter("id", id);
-            return (Client) q.getSingleResult();
-        } catch (Exception e) {
-            return null;
-        }
+         return JpaUtil.trouver(Client.class, id);
     }
 
     /**
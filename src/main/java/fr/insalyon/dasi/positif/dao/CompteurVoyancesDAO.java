@@ -0,0 +1,101 @@
+package fr.insalyon.dasi.positif.dao;
+
+import fr.insalyon.dasi.positif.metier.modele.CompteurVoyances;
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+/**
+ * Le Data Access Object des compteurs de voyances.
+ * <br><strong>Les mises à jour doivent être faites dans la transaction qui
+ * crée ou termine la conversation comptée.</strong>
+ *
+ * @author Liam BETTE, Alexis BOSIO, Thibault REMY
+ */
+public class CompteurVoyancesDAO {
+
+    /**
+     * Ajoute une voyance aux compteurs du Medium, de l'Employé et du couple
+     * Medium/Employé
+     * @param mediumId l'identifiant du Medium
+     * @param employeId l'identifiant de l'Employé
+     * @param nombre la variation du nombre total de voyances
+     * @param enCours la variation du nombre de voyances en cours
+     */
+    public static void incrementer(long mediumId, long employeId, long nombre, long enCours) {
+        incrementerCompteur(mediumId, null, nombre, enCours);
+        incrementerCompteur(null, employeId, nombre, enCours);
+        incrementerCompteur(mediumId, employeId, nombre, enCours);
+    }
+
+    /**
+     * Incrémente un compteur par une requête de mise à jour (pas de lecture
+     * préalable). Les compteurs sont créés avec les Employés et les Mediums
+     * (cf.&nbsp;Service.creerCompteursManquants()) : l'insertion d'un
+     * compteur absent n'est qu'un repli, sujet aux conflits de clé entre
+     * deux transactions concurrentes.
+     */
+    private static void incrementerCompteur(Long mediumId, Long employeId, long nombre, long enCours) {
+        EntityManager em = JpaUtil.obtenirEntityManager();
+        int modifies = em.createQuery("UPDATE CompteurVoyances k "
+                + "SET k.nombre = k.nombre + :nombre, k.enCours = k.enCours + :enCours "
+                + "WHERE k.cle = :cle")
+                .setParameter("nombre", nombre)
+                .setParameter("enCours", enCours)
+                .setParameter("cle", CompteurVoyances.cle(mediumId, employeId))
+                .executeUpdate();
+        if (modifies == 0) {
+            CompteurVoyances compteur = new CompteurVoyances(mediumId, employeId);
+            compteur.ajouter(nombre, enCours);
+            em.persist(compteur);
+        }
+    }
+
+    /**
+     * @return les compteurs par Medium
+     */
+    public static List<CompteurVoyances> obtenirCompteursMediums() {
+        return obtenir("k.employeId IS NULL");
+    }
+
+    /**
+     * @return les compteurs par Employé
+     */
+    public static List<CompteurVoyances> obtenirCompteursEmployes() {
+        return obtenir("k.mediumId IS NULL");
+    }
+
+    /**
+     * @return les clés de tous les compteurs
+     */
+    public static List<String> obtenirCles() {
+        EntityManager em = JpaUtil.obtenirEntityManager();
+        return em.createQuery("SELECT k.cle FROM CompteurVoyances k", String.class).getResultList();
+    }
+
+    private static List<CompteurVoyances> obtenir(String condition) {
+        EntityManager em = JpaUtil.obtenirEntityManager();
+        TypedQuery<CompteurVoyances> q = em.createQuery("SELECT k FROM CompteurVoyances k WHERE "
+                + condition, CompteurVoyances.class);
+        JpaUtil.preparerLecture(q);
+        return q.getResultList();
+    }
+
+    /**
+     * Crée un compteur dans la base de données
+     * @param k le nouveau compteur
+     */
+    public static void creer(CompteurVoyances k) {
+        EntityManager em = JpaUtil.obtenirEntityManager();
+        em.persist(k);
+    }
+
+    /**
+     * Supprime tous les compteurs de la base de données
+     * @return le nombre de compteurs supprimés
+     */
+    public static int supprimerTous() {
+        EntityManager em = JpaUtil.obtenirEntityManager();
+        return em.createQuery("DELETE FROM CompteurVoyances k").executeUpdate();
+    }
+}
@@ -1,9 +1,11 @@
 package fr.insalyon.dasi.positif.dao;
 
 import fr.insalyon.dasi.positif.metier.modele.Conversation;
+import java.util.Date;
 import java.util.List;
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
+import javax.persistence.TypedQuery;
 
 /**
  * Le Data Access Object de Conversation
@@ -30,24 +32,45 @@ public class ConversationDAO {
     }
     
     public static Conversation obtenirConversationParId(long id) {
-         EntityManager em = JpaUtil.obtenirEntityManager();
-         return em.find(Conversation.class, id);
+         return JpaUtil.trouver(Conversation.class, id);
     }
     
+    /**
+     * Récupère les conversations d'un client avec un médium (recherche par
+     * les clés étrangères indexées de Conversation)
+     * @param client_id l'identifiant du client
+     * @param idMedium l'identifiant du médium
+     * @return la liste des conversations, la plus ancienne en premier
+     */
     public static List <Conversation> obtenirConvParMedium(long client_id,long idMedium) {
          EntityManager em = JpaUtil.obtenirEntityManager();
-         try {
-            Query q = em.createQuery("SELECT c "
-                    + "FROM Conversation c "
-                    + "WHERE c.client_id= :client_id ");
-                    // + "AND c.medium_id= :idMedium");
-            q.setParameter("client_id", client_id);
-            // q.setParameter("idMedium", idMedium);
-            System.out.println("*******************************************************************************"+((q.getResultList()).get(0)));
-            return q.getResultList();
-        } catch (Exception e) {
-            return null;
-        }
+         Query q = em.createQuery("SELECT c "
+                 + "FROM Conversation c "
+                 + "WHERE c.client.id = :client_id "
+                 + "AND c.medium.id = :idMedium "
+                 + "ORDER BY c.id");
+         q.setParameter("client_id", client_id);
+         q.setParameter("idMedium", idMedium);
+         return JpaUtil.preparerLecture(q).getResultList();
+    }
+
+    /**
+     * Récupère un lot de conversations non terminées demandées avant une
+     * date limite
+     * @param limite l'instant limite de la demande
+     * @param taille le nombre maximal de conversations du lot
+     * @return les conversations, les plus anciennes en premier
+     */
+    public static List<Conversation> obtenirOuvertesAvant(Date limite, int taille) {
+        EntityManager em = JpaUtil.obtenirEntityManager();
+        TypedQuery<Conversation> q = em.createQuery("SELECT c "
+                + "FROM Conversation c "
+                + "WHERE c.fin IS NULL "
+                + "AND c.creation < :limite "
+                + "ORDER BY c.id", Conversation.class);
+        q.setParameter("limite", limite);
+        q.setMaxResults(taille);
+        return q.getResultList();
     }
     
 }
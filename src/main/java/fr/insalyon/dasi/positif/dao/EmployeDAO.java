@@ -2,7 +2,7 @@ package fr.insalyon.dasi.positif.dao;
 
 import fr.insalyon.dasi.positif.metier.modele.Client;
 import fr.insalyon.dasi.positif.metier.modele.Employe;
-import fr.insalyon.dasi.positif.metier.modele.Medium;
+import java.util.Collection;
 import java.util.List;
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
@@ -20,12 +20,11 @@ public class EmployeDAO extends PersonneDAO {
      */
     public static List<Employe> obtenirTous() {
         EntityManager em = JpaUtil.obtenirEntityManager();
-        return em.createQuery("SELECT e FROM Employe e").getResultList();
+        return JpaUtil.preparerLecture(em.createQuery("SELECT e FROM Employe e")).getResultList();
     }
 
     public static  Employe obtenirEmployeParId(long id) {
-         EntityManager em = JpaUtil.obtenirEntityManager();
-         return em.find(Employe.class, id);
+         return JpaUtil.trouver(Employe.class, id);
     }
     /**
      * Permet de Modifier l'Employé passé en paramètre dans la base de donnée
@@ -46,37 +45,107 @@ public class EmployeDAO extends PersonneDAO {
     }
 
     /**
-     * Permet de récupérer l'Employé pouvant incarner le médium passé
-     * en paramètre et qui a le moins d'affectations.
+     * Permet de récupérer l'identifiant de l'Employé disponible, ayant un
+     * créneau libre, pouvant incarner le médium et qui a le moins
+     * d'affectations, d'après son compteur de voyances (une seule requête,
+     * aucune conversation chargée).
      * 
-     * @param medium Le médium à incarner
-     * @return l'Employé qui va effectuer la voyance
+     * @param mediumId l'identifiant du médium à incarner
+     * @return l'identifiant de l'Employé, null si aucun n'est disponible
      */
-    public static Employe obtenirEmployePourVoyance(Medium medium) {
+    public static Long obtenirIdEmployePourVoyance(long mediumId) {
         EntityManager em = JpaUtil.obtenirEntityManager();
 
-        Query q = em.createQuery("SELECT e FROM Employe e "
-                + "WHERE :medium MEMBER OF e.mediums and e.disponible = TRUE");
-        q.setParameter("medium", medium);
+        Query q = em.createQuery("SELECT e.id FROM Employe e JOIN e.mediums m "
+                + "LEFT JOIN CompteurVoyances k ON k.employeId = e.id AND k.mediumId IS NULL "
+                + "WHERE m.id = :mediumId AND e.disponible = TRUE AND e.occupation < e.capacite "
+                + "ORDER BY COALESCE(k.nombre, 0), e.id");
+        q.setParameter("mediumId", mediumId);
+        q.setMaxResults(1);
 
-        List<Employe> l = q.getResultList();
+        List<Long> l = q.getResultList();
+        return l.isEmpty() ? null : l.get(0);
+    }
 
-        if (l.isEmpty()) {
-            return null;
-        } else {
-            int min = 99999;
-            int i = 0;
-            int j = 0;
-            for (Employe e : l) {
-                if (min > e.getConversations().size()) {
-                    min = e.getConversations().size();
-                    i = j;
-                }
-                j++;
-            }
-        
-            return (Employe) l.get(i);
-        }
+    /**
+     * Occupe un créneau de l'Employé, s'il est disponible et qu'il lui en
+     * reste un. La condition est vérifiée par la base dans la requête de mise
+     * à jour : deux transactions concurrentes ne peuvent pas occuper plus de
+     * créneaux qu'il n'y en a.
+     * <br>La requête est en SQL : en JPQL, EclipseLink traduit la mise à jour
+     * d'une sous-classe (héritage JOINED) par deux requêtes dont la
+     * sous-requête EXISTS parcourt les tables PERSONNE et EMPLOYE, ce qui
+     * verrouille toutes leurs lignes et provoque des interblocages sous Derby.
+     * Ici, seule la ligne de l'Employé est verrouillée.
+     * <br>Le cache partagé n'est pas mis à jour (cf.&nbsp;JpaUtil.invaliderCache()).
+     * 
+     * @param id l'identifiant de l'Employé
+     * @return vrai si un créneau a été occupé
+     */
+    public static boolean occuperCreneau(long id) {
+        EntityManager em = JpaUtil.obtenirEntityManager();
+        return em.createNativeQuery("UPDATE EMPLOYE SET OCCUPATION = OCCUPATION + 1 "
+                + "WHERE ID = ? AND DISPONIBLE = 1 AND OCCUPATION < CAPACITE")
+                .setParameter(1, id)
+                .executeUpdate() == 1;
+    }
+
+    /**
+     * Libère un créneau de l'Employé (requête SQL, cf.&nbsp;occuperCreneau()).
+     * <br>Le cache partagé n'est pas mis à jour (cf.&nbsp;JpaUtil.invaliderCache()).
+     * 
+     * @param id l'identifiant de l'Employé
+     * @return vrai si un créneau a été libéré
+     */
+    public static boolean libererCreneau(long id) {
+        EntityManager em = JpaUtil.obtenirEntityManager();
+        return em.createNativeQuery("UPDATE EMPLOYE SET OCCUPATION = OCCUPATION - 1 "
+                + "WHERE ID = ? AND OCCUPATION > 0")
+                .setParameter(1, id)
+                .executeUpdate() == 1;
+    }
 
+    /**
+     * Recalcule les créneaux occupés de tous les Employés à partir des
+     * conversations non terminées (requête SQL, cf.&nbsp;occuperCreneau()).
+     * <br>Le cache partagé n'est pas mis à jour (cf.&nbsp;JpaUtil.invaliderCache()).
+     * 
+     * @return le nombre d'Employés mis à jour
+     */
+    public static int recalculerOccupations() {
+        EntityManager em = JpaUtil.obtenirEntityManager();
+        return em.createNativeQuery("UPDATE EMPLOYE SET OCCUPATION = "
+                + "(SELECT COUNT(*) FROM CONVERSATION c WHERE c.EMPLOYE_ID = EMPLOYE.ID AND c.FIN IS NULL)")
+                .executeUpdate();
+    }
+
+    /**
+     * Recalcule en une requête les créneaux occupés d'un lot d'Employés
+     * (cf.&nbsp;recalculerOccupations()). Les modifications en attente du
+     * contexte de persistance (conversations terminées) sont écrites
+     * d'abord.
+     * <br>Le cache partagé n'est pas mis à jour (cf.&nbsp;JpaUtil.invaliderCache()).
+     * 
+     * @param ids les identifiants des Employés
+     * @return le nombre d'Employés mis à jour
+     */
+    public static int recalculerOccupations(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        EntityManager em = JpaUtil.obtenirEntityManager();
+        em.flush();
+        StringBuilder parametres = new StringBuilder();
+        for (int i = 1; i <= ids.size(); i++) {
+            parametres.append(i == 1 ? "?" : ", ?");
+        }
+        Query q = em.createNativeQuery("UPDATE EMPLOYE SET OCCUPATION = "
+                + "(SELECT COUNT(*) FROM CONVERSATION c WHERE c.EMPLOYE_ID = EMPLOYE.ID AND c.FIN IS NULL) "
+                + "WHERE ID IN (" + parametres + ")");
+        int i = 1;
+        for (Long id : ids) {
+            q.setParameter(i++, id);
+        }
+        return q.executeUpdate();
     }
 }
@@ -1,9 +1,35 @@
 package fr.insalyon.dasi.positif.dao;
 
+import fr.insalyon.dasi.positif.util.Journal;
+import fr.insalyon.dasi.positif.util.NiveauJournal;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.sql.SQLException;
+import java.sql.SQLTransactionRollbackException;
+import java.sql.SQLTransientException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
+import javax.persistence.LockTimeoutException;
+import javax.persistence.OptimisticLockException;
 import javax.persistence.Persistence;
+import javax.persistence.PersistenceException;
+import javax.persistence.PessimisticLockException;
+import javax.persistence.Query;
 import javax.persistence.RollbackException;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.eclipse.persistence.jpa.JpaCache;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
 
 /**
  * Cette classe fournit des méthodes statiques utiles pour accéder aux
@@ -28,6 +54,11 @@ public class JpaUtil {
      * (cf.&nbsp;persistence.xml)</strong>
      */
     private static EntityManagerFactory entityManagerFactory = null;
+    /**
+     * Pool de connexions JDBC fourni à l'unité de persistance comme source
+     * de données (null si désactivé par la propriété positif.pool.actif).
+     */
+    private static PoolConnexions poolConnexions = null;
     /**
      * Gère les instances courantes de Entity Manager liées aux Threads.
      * L'utilisation de ThreadLocal garantie une unique instance courante par
@@ -41,24 +72,70 @@ public class JpaUtil {
         }
     };
 
-    // Méthode pour avoir des messages de Log dans le bon ordre (pause)
-    private static void pause(long milliseconds) {
-        try {
-            Thread.sleep(milliseconds);
-        } catch (InterruptedException ex) {
-            ex.hashCode();
+    /**
+     * Indique si l'instance courante de Entity Manager a été ouverte pour
+     * toute la durée d'une requête HTTP (cf.&nbsp;ouvrirContexteRequete()).
+     * Dans ce cas, les appels creerEntityManager() et fermerEntityManager()
+     * du niveau Service rejoignent ce contexte au lieu d'en créer un nouveau.
+     */
+    private static final ThreadLocal<Boolean> threadLocalContexteRequete = new ThreadLocal<Boolean>() {
+
+        @Override
+        protected Boolean initialValue() {
+            return Boolean.FALSE;
         }
-    }
+    };
+
+    /**
+     * Indique si ce Thread exécute une unité de travail en lecture seule hors
+     * de toute transaction (cf.&nbsp;executer()). Les DAO retournent alors les
+     * objets partagés du cache d'EclipseLink, sans copie ni suivi des
+     * modifications (cf.&nbsp;preparerLecture() et trouver()).
+     */
+    private static final ThreadLocal<Boolean> threadLocalLectureSeule = new ThreadLocal<Boolean>() {
+
+        @Override
+        protected Boolean initialValue() {
+            return Boolean.FALSE;
+        }
+    };
+
+    /**
+     * Indication de requête EclipseLink : les résultats sont lus dans le
+     * cache partagé, sans enregistrement dans le contexte de persistance.
+     */
+    public static final String INDICATION_LECTURE_SEULE = "eclipselink.read-only";
+
+    private static final Map<String, Object> INDICATIONS_LECTURE_SEULE
+            = Collections.<String, Object>singletonMap(INDICATION_LECTURE_SEULE, "true");
+
+    /**
+     * Journal des opérations sur le contexte de persistance (niveau DEBUG).
+     */
+    private static final Journal JOURNAL = Journal.obtenir("JpaUtil:Log");
 
-    // Méthode pour avoir des messages de Log dans le bon ordre (log)
     private static void log(String message) {
-        System.out.flush();
-        pause(5);
-        System.err.println("[JpaUtil:Log] " + message);
-        System.err.flush();
-        pause(5);
+        JOURNAL.debug(message);
     }
 
+    /**
+     * Nombre maximal d'exécutions d'une unité de travail (première tentative
+     * comprise) en cas d'échec transitoire.
+     */
+    public static final int NOMBRE_MAX_TENTATIVES = 3;
+
+    /**
+     * Attente avant la première reprise, doublée à chaque nouvelle reprise
+     * et plafonnée par DELAI_MAX_REPRISE_MS.
+     */
+    private static final long DELAI_INITIAL_REPRISE_MS = 20;
+    private static final long DELAI_MAX_REPRISE_MS = 500;
+
+    /**
+     * Durée au-delà de laquelle une unité de travail est signalée comme lente.
+     */
+    private static final long SEUIL_UNITE_LENTE_MS = 500;
+
     /**
      * Initialise la Factory de Entity Manager.
      * <br><strong>À utiliser uniquement au début de la méthode main() [projet
@@ -66,11 +143,18 @@ public class JpaUtil {
      * (ActionServlet) [projet Web Application].</strong>
      */
     public static synchronized void init() {
-        log("Initialisation de la factory de contexte de persistance");
+        JOURNAL.info("Initialisation de la factory de contexte de persistance");
         if (entityManagerFactory != null) {
-            entityManagerFactory.close();
+            destroy();
+        }
+        Properties proprietes = lireProprietesUnite();
+        Map<String, Object> surcharges = new HashMap<>();
+        if (Boolean.parseBoolean(proprietes.getProperty("positif.pool.actif", "true"))) {
+            poolConnexions = PoolConnexions.depuisProprietes(proprietes);
+            // EclipseLink délègue alors entièrement le pooling à cette source
+            surcharges.put("javax.persistence.nonJtaDataSource", poolConnexions);
         }
-        entityManagerFactory = Persistence.createEntityManagerFactory(PERSISTENCE_UNIT_NAME);
+        entityManagerFactory = Persistence.createEntityManagerFactory(PERSISTENCE_UNIT_NAME, surcharges);
     }
 
     /**
@@ -80,33 +164,370 @@ public class JpaUtil {
      * (ActionServlet) [projet Web Application].</strong>
      */
     public static synchronized void destroy() {
-        log("Libération de la factory de contexte de persistance");
+        JOURNAL.info("Libération de la factory de contexte de persistance");
         if (entityManagerFactory != null) {
             entityManagerFactory.close();
             entityManagerFactory = null;
         }
+        if (poolConnexions != null) {
+            poolConnexions.fermer();
+            poolConnexions = null;
+        }
+    }
+
+    /**
+     * Retourne le pool de connexions de l'unité de persistance, pour
+     * consulter ses compteurs.
+     *
+     * @return le pool, ou null s'il est désactivé ou si JpaUtil n'est pas
+     * initialisé
+     */
+    public static PoolConnexions obtenirPoolConnexions() {
+        return poolConnexions;
+    }
+
+    /**
+     * Retire une entité du cache partagé : la prochaine lecture la relira en
+     * base. À appeler après une modification faite sans passer par le
+     * contexte de persistance (requête de mise à jour en masse, script SQL).
+     * <br><strong>À utiliser uniquement au niveau Service.</strong>
+     *
+     * @param classe la classe de l'entité
+     * @param id l'identifiant de l'entité
+     */
+    public static void invaliderCache(Class<?> classe, Object id) {
+        log("Invalidation du cache pour " + classe.getSimpleName() + " #" + id);
+        entityManagerFactory.getCache().evict(classe, id);
+        StatistiquesCache.compterInvalidation(classe, id);
+    }
+
+    /**
+     * Retire du cache partagé toutes les entités d'une classe (et de ses
+     * sous-classes).
+     * <br><strong>À utiliser uniquement au niveau Service.</strong>
+     *
+     * @param classe la classe des entités
+     */
+    public static void invaliderCache(Class<?> classe) {
+        log("Invalidation du cache pour " + classe.getSimpleName());
+        entityManagerFactory.getCache().evict(classe);
+        StatistiquesCache.compterInvalidation(classe, null);
+    }
+
+    /**
+     * Lit les propriétés de l'unité de persistance dans persistence.xml. Une
+     * propriété système de même nom remplace la valeur du fichier.
+     */
+    private static Properties lireProprietesUnite() {
+        Properties proprietes = new Properties();
+        try {
+            Enumeration<URL> fichiers = JpaUtil.class.getClassLoader().getResources("META-INF/persistence.xml");
+            while (fichiers.hasMoreElements()) {
+                try (InputStream flux = fichiers.nextElement().openStream()) {
+                    DocumentBuilderFactory fabrique = DocumentBuilderFactory.newInstance();
+                    fabrique.setNamespaceAware(true);
+                    NodeList unites = fabrique.newDocumentBuilder()
+                            .parse(flux).getElementsByTagNameNS("*", "persistence-unit");
+                    for (int i = 0; i < unites.getLength(); i++) {
+                        Element unite = (Element) unites.item(i);
+                        if (!PERSISTENCE_UNIT_NAME.equals(unite.getAttribute("name"))) {
+                            continue;
+                        }
+                        NodeList elements = unite.getElementsByTagNameNS("*", "property");
+                        for (int j = 0; j < elements.getLength(); j++) {
+                            Element propriete = (Element) elements.item(j);
+                            proprietes.setProperty(propriete.getAttribute("name"), propriete.getAttribute("value"));
+                        }
+                        break;
+                    }
+                }
+            }
+        } catch (IOException | ParserConfigurationException | SAXException ex) {
+            JOURNAL.erreur("Lecture de persistence.xml impossible", ex);
+        }
+        for (String nom : proprietes.stringPropertyNames()) {
+            proprietes.setProperty(nom, System.getProperty(nom, proprietes.getProperty(nom)));
+        }
+        return proprietes;
+    }
+
+    /**
+     * Ouvre un contexte de persistance partagé par tous les appels au niveau
+     * Service effectués par ce Thread jusqu'à fermerContexteRequete().
+     * <br>Les entités restent gérées d'un appel Service à l'autre, ce qui
+     * évite de recréer un Entity Manager à chaque appel et permet le
+     * chargement paresseux des associations lors de la sérialisation.
+     * <br><strong>À utiliser uniquement autour du traitement d'une requête
+     * (filtre ou Servlet Contrôleur), toujours suivi de
+     * fermerContexteRequete() dans un bloc finally.</strong>
+     */
+    public static void ouvrirContexteRequete() {
+        log("Ouverture du contexte de persistance de la requête");
+        threadLocalEntityManager.set(entityManagerFactory.createEntityManager());
+        threadLocalContexteRequete.set(Boolean.TRUE);
+    }
+
+    /**
+     * Ferme le contexte de persistance ouvert par ouvrirContexteRequete().
+     * Une transaction restée active (exception au niveau Service) est
+     * annulée.
+     */
+    public static void fermerContexteRequete() {
+        log("Fermeture du contexte de persistance de la requête");
+        EntityManager em = threadLocalEntityManager.get();
+        threadLocalEntityManager.remove();
+        threadLocalContexteRequete.remove();
+        if (em != null && em.isOpen()) {
+            try {
+                if (em.getTransaction().isActive()) {
+                    log("Annulation de la transaction restée active en fin de requête");
+                    em.getTransaction().rollback();
+                }
+            } finally {
+                em.close();
+            }
+        }
+    }
+
+    /**
+     * @return vrai si ce Thread travaille dans un contexte de persistance
+     * ouvert pour toute la requête
+     */
+    public static boolean estContexteRequete() {
+        return threadLocalContexteRequete.get();
     }
 
     /**
      * Créée l'instance courante de Entity Manager (liée à ce Thread).
+     * Si un contexte de requête est ouvert, il est réutilisé.
      * <br><strong>À utiliser uniquement au niveau Service.</strong>
      */
     public static void creerEntityManager() {
+        if (estContexteRequete()) {
+            log("Utilisation du contexte de persistance de la requête");
+            return;
+        }
         log("Création du contexte de persistance");
         threadLocalEntityManager.set(entityManagerFactory.createEntityManager());
     }
 
     /**
      * Ferme l'instance courante de Entity Manager (liée à ce Thread).
+     * Si un contexte de requête est ouvert, il reste ouvert jusqu'à
+     * fermerContexteRequete().
      * <br><strong>À utiliser uniquement au niveau Service.</strong>
      */
     public static void fermerEntityManager() {
+        if (estContexteRequete()) {
+            return;
+        }
         log("Fermeture du contexte de persistance");
         EntityManager em = threadLocalEntityManager.get();
         em.close();
         threadLocalEntityManager.set(null);
     }
 
+    /**
+     * Exécute une unité de travail dans un contexte de persistance, avec
+     * libération garantie de ce contexte quelle que soit l'issue.
+     * <br>En lecture/écriture, l'unité est exécutée dans une transaction
+     * validée à la fin ; en cas d'exception, la transaction est annulée.
+     * Les échecs transitoires (verrou expiré, interblocage, conflit de
+     * version) provoquent une nouvelle exécution de l'unité, au plus
+     * NOMBRE_MAX_TENTATIVES fois, avec une attente croissante. Lors d'un
+     * conflit de version, l'entité en conflit est d'abord retirée du cache
+     * partagé.
+     * <br>Si ce Thread dispose déjà d'un contexte de persistance (contexte de
+     * requête, ou unité de travail englobante), l'unité s'y exécute sans le
+     * fermer, et rejoint la transaction englobante si elle existe.
+     * <br>En lecture seule hors transaction, les DAO retournent des objets
+     * partagés par tous les Threads : ils ne doivent jamais être modifiés.
+     * Une unité de lecture/écriture relit donc par identifiant les entités
+     * qu'elle modifie.
+     * <br><strong>À utiliser uniquement au niveau Service.</strong>
+     *
+     * @param <T> le type du résultat
+     * @param nom le nom de l'unité, utilisé dans le journal
+     * @param travail l'unité de travail
+     * @param lectureSeule vrai si l'unité ne fait que lire
+     * @return le résultat de l'unité de travail
+     * @exception PersistenceException si l'unité échoue définitivement
+     * (RollbackException lorsque le <em>commit</em> n'a pas réussi).
+     */
+    public static <T> T executer(String nom, UniteDeTravail<T> travail, boolean lectureSeule) {
+        long debut = System.nanoTime();
+        int tentative = 1;
+        while (true) {
+            boolean contexteExistant = threadLocalEntityManager.get() != null;
+            if (!contexteExistant) {
+                creerEntityManager();
+            }
+            EntityManager em = threadLocalEntityManager.get();
+            boolean transactionExistante = em.getTransaction().isActive();
+            boolean transactionPropre = !lectureSeule && !transactionExistante;
+            Boolean lectureSeuleEnglobante = threadLocalLectureSeule.get();
+            threadLocalLectureSeule.set(lectureSeule && !transactionExistante);
+            try {
+                if (transactionPropre) {
+                    ouvrirTransaction();
+                }
+                T resultat = travail.executer();
+                if (transactionPropre) {
+                    validerTransaction();
+                }
+                tracerExecution(nom, lectureSeule, debut, tentative);
+                return resultat;
+            } catch (RuntimeException ex) {
+                if (transactionPropre) {
+                    annulerTransaction();
+                }
+                if (transactionExistante || tentative >= NOMBRE_MAX_TENTATIVES || !estTransitoire(ex)) {
+                    JOURNAL.erreur("Échec de l'unité de travail " + nom + " (tentative "
+                            + tentative + "/" + NOMBRE_MAX_TENTATIVES + ")", ex);
+                    throw ex;
+                }
+                JOURNAL.attention("Échec transitoire de l'unité de travail " + nom
+                        + " (tentative " + tentative + "/" + NOMBRE_MAX_TENTATIVES + ") : " + ex);
+                invaliderEntiteEnConflit(ex);
+                if (contexteExistant) {
+                    em.clear();
+                }
+                patienterAvantReprise(tentative);
+                tentative++;
+            } finally {
+                threadLocalLectureSeule.set(lectureSeuleEnglobante);
+                if (!contexteExistant) {
+                    fermerEntityManager();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return vrai si ce Thread exécute une unité de travail en lecture seule
+     * hors transaction
+     */
+    public static boolean estLectureSeule() {
+        return threadLocalLectureSeule.get();
+    }
+
+    /**
+     * Prépare une requête de consultation : dans une unité de travail en
+     * lecture seule, ses résultats sont les objets partagés du cache, non
+     * enregistrés dans le contexte de persistance.
+     * <br><strong>À utiliser uniquement au niveau DAO.</strong>
+     *
+     * @param requete la requête à préparer
+     * @return la même requête
+     */
+    protected static Query preparerLecture(Query requete) {
+        if (estLectureSeule()) {
+            requete.setHint(INDICATION_LECTURE_SEULE, "true");
+        }
+        return requete;
+    }
+
+    /**
+     * Recherche une entité par identifiant, en lecture seule dans une unité
+     * de travail en lecture seule (cf.&nbsp;preparerLecture()). La recherche
+     * est servie par le cache partagé si l'entité s'y trouve et n'a pas
+     * expiré (cf.&nbsp;StatistiquesCache).
+     * <br><strong>À utiliser uniquement au niveau DAO.</strong>
+     *
+     * @param <T> le type de l'entité
+     * @param classe la classe de l'entité
+     * @param id l'identifiant de l'entité
+     * @return l'entité, ou null si elle n'existe pas
+     */
+    protected static <T> T trouver(Class<T> classe, Object id) {
+        EntityManager em = obtenirEntityManager();
+        if (entityManagerFactory.getCache().unwrap(JpaCache.class).isValid(classe, id)) {
+            StatistiquesCache.pour(classe).compterSucces(id);
+        } else {
+            StatistiquesCache.pour(classe).compterEchec(id);
+        }
+        if (estLectureSeule()) {
+            return em.find(classe, id, INDICATIONS_LECTURE_SEULE);
+        }
+        return em.find(classe, id);
+    }
+
+    /**
+     * Indique si une exception (ou l'une de ses causes) correspond à un échec
+     * transitoire de la base, pour lequel rejouer la transaction a un sens.
+     *
+     * @param ex l'exception levée par l'unité de travail ou par le commit
+     * @return vrai si l'échec est transitoire
+     */
+    public static boolean estTransitoire(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = (cause.getCause() == cause ? null : cause.getCause())) {
+            if (cause instanceof OptimisticLockException
+                    || cause instanceof PessimisticLockException
+                    || cause instanceof LockTimeoutException
+                    || cause instanceof SQLTransientException
+                    || cause instanceof SQLTransactionRollbackException) {
+                return true;
+            }
+            if (cause instanceof SQLException) {
+                // Classe SQL 40 : transaction annulée (40001 interblocage,
+                // 40XL1/40XL2 verrou expiré sous Derby)
+                String etat = ((SQLException) cause).getSQLState();
+                if (etat != null && etat.startsWith("40")) {
+                    return true;
+                }
+            }
+            if (cause.getClass().getName().equals("org.eclipse.persistence.exceptions.OptimisticLockException")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Retire du cache partagé l'entité dont la version était périmée lors d'un
+     * conflit de version : la reprise de l'unité de travail relit ainsi son
+     * état en base au lieu d'échouer de nouveau sur la même copie.
+     */
+    private static void invaliderEntiteEnConflit(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = (cause.getCause() == cause ? null : cause.getCause())) {
+            Object entite = null;
+            if (cause instanceof OptimisticLockException) {
+                entite = ((OptimisticLockException) cause).getEntity();
+            } else if (cause instanceof org.eclipse.persistence.exceptions.OptimisticLockException) {
+                entite = ((org.eclipse.persistence.exceptions.OptimisticLockException) cause).getObject();
+            }
+            if (entite != null) {
+                Object id = entityManagerFactory.getPersistenceUnitUtil().getIdentifier(entite);
+                if (id != null) {
+                    invaliderCache(entite.getClass(), id);
+                }
+                return;
+            }
+        }
+    }
+
+    private static void patienterAvantReprise(int tentative) {
+        long delai = Math.min(DELAI_MAX_REPRISE_MS, DELAI_INITIAL_REPRISE_MS << (tentative - 1));
+        delai += ThreadLocalRandom.current().nextLong(delai / 2 + 1);
+        try {
+            Thread.sleep(delai);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new PersistenceException("Reprise de l'unité de travail interrompue", ex);
+        }
+    }
+
+    private static void tracerExecution(String nom, boolean lectureSeule, long debut, int tentatives) {
+        long dureeMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - debut);
+        NiveauJournal niveau = dureeMs >= SEUIL_UNITE_LENTE_MS ? NiveauJournal.ATTENTION : NiveauJournal.DEBUG;
+        if (JOURNAL.estActif(niveau)) {
+            JOURNAL.journaliser(niveau, "Unité de travail " + nom
+                    + (lectureSeule ? " (lecture seule)" : "")
+                    + " exécutée en " + dureeMs + " ms"
+                    + (tentatives > 1 ? " après " + tentatives + " tentatives" : ""), null);
+        }
+    }
+
     /**
      * Démarre une transaction sur l'instance courante de Entity Manager.
      * <br><strong>À utiliser uniquement au niveau Service.</strong>
@@ -117,7 +538,7 @@ public class JpaUtil {
             EntityManager em = threadLocalEntityManager.get();
             em.getTransaction().begin();
         } catch (Exception ex) {
-            log("Erreur lors de l'ouverture de la transaction");
+            JOURNAL.erreur("Erreur lors de l'ouverture de la transaction", ex);
             throw ex;
         }
     }
@@ -134,7 +555,7 @@ public class JpaUtil {
             EntityManager em = threadLocalEntityManager.get();
             em.getTransaction().commit();
         } catch (Exception ex) {
-            log("Erreur lors de la validation (commit) de la transaction");
+            JOURNAL.erreur("Erreur lors de la validation (commit) de la transaction", ex);
             throw ex;
         }
     }
@@ -156,7 +577,7 @@ public class JpaUtil {
             }
 
         } catch (Exception ex) {
-            log("Erreur lors de l'annulation (rollback) de la transaction");
+            JOURNAL.erreur("Erreur lors de l'annulation (rollback) de la transaction", ex);
             throw ex;
         }
     }
@@ -5,7 +5,6 @@ import fr.insalyon.dasi.positif.metier.modele.Client;
 import fr.insalyon.dasi.positif.metier.modele.Medium;
 import java.util.List;
 import javax.persistence.EntityManager;
-import javax.persistence.Query;
 
 /**
  * Le Data Access Object de Medium
@@ -20,7 +19,7 @@ public class MediumDAO {
      */
     public static List<Medium> obtenirTous() {
         EntityManager em = JpaUtil.obtenirEntityManager();
-        return em.createQuery("SELECT m FROM Medium m").getResultList();
+        return JpaUtil.preparerLecture(em.createQuery("SELECT m FROM Medium m")).getResultList();
     }
 
     /**
@@ -32,16 +31,13 @@ public class MediumDAO {
         em.merge(m);
     }
     
+    /**
+     * Récupère le Medium d'identifiant donné, dans le cache partagé s'il s'y
+     * trouve
+     * @param id l'identifiant du Medium
+     * @return le Medium, null s'il n'existe pas
+     */
     public static  Medium obtenirMediumParId(long id) {
-        EntityManager em = JpaUtil.obtenirEntityManager();
-        try {
-            Query q = em.createQuery("SELECT p "
-                                   + "FROM Medium p "
-                                   + "WHERE p.id = :id");
-            q.setParameter("id", id);
-            return (Medium) q.getSingleResult();
-        } catch (Exception e) {
-            return null;
-        }
+        return JpaUtil.trouver(Medium.class, id);
     }
 }
@@ -0,0 +1,61 @@
+package fr.insalyon.dasi.positif.dao;
+
+import fr.insalyon.dasi.positif.metier.modele.Notification;
+import java.util.Date;
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+/**
+ * Le Data Access Object de la boîte d'envoi des Notifications.
+ * <br><strong>Une Notification doit être créée dans la transaction qui
+ * modifie les données dont elle informe.</strong>
+ *
+ * @author Liam BETTE, Alexis BOSIO, Thibault REMY
+ */
+public class NotificationDAO {
+
+    /**
+     * Place une notification dans la boîte d'envoi
+     * @param n la nouvelle notification
+     */
+    public static void creer(Notification n) {
+        EntityManager em = JpaUtil.obtenirEntityManager();
+        em.persist(n);
+    }
+
+    public static Notification obtenirNotificationParId(long id) {
+        return JpaUtil.trouver(Notification.class, id);
+    }
+
+    /**
+     * Récupère un lot de notifications à envoyer dont l'instant du prochain
+     * essai est passé (recherche par l'index sur l'état et cet instant)
+     * @param maintenant l'instant courant
+     * @param taille le nombre maximal de notifications du lot
+     * @return les notifications, les plus anciennes en premier
+     */
+    public static List<Notification> obtenirAEnvoyer(Date maintenant, int taille) {
+        EntityManager em = JpaUtil.obtenirEntityManager();
+        TypedQuery<Notification> q = em.createQuery("SELECT n "
+                + "FROM Notification n "
+                + "WHERE n.etat = :etat "
+                + "AND n.prochainEssai <= :maintenant "
+                + "ORDER BY n.prochainEssai, n.id", Notification.class);
+        q.setParameter("etat", Notification.Etat.A_ENVOYER);
+        q.setParameter("maintenant", maintenant);
+        q.setMaxResults(taille);
+        return q.getResultList();
+    }
+
+    /**
+     * @param etat l'état des notifications à compter
+     * @return le nombre de notifications dans cet état
+     */
+    public static long compter(Notification.Etat etat) {
+        EntityManager em = JpaUtil.obtenirEntityManager();
+        return em.createQuery("SELECT COUNT(n) FROM Notification n WHERE n.etat = :etat", Long.class)
+                .setParameter("etat", etat)
+                .getSingleResult();
+    }
+}
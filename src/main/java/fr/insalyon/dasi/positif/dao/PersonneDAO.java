@@ -24,7 +24,7 @@ public class PersonneDAO {
                                    + "FROM Personne p "
                                    + "WHERE p.email = :email");
             q.setParameter("email", email);
-            return (Personne) q.getSingleResult();
+            return (Personne) JpaUtil.preparerLecture(q).getSingleResult();
         } catch (Exception e) {
             return null;
         }
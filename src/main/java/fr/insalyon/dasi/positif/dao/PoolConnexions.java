@@ -0,0 +1,483 @@
+package fr.insalyon.dasi.positif.dao;
+
+import fr.insalyon.dasi.positif.util.Journal;
+import fr.insalyon.dasi.positif.util.NiveauJournal;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * Pool de connexions JDBC utilisé comme source de données de l'unité de
+ * persistance (cf.&nbsp;JpaUtil.init()).
+ * <br>Le pool borne le nombre de connexions ouvertes (tailleMax), en garde
+ * un minimum ouvertes (tailleMin), valide chaque connexion avant de la
+ * prêter et signale dans le journal, avec la pile d'appel de l'emprunteur,
+ * toute connexion empruntée depuis plus de seuilFuiteMs.
+ * <br>Les compteurs (connexions actives, inactives, temps d'attente,
+ * expirations...) permettent de dimensionner le pool par rapport au nombre
+ * de threads du serveur.
+ *
+ * @author DASI Team
+ */
+public class PoolConnexions implements DataSource {
+
+    private static final Journal JOURNAL = Journal.obtenir("PoolConnexions");
+
+    private final String url;
+    private final String utilisateur;
+    private final String motDePasse;
+    private final int tailleMin;
+    private final int tailleMax;
+    private final long attenteMaxMs;
+    private final int validationSecondes;
+    private final long seuilFuiteMs;
+
+    /**
+     * Jetons d'emprunt : un jeton par connexion prêtable, attribués dans
+     * l'ordre d'arrivée des demandes.
+     */
+    private final Semaphore jetons;
+
+    /**
+     * Connexions physiques ouvertes et disponibles (la plus récemment rendue
+     * en tête).
+     */
+    private final LinkedBlockingDeque<Connection> inactives = new LinkedBlockingDeque<>();
+
+    /**
+     * Connexions actuellement prêtées, avec leur emprunt.
+     */
+    private final ConcurrentHashMap<Connection, Emprunt> empruntees = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService surveillance;
+    private volatile boolean ferme = false;
+
+    private final AtomicLong nombreEmprunts = new AtomicLong();
+    private final AtomicLong nombreExpirations = new AtomicLong();
+    private final AtomicLong nombreCreations = new AtomicLong();
+    private final AtomicLong nombreInvalides = new AtomicLong();
+    private final AtomicLong nombreFuites = new AtomicLong();
+    private final AtomicLong attenteTotaleNanos = new AtomicLong();
+    private final AtomicLong attenteMaxNanos = new AtomicLong();
+    private final AtomicInteger nombreEnAttente = new AtomicInteger();
+
+    /**
+     * Un prêt de connexion en cours.
+     */
+    private static final class Emprunt {
+
+        final long debut = System.nanoTime();
+        final Throwable pileAppel;
+        final String thread = Thread.currentThread().getName();
+        volatile boolean signale = false;
+
+        Emprunt(boolean tracer) {
+            this.pileAppel = tracer ? new Throwable("Emprunt de la connexion") : null;
+        }
+    }
+
+    /**
+     * Constructeur
+     *
+     * @param url l'URL JDBC de la base
+     * @param utilisateur l'utilisateur de la base
+     * @param motDePasse le mot de passe de la base
+     * @param tailleMin le nombre de connexions gardées ouvertes
+     * @param tailleMax le nombre maximal de connexions ouvertes
+     * @param attenteMaxMs l'attente maximale d'une connexion libre
+     * @param validationSecondes le délai de validation d'une connexion avant
+     * prêt (0 pour ne pas valider)
+     * @param seuilFuiteMs la durée d'emprunt au-delà de laquelle une fuite
+     * est signalée (0 pour désactiver la détection)
+     */
+    public PoolConnexions(String url, String utilisateur, String motDePasse,
+            int tailleMin, int tailleMax, long attenteMaxMs,
+            int validationSecondes, long seuilFuiteMs) {
+        if (tailleMax < 1 || tailleMin < 0 || tailleMin > tailleMax) {
+            throw new IllegalArgumentException("Tailles de pool incohérentes : min="
+                    + tailleMin + ", max=" + tailleMax);
+        }
+        this.url = url;
+        this.utilisateur = utilisateur;
+        this.motDePasse = motDePasse;
+        this.tailleMin = tailleMin;
+        this.tailleMax = tailleMax;
+        this.attenteMaxMs = attenteMaxMs;
+        this.validationSecondes = validationSecondes;
+        this.seuilFuiteMs = seuilFuiteMs;
+        this.jetons = new Semaphore(tailleMax, true);
+
+        this.surveillance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "positif-pool-surveillance");
+            t.setDaemon(true);
+            return t;
+        });
+        long periode = seuilFuiteMs > 0 ? Math.max(1000, seuilFuiteMs / 2) : 30000;
+        surveillance.scheduleWithFixedDelay(this::surveiller, periode, periode, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Crée un pool à partir des propriétés de l'unité de persistance
+     * (javax.persistence.jdbc.* et positif.pool.*).
+     *
+     * @param proprietes les propriétés de l'unité de persistance
+     * @return le pool, déjà rempli jusqu'à sa taille minimale
+     */
+    public static PoolConnexions depuisProprietes(Properties proprietes) {
+        String pilote = proprietes.getProperty("javax.persistence.jdbc.driver");
+        if (pilote != null) {
+            try {
+                Class.forName(pilote);
+            } catch (ClassNotFoundException ex) {
+                JOURNAL.erreur("Pilote JDBC introuvable : " + pilote, ex);
+            }
+        }
+        PoolConnexions pool = new PoolConnexions(
+                proprietes.getProperty("javax.persistence.jdbc.url"),
+                proprietes.getProperty("javax.persistence.jdbc.user"),
+                proprietes.getProperty("javax.persistence.jdbc.password"),
+                Integer.parseInt(proprietes.getProperty("positif.pool.tailleMin", "2")),
+                Integer.parseInt(proprietes.getProperty("positif.pool.tailleMax", "20")),
+                Long.parseLong(proprietes.getProperty("positif.pool.attenteMaxMs", "5000")),
+                Integer.parseInt(proprietes.getProperty("positif.pool.validationSecondes", "2")),
+                Long.parseLong(proprietes.getProperty("positif.pool.seuilFuiteMs", "30000")));
+        pool.completer();
+        JOURNAL.info("Pool de connexions créé : " + pool);
+        return pool;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (ferme) {
+            throw new SQLException("Le pool de connexions est fermé");
+        }
+        long debutAttente = System.nanoTime();
+        nombreEnAttente.incrementAndGet();
+        boolean obtenu;
+        try {
+            obtenu = jetons.tryAcquire(attenteMaxMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Attente d'une connexion interrompue", ex);
+        } finally {
+            nombreEnAttente.decrementAndGet();
+        }
+        long attente = System.nanoTime() - debutAttente;
+        attenteTotaleNanos.addAndGet(attente);
+        attenteMaxNanos.accumulateAndGet(attente, Math::max);
+        if (!obtenu) {
+            nombreExpirations.incrementAndGet();
+            throw new SQLTimeoutException("Aucune connexion libre après " + attenteMaxMs
+                    + " ms (" + this + ")");
+        }
+
+        try {
+            Connection physique = prendreConnexionValide();
+            empruntees.put(physique, new Emprunt(seuilFuiteMs > 0));
+            nombreEmprunts.incrementAndGet();
+            return envelopper(physique);
+        } catch (SQLException | RuntimeException ex) {
+            jetons.release();
+            throw ex;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        // EclipseLink transmet l'utilisateur de l'unité de persistance
+        if (username == null || username.equals(utilisateur)) {
+            return getConnection();
+        }
+        throw new SQLFeatureNotSupportedException("Le pool n'utilise que l'utilisateur de l'unité de persistance");
+    }
+
+    private Connection prendreConnexionValide() throws SQLException {
+        Connection physique;
+        while ((physique = inactives.pollFirst()) != null) {
+            if (estValide(physique)) {
+                return physique;
+            }
+            nombreInvalides.incrementAndGet();
+            fermerPhysique(physique);
+        }
+        return ouvrirPhysique();
+    }
+
+    private boolean estValide(Connection physique) {
+        if (validationSecondes <= 0) {
+            return true;
+        }
+        try {
+            return physique.isValid(validationSecondes);
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    private Connection ouvrirPhysique() throws SQLException {
+        Connection physique = DriverManager.getConnection(url, utilisateur, motDePasse);
+        nombreCreations.incrementAndGet();
+        return physique;
+    }
+
+    private void fermerPhysique(Connection physique) {
+        try {
+            physique.close();
+        } catch (SQLException ex) {
+            JOURNAL.attention("Erreur à la fermeture d'une connexion : " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Rend une connexion physique au pool (appelé par la fermeture de la
+     * connexion prêtée).
+     */
+    private void rendre(Connection physique) {
+        if (empruntees.remove(physique) == null) {
+            return;
+        }
+        try {
+            if (ferme || physique.isClosed()) {
+                fermerPhysique(physique);
+                return;
+            }
+            if (!physique.getAutoCommit()) {
+                physique.rollback();
+                physique.setAutoCommit(true);
+            }
+            inactives.offerFirst(physique);
+        } catch (SQLException ex) {
+            nombreInvalides.incrementAndGet();
+            fermerPhysique(physique);
+        } finally {
+            jetons.release();
+        }
+    }
+
+    private Connection envelopper(Connection physique) {
+        return (Connection) Proxy.newProxyInstance(
+                PoolConnexions.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                new ConnexionPretee(physique));
+    }
+
+    /**
+     * Connexion prêtée : close() la rend au pool au lieu de la fermer.
+     */
+    private final class ConnexionPretee implements InvocationHandler {
+
+        private final Connection physique;
+        private boolean rendue = false;
+
+        ConnexionPretee(Connection physique) {
+            this.physique = physique;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method methode, Object[] args) throws Throwable {
+            switch (methode.getName()) {
+                case "close":
+                    if (!rendue) {
+                        rendue = true;
+                        rendre(physique);
+                    }
+                    return null;
+                case "isClosed":
+                    return rendue || physique.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "ConnexionPretee[" + physique + "]";
+                default:
+                    if (rendue) {
+                        throw new SQLException("Connexion déjà rendue au pool");
+                    }
+                    try {
+                        return methode.invoke(physique, args);
+                    } catch (InvocationTargetException ex) {
+                        throw ex.getCause();
+                    }
+            }
+        }
+    }
+
+    /**
+     * Tâche périodique : signale les fuites et maintient la taille minimale.
+     */
+    private void surveiller() {
+        try {
+            if (seuilFuiteMs > 0) {
+                long maintenant = System.nanoTime();
+                for (Emprunt emprunt : empruntees.values()) {
+                    long dureeMs = TimeUnit.NANOSECONDS.toMillis(maintenant - emprunt.debut);
+                    if (!emprunt.signale && dureeMs > seuilFuiteMs) {
+                        emprunt.signale = true;
+                        nombreFuites.incrementAndGet();
+                        JOURNAL.journaliser(NiveauJournal.ATTENTION,
+                                "Fuite probable : connexion empruntée depuis " + dureeMs
+                                + " ms par le thread " + emprunt.thread, emprunt.pileAppel);
+                    }
+                }
+            }
+            completer();
+        } catch (RuntimeException ex) {
+            JOURNAL.erreur("Erreur lors de la surveillance du pool", ex);
+        }
+    }
+
+    /**
+     * Ouvre des connexions jusqu'à atteindre la taille minimale.
+     */
+    private void completer() {
+        while (!ferme && inactives.size() + empruntees.size() < tailleMin) {
+            if (!jetons.tryAcquire()) {
+                return;
+            }
+            try {
+                inactives.offerLast(ouvrirPhysique());
+            } catch (SQLException ex) {
+                JOURNAL.attention("Impossible d'ouvrir une connexion : " + ex.getMessage());
+                return;
+            } finally {
+                jetons.release();
+            }
+        }
+    }
+
+    /**
+     * Ferme le pool : les connexions inactives sont fermées immédiatement,
+     * les connexions prêtées le seront à leur retour.
+     */
+    public void fermer() {
+        ferme = true;
+        surveillance.shutdownNow();
+        Connection physique;
+        while ((physique = inactives.pollFirst()) != null) {
+            fermerPhysique(physique);
+        }
+        JOURNAL.info("Pool de connexions fermé : " + this);
+    }
+
+/*********** COMPTEURS *************/
+    public int getTailleMin() {
+        return tailleMin;
+    }
+
+    public int getTailleMax() {
+        return tailleMax;
+    }
+
+    public int getNombreActives() {
+        return empruntees.size();
+    }
+
+    public int getNombreInactives() {
+        return inactives.size();
+    }
+
+    public int getNombreEnAttente() {
+        return nombreEnAttente.get();
+    }
+
+    public long getNombreEmprunts() {
+        return nombreEmprunts.get();
+    }
+
+    public long getNombreExpirations() {
+        return nombreExpirations.get();
+    }
+
+    public long getNombreCreations() {
+        return nombreCreations.get();
+    }
+
+    public long getNombreInvalides() {
+        return nombreInvalides.get();
+    }
+
+    public long getNombreFuites() {
+        return nombreFuites.get();
+    }
+
+    public long getAttenteTotaleMs() {
+        return TimeUnit.NANOSECONDS.toMillis(attenteTotaleNanos.get());
+    }
+
+    public long getAttenteMaxMs() {
+        return TimeUnit.NANOSECONDS.toMillis(attenteMaxNanos.get());
+    }
+
+    @Override
+    public String toString() {
+        return "PoolConnexions[min=" + tailleMin + ", max=" + tailleMax
+                + ", actives=" + getNombreActives()
+                + ", inactives=" + getNombreInactives()
+                + ", enAttente=" + getNombreEnAttente()
+                + ", emprunts=" + getNombreEmprunts()
+                + ", attenteTotaleMs=" + getAttenteTotaleMs()
+                + ", attenteMaxMs=" + getAttenteMaxMs()
+                + ", expirations=" + getNombreExpirations()
+                + ", creations=" + getNombreCreations()
+                + ", invalides=" + getNombreInvalides()
+                + ", fuites=" + getNombreFuites() + "]";
+    }
+
+/*********** DataSource *************/
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return DriverManager.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        DriverManager.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        DriverManager.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return DriverManager.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("PoolConnexions n'implémente pas " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this);
+    }
+}
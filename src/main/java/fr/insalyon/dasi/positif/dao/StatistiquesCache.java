@@ -0,0 +1,143 @@
+package fr.insalyon.dasi.positif.dao;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compteurs d'utilisation du cache partagé (cache de second niveau) pour une
+ * classe d'entité : recherches par identifiant servies par le cache
+ * (succès) ou par la base (échecs), invalidations explicites et évictions.
+ * <br>Une éviction est un échec sur une entité déjà trouvée dans le cache
+ * et qui n'a pas été invalidée depuis : le cache l'a retirée de lui-même
+ * (taille maximale, ramasse-miettes, expiration), ou elle a été supprimée.
+ * Seules les SUIVIES_MAX premières entités trouvées dans le cache sont
+ * suivies : au-delà, les évictions sont sous-estimées.
+ * <br>Les compteurs sont alimentés par JpaUtil.trouver() et
+ * JpaUtil.invaliderCache().
+ *
+ * @author DASI Team
+ */
+public class StatistiquesCache {
+
+    /**
+     * Nombre maximal d'identifiants suivis par classe d'entité
+     */
+    static final int SUIVIES_MAX = 10000;
+
+    private static final ConcurrentMap<String, StatistiquesCache> STATISTIQUES = new ConcurrentHashMap<>();
+
+    private final Class<?> classe;
+    private final LongAdder succes = new LongAdder();
+    private final LongAdder echecs = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Identifiants des entités trouvées dans le cache, ni invalidées ni
+     * évincées depuis
+     */
+    private final Set<Object> enCache = ConcurrentHashMap.newKeySet();
+
+    private StatistiquesCache(Class<?> classe) {
+        this.classe = classe;
+    }
+
+    /**
+     * @param classe la classe d'entité
+     * @return les compteurs de cette classe (créés au premier appel)
+     */
+    public static StatistiquesCache pour(Class<?> classe) {
+        return STATISTIQUES.computeIfAbsent(classe.getSimpleName(), nom -> new StatistiquesCache(classe));
+    }
+
+    /**
+     * @return les compteurs de toutes les classes d'entité, triés par nom
+     */
+    public static Map<String, StatistiquesCache> toutes() {
+        return Collections.unmodifiableMap(new TreeMap<>(STATISTIQUES));
+    }
+
+    /**
+     * Remet à zéro les compteurs de toutes les classes d'entité.
+     */
+    public static void reinitialiser() {
+        STATISTIQUES.clear();
+    }
+
+    /**
+     * Compte une invalidation explicite et cesse de suivre les entités
+     * invalidées, dans les compteurs de la classe et de ses sur- et
+     * sous-classes (elles partagent les identifiants).
+     *
+     * @param classe la classe d'entité
+     * @param id l'identifiant de l'entité, null pour toutes
+     */
+    static void compterInvalidation(Class<?> classe, Object id) {
+        pour(classe).invalidations.increment();
+        for (StatistiquesCache stats : STATISTIQUES.values()) {
+            if (classe.isAssignableFrom(stats.classe) || stats.classe.isAssignableFrom(classe)) {
+                if (id == null) {
+                    stats.enCache.clear();
+                } else {
+                    stats.enCache.remove(id);
+                }
+            }
+        }
+    }
+
+    void compterSucces(Object id) {
+        succes.increment();
+        if (enCache.size() < SUIVIES_MAX) {
+            enCache.add(id);
+        }
+    }
+
+    void compterEchec(Object id) {
+        echecs.increment();
+        if (enCache.remove(id)) {
+            evictions.increment();
+        }
+    }
+
+    public String getEntite() {
+        return classe.getSimpleName();
+    }
+
+    public long getSucces() {
+        return succes.sum();
+    }
+
+    public long getEchecs() {
+        return echecs.sum();
+    }
+
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return la proportion de recherches servies par le cache (0 si aucune
+     * recherche)
+     */
+    public double getTauxSucces() {
+        long s = getSucces();
+        long total = s + getEchecs();
+        return total == 0 ? 0 : (double) s / total;
+    }
+
+    @Override
+    public String toString() {
+        return "StatistiquesCache[" + getEntite() + ": succes=" + getSucces() + ", echecs=" + getEchecs()
+                + ", invalidations=" + getInvalidations() + ", evictions=" + getEvictions()
+                + ", taux=" + String.format("%.2f", getTauxSucces()) + "]";
+    }
+}
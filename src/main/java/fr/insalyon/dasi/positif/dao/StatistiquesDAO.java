@@ -0,0 +1,32 @@
+package fr.insalyon.dasi.positif.dao;
+
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+/**
+ * Le Data Access Object des statistiques : les comptages sont faits par la
+ * base (GROUP BY ... COUNT), sans charger les conversations.
+ * <br>Les statistiques affichées sont lues dans les compteurs de voyances
+ * (cf.&nbsp;CompteurVoyancesDAO).
+ *
+ * @author Liam BETTE, Alexis BOSIO, Thibault REMY
+ */
+public class StatistiquesDAO {
+
+    /**
+     * Compte les conversations de chaque couple Medium/Employé, en
+     * distinguant celles qui ne sont pas terminées (sert à reconstruire les
+     * compteurs de voyances)
+     * @return une ligne par couple : identifiant du Medium, identifiant de
+     * l'Employé, nombre de voyances, nombre de voyances en cours
+     */
+    public static List<Object[]> compterVoyancesParPaire() {
+        EntityManager em = JpaUtil.obtenirEntityManager();
+        TypedQuery<Object[]> q = em.createQuery("SELECT c.medium.id, c.employe.id, COUNT(c), "
+                + "SUM(CASE WHEN c.fin IS NULL THEN 1 ELSE 0 END) "
+                + "FROM Conversation c "
+                + "GROUP BY c.medium.id, c.employe.id", Object[].class);
+        return q.getResultList();
+    }
+}
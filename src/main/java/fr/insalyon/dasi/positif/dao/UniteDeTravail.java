@@ -0,0 +1,21 @@
+package fr.insalyon.dasi.positif.dao;
+
+/**
+ * Une unité de travail exécutée par JpaUtil.executer() : une suite d'appels
+ * aux DAO réalisée dans un même contexte de persistance (et, en
+ * lecture/écriture, dans une même transaction).
+ * <br>L'unité peut être rejouée si la transaction échoue pour une raison
+ * transitoire : elle ne doit donc pas modifier d'objets extérieurs à son
+ * contexte de persistance avant la validation.
+ *
+ * @param <T> le type du résultat
+ * @author DASI Team
+ */
+@FunctionalInterface
+public interface UniteDeTravail<T> {
+
+    /**
+     * @return le résultat de l'unité de travail
+     */
+    T executer();
+}
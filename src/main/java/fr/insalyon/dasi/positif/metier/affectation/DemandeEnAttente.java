@@ -0,0 +1,161 @@
+package fr.insalyon.dasi.positif.metier.affectation;
+
+/**
+ * Demande de voyance d'un Client pour un Medium, mise en file d'attente
+ * parce qu'aucun employé n'avait de créneau libre (cf.&nbsp;FileAttente).
+ * <br>Les objets rendus par FileAttente sont des copies : la position et
+ * l'attente estimée y sont figées au moment de la consultation.
+ *
+ * @author Liam BETTE, Alexis BOSIO, Thibault REMY
+ */
+public class DemandeEnAttente {
+
+    /**
+     * État d'une demande.
+     */
+    public enum Etat {
+        /**
+         * En file, en attente d'un créneau libre
+         */
+        EN_ATTENTE,
+        /**
+         * Un employé a été affecté : la conversation est créée
+         */
+        SERVIE,
+        /**
+         * Retirée de la file à la demande du client
+         */
+        ANNULEE,
+        /**
+         * Retirée de la file : le client ne s'est plus manifesté
+         */
+        EXPIREE,
+        /**
+         * Jamais mise en file : la file du médium est pleine
+         */
+        REFUSEE
+    }
+
+    private final long id;
+
+    private final long clientId;
+
+    private final long mediumId;
+
+    private final long arrivee;
+
+    /**
+     * Instant du dernier signe de vie du client (demande ou consultation)
+     */
+    long dernierSignal;
+
+    Etat etat;
+
+    Long conversationId;
+
+    /**
+     * Vrai pendant qu'une affectation est tentée pour cette demande
+     * (cf.&nbsp;FileAttente.prendre())
+     */
+    boolean enAffectation;
+
+    private int position;
+
+    private long attenteEstimeeMs;
+
+    DemandeEnAttente(long id, long clientId, long mediumId, long arrivee, Etat etat) {
+        this.id = id;
+        this.clientId = clientId;
+        this.mediumId = mediumId;
+        this.arrivee = arrivee;
+        this.dernierSignal = arrivee;
+        this.etat = etat;
+    }
+
+    /**
+     * @param clientId l'identifiant du client
+     * @param mediumId l'identifiant du médium
+     * @param conversationId l'identifiant de la conversation créée
+     * @return une demande servie sans passer par la file
+     */
+    public static DemandeEnAttente servie(long clientId, long mediumId, long conversationId) {
+        DemandeEnAttente demande = new DemandeEnAttente(0, clientId, mediumId, System.currentTimeMillis(), Etat.SERVIE);
+        demande.conversationId = conversationId;
+        return demande;
+    }
+
+    /**
+     * @param position la position à figer dans la copie (0 si la demande
+     * n'est plus en file)
+     * @param attenteEstimeeMs l'attente estimée à figer dans la copie
+     * @return une copie de la demande
+     */
+    DemandeEnAttente copie(int position, long attenteEstimeeMs) {
+        DemandeEnAttente copie = new DemandeEnAttente(id, clientId, mediumId, arrivee, etat);
+        copie.dernierSignal = dernierSignal;
+        copie.conversationId = conversationId;
+        copie.position = position;
+        copie.attenteEstimeeMs = attenteEstimeeMs;
+        return copie;
+    }
+
+//******** GETTERS ET SETTERS *************
+    /**
+     * @return l'identifiant de la demande (0 si elle n'a pas été mise en
+     * file)
+     */
+    public long getId() {
+        return id;
+    }
+
+    public long getClientId() {
+        return clientId;
+    }
+
+    public long getMediumId() {
+        return mediumId;
+    }
+
+    /**
+     * @return l'instant de la demande, en millisecondes
+     */
+    public long getArrivee() {
+        return arrivee;
+    }
+
+    public Etat getEtat() {
+        return etat;
+    }
+
+    /**
+     * @return l'identifiant de la conversation créée, null tant que la
+     * demande n'est pas servie
+     */
+    public Long getConversationId() {
+        return conversationId;
+    }
+
+    /**
+     * @return la position dans la file (1 pour la tête), 0 si la demande
+     * n'est pas en attente
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * @return l'attente estimée avant qu'un employé soit affecté, en
+     * millisecondes
+     */
+    public long getAttenteEstimeeMs() {
+        return attenteEstimeeMs;
+    }
+
+    @Override
+    public String toString() {
+        return "Demande #" + id + " (client #" + clientId + ", medium #" + mediumId + ") : " + etat
+                + (etat == Etat.EN_ATTENTE ? ", position " + position + ", attente estimée "
+                        + attenteEstimeeMs / 1000 + " s" : "")
+                + (conversationId != null ? ", conversation #" + conversationId : "");
+    }
+}
@@ -0,0 +1,164 @@
+package fr.insalyon.dasi.positif.metier.affectation;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * État d'un Employé tenu en mémoire par le moteur d'affectation : médiums
+ * qu'il sait incarner, disponibilité, créneaux et mesures de charge.
+ * <br>Les modifications sont faites par MoteurAffectation, sous le verrou de
+ * cet objet.
+ *
+ * @author Liam BETTE, Alexis BOSIO, Thibault REMY
+ */
+public class EtatEmploye {
+
+    /**
+     * Constante de temps de l'amortissement de la charge récente : une
+     * voyance compte e fois moins après cette durée.
+     */
+    static final double CONSTANTE_TEMPS_CHARGE_MS = 15 * 60 * 1000;
+
+    private final long id;
+
+    private Set<Long> mediums = Collections.emptySet();
+
+    private boolean disponible;
+
+    private int capacite = 1;
+
+    private long enCours;
+
+    private long historique;
+
+    private long derniereAffectation;
+
+    private double chargeRecente = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Position courante de l'employé dans les files des médiums qu'il sait
+     * incarner (null s'il n'y figure pas).
+     */
+    MoteurAffectation.Position position;
+
+    EtatEmploye(long id) {
+        this.id = id;
+    }
+
+    /**
+     * Enregistre une nouvelle affectation dans les mesures de charge.
+     *
+     * @param sequence le numéro d'ordre de l'affectation
+     * @param instantMs l'instant de l'affectation, relatif à l'origine du
+     * moteur
+     */
+    void compterAffectation(long sequence, long instantMs) {
+        enCours++;
+        historique++;
+        derniereAffectation = sequence;
+        // Amortissement « vers l'avant » : chaque voyance pèse
+        // exp(instant / constante), et la somme est gardée sous forme de
+        // logarithme. Comparer deux charges revient ainsi à comparer leurs
+        // valeurs amorties à n'importe quel instant commun.
+        double poids = instantMs / CONSTANTE_TEMPS_CHARGE_MS;
+        double max = Math.max(chargeRecente, poids);
+        chargeRecente = max + Math.log1p(Math.exp(Math.min(chargeRecente, poids) - max));
+    }
+
+    void annulerAffectation() {
+        enCours = Math.max(0, enCours - 1);
+        historique = Math.max(0, historique - 1);
+    }
+
+    void terminerVoyance() {
+        enCours = Math.max(0, enCours - 1);
+    }
+
+    void setMediums(Set<Long> mediums) {
+        this.mediums = mediums;
+    }
+
+    void setDisponible(boolean disponible) {
+        this.disponible = disponible;
+    }
+
+    void setCapacite(int capacite) {
+        this.capacite = capacite;
+    }
+
+    void setEnCours(long enCours) {
+        this.enCours = enCours;
+    }
+
+    void setHistorique(long historique) {
+        this.historique = historique;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return les identifiants des médiums que l'employé sait incarner
+     */
+    public Set<Long> getMediums() {
+        return mediums;
+    }
+
+    /**
+     * @return vrai si l'employé est en service
+     */
+    public boolean isDisponible() {
+        return disponible;
+    }
+
+    /**
+     * @return le nombre de voyances que l'employé peut mener en parallèle
+     */
+    public int getCapacite() {
+        return capacite;
+    }
+
+    /**
+     * @return vrai si l'employé est en service et a au moins un créneau libre
+     */
+    public boolean aUnCreneauLibre() {
+        return disponible && enCours < capacite;
+    }
+
+    /**
+     * @return le nombre de voyances en cours de l'employé (créneaux occupés)
+     */
+    public long getEnCours() {
+        return enCours;
+    }
+
+    /**
+     * @return le nombre total de voyances de l'employé
+     */
+    public long getHistorique() {
+        return historique;
+    }
+
+    /**
+     * @return le numéro d'ordre de la dernière affectation de l'employé (0
+     * s'il n'a pas été affecté depuis le démarrage du moteur)
+     */
+    public long getDerniereAffectation() {
+        return derniereAffectation;
+    }
+
+    /**
+     * @return le logarithme de la charge récente amortie (moins l'infini si
+     * l'employé n'a pas été affecté depuis le démarrage du moteur)
+     */
+    public double getChargeRecente() {
+        return chargeRecente;
+    }
+
+    @Override
+    public String toString() {
+        return "EtatEmploye #" + id + " : mediums=" + mediums + ", disponible=" + disponible
+                + ", enCours=" + enCours + "/" + capacite + ", historique=" + historique;
+    }
+}
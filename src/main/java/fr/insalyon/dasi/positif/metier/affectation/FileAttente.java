@@ -0,0 +1,334 @@
+package fr.insalyon.dasi.positif.metier.affectation;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Files d'attente des demandes de voyance, tenues en mémoire : une file
+ * FIFO par Medium, des demandes qu'aucun employé ne pouvait servir.
+ * <br>Une file a une longueur maximale : au-delà, la demande est refusée.
+ * Le client doit se manifester (cf.&nbsp;consulter()) au moins une fois par
+ * délai d'abandon, sinon sa demande expire et quitte la file.
+ * <br>L'attente estimée est la position multipliée par l'intervalle moyen
+ * entre deux libérations de créneau pour le médium, mesuré tant que sa
+ * file n'est pas vide (moyenne glissante exponentielle).
+ * <br>Toutes les méthodes sont synchronisées : les files sont courtes et
+ * les opérations ne font aucun accès à la base.
+ *
+ * @author Liam BETTE, Alexis BOSIO, Thibault REMY
+ */
+public class FileAttente {
+
+    public static final int LONGUEUR_MAX_PAR_DEFAUT = 20;
+
+    public static final long DELAI_ABANDON_PAR_DEFAUT_MS = 60 * 1000;
+
+    /**
+     * Intervalle entre deux libérations supposé tant qu'aucun n'a été mesuré
+     */
+    static final long INTERVALLE_PAR_DEFAUT_MS = 5 * 60 * 1000;
+
+    /**
+     * Poids d'une nouvelle mesure dans l'intervalle moyen
+     */
+    static final double LISSAGE = 0.2;
+
+    /**
+     * Intervalle minimal entre deux purges des demandes abandonnées
+     */
+    static final long PERIODE_PURGE_MS = 1000;
+
+    private final int longueurMax;
+
+    private final long delaiAbandonMs;
+
+    /**
+     * Les files par médium, ordonnées par identifiant (ordre d'arrivée)
+     */
+    private final Map<Long, TreeMap<Long, DemandeEnAttente>> files = new HashMap<>();
+
+    /**
+     * Toutes les demandes connues, y compris celles qui ont quitté la file,
+     * conservées un délai d'abandon pour que le client puisse en lire l'issue
+     */
+    private final Map<Long, DemandeEnAttente> demandes = new HashMap<>();
+
+    private final Map<Long, Long> derniereLiberation = new HashMap<>();
+
+    private final Map<Long, Double> intervalleMoyen = new HashMap<>();
+
+    private long sequence;
+
+    private long dernierePurge;
+
+    /**
+     * @param longueurMax le nombre maximal de demandes en attente par médium
+     * @param delaiAbandonMs le délai sans nouvelle du client au-delà duquel
+     * sa demande expire
+     */
+    public FileAttente(int longueurMax, long delaiAbandonMs) {
+        this.longueurMax = longueurMax;
+        this.delaiAbandonMs = delaiAbandonMs;
+    }
+
+    /**
+     * Met une demande en file. Si le client attend déjà ce médium, sa
+     * demande existante est rendue et garde sa place.
+     *
+     * @param clientId l'identifiant du client
+     * @param mediumId l'identifiant du médium
+     * @return la demande, à l'état REFUSEE si la file est pleine
+     */
+    public synchronized DemandeEnAttente ajouter(long clientId, long mediumId) {
+        long maintenant = System.currentTimeMillis();
+        purger(maintenant, true);
+        TreeMap<Long, DemandeEnAttente> file = files.get(mediumId);
+        if (file == null) {
+            file = new TreeMap<>();
+            files.put(mediumId, file);
+        }
+        for (DemandeEnAttente demande : file.values()) {
+            if (demande.getClientId() == clientId) {
+                demande.dernierSignal = maintenant;
+                return copier(demande);
+            }
+        }
+        if (file.size() >= longueurMax) {
+            return new DemandeEnAttente(0, clientId, mediumId, maintenant, DemandeEnAttente.Etat.REFUSEE);
+        }
+        DemandeEnAttente demande = new DemandeEnAttente(++sequence, clientId, mediumId, maintenant,
+                DemandeEnAttente.Etat.EN_ATTENTE);
+        file.put(demande.getId(), demande);
+        demandes.put(demande.getId(), demande);
+        return copier(demande);
+    }
+
+    /**
+     * Consulte une demande et compte cette consultation comme un signe de
+     * vie du client.
+     *
+     * @param id l'identifiant de la demande
+     * @return la demande, null si elle est inconnue ou oubliée
+     */
+    public synchronized DemandeEnAttente consulter(long id) {
+        long maintenant = System.currentTimeMillis();
+        purger(maintenant, false);
+        DemandeEnAttente demande = demandes.get(id);
+        if (demande == null) {
+            return null;
+        }
+        demande.dernierSignal = maintenant;
+        return copier(demande);
+    }
+
+    /**
+     * Lit le client d'une demande, sans compter la lecture comme un signe de
+     * vie.
+     *
+     * @param id l'identifiant de la demande
+     * @return l'identifiant du client, null si la demande est inconnue ou
+     * oubliée
+     */
+    public synchronized Long obtenirClientId(long id) {
+        DemandeEnAttente demande = demandes.get(id);
+        return demande == null ? null : demande.getClientId();
+    }
+
+    /**
+     * Retire une demande de la file à la demande du client.
+     *
+     * @param id l'identifiant de la demande
+     * @return vrai si la demande était en attente
+     */
+    public synchronized boolean annuler(long id) {
+        DemandeEnAttente demande = demandes.get(id);
+        if (demande == null || demande.etat != DemandeEnAttente.Etat.EN_ATTENTE) {
+            return false;
+        }
+        // Une affectation en cours pour cette demande la trouvera annulée
+        // (cf. servir())
+        demande.etat = DemandeEnAttente.Etat.ANNULEE;
+        sortirDeLaFile(demande);
+        return true;
+    }
+
+    /**
+     * @param mediumId l'identifiant du médium
+     * @return vrai si aucune demande n'attend ce médium
+     */
+    public synchronized boolean estVide(long mediumId) {
+        purger(System.currentTimeMillis(), false);
+        TreeMap<Long, DemandeEnAttente> file = files.get(mediumId);
+        return file == null || file.isEmpty();
+    }
+
+    /**
+     * @param mediumId l'identifiant du médium
+     * @return le nombre de demandes qui attendent ce médium
+     */
+    public synchronized int getLongueur(long mediumId) {
+        TreeMap<Long, DemandeEnAttente> file = files.get(mediumId);
+        return file == null ? 0 : file.size();
+    }
+
+    /**
+     * Choisit la demande à servir parmi les files des médiums donnés : la
+     * plus ancienne de celles qui ne sont pas déjà en cours d'affectation.
+     * Elle reste en file jusqu'à servir() ou rendre().
+     *
+     * @param mediumIds les identifiants des médiums
+     * @return la demande choisie, null si aucune n'attend
+     */
+    public synchronized DemandeEnAttente prendre(Collection<Long> mediumIds) {
+        purger(System.currentTimeMillis(), true);
+        DemandeEnAttente choisie = null;
+        for (Long mediumId : mediumIds) {
+            TreeMap<Long, DemandeEnAttente> file = files.get(mediumId);
+            if (file == null) {
+                continue;
+            }
+            for (DemandeEnAttente demande : file.values()) {
+                if (!demande.enAffectation) {
+                    if (choisie == null || demande.getId() < choisie.getId()) {
+                        choisie = demande;
+                    }
+                    break;
+                }
+            }
+        }
+        if (choisie == null) {
+            return null;
+        }
+        choisie.enAffectation = true;
+        return copier(choisie);
+    }
+
+    /**
+     * Enregistre la conversation créée pour une demande choisie par
+     * prendre() : elle quitte la file.
+     *
+     * @param id l'identifiant de la demande
+     * @param conversationId l'identifiant de la conversation créée
+     * @return vrai si la demande attendait encore ; faux si elle a été
+     * annulée entre-temps, la conversation est alors à terminer
+     */
+    public synchronized boolean servir(long id, long conversationId) {
+        DemandeEnAttente demande = demandes.get(id);
+        if (demande == null) {
+            return false;
+        }
+        demande.enAffectation = false;
+        if (demande.etat != DemandeEnAttente.Etat.EN_ATTENTE) {
+            return false;
+        }
+        demande.etat = DemandeEnAttente.Etat.SERVIE;
+        demande.conversationId = conversationId;
+        sortirDeLaFile(demande);
+        return true;
+    }
+
+    /**
+     * Rend à la file une demande choisie par prendre() qui n'a pas pu être
+     * servie : elle garde sa place.
+     *
+     * @param id l'identifiant de la demande
+     */
+    public synchronized void rendre(long id) {
+        DemandeEnAttente demande = demandes.get(id);
+        if (demande != null) {
+            demande.enAffectation = false;
+        }
+    }
+
+    /**
+     * Enregistre la libération d'un créneau pour des médiums, pour la
+     * mesure de l'intervalle moyen entre deux libérations. Seules comptent
+     * les libérations pendant que la file du médium n'est pas vide : elles
+     * mesurent alors le débit des employés, et non celui des clients.
+     *
+     * @param mediumIds les identifiants des médiums que l'employé libéré sait
+     * incarner
+     */
+    public synchronized void enregistrerLiberation(Collection<Long> mediumIds) {
+        long maintenant = System.currentTimeMillis();
+        for (Long mediumId : mediumIds) {
+            TreeMap<Long, DemandeEnAttente> file = files.get(mediumId);
+            if (file == null || file.isEmpty()) {
+                derniereLiberation.remove(mediumId);
+                continue;
+            }
+            Long precedente = derniereLiberation.put(mediumId, maintenant);
+            if (precedente != null) {
+                double mesure = maintenant - precedente;
+                Double moyenne = intervalleMoyen.get(mediumId);
+                intervalleMoyen.put(mediumId, moyenne == null ? mesure : moyenne + LISSAGE * (mesure - moyenne));
+            }
+        }
+    }
+
+    /**
+     * Doit être appelé sous le verrou.
+     */
+    private DemandeEnAttente copier(DemandeEnAttente demande) {
+        if (demande.etat != DemandeEnAttente.Etat.EN_ATTENTE) {
+            return demande.copie(0, 0);
+        }
+        TreeMap<Long, DemandeEnAttente> file = files.get(demande.getMediumId());
+        int position = file.headMap(demande.getId()).size() + 1;
+        Double moyenne = intervalleMoyen.get(demande.getMediumId());
+        long intervalle = moyenne == null ? INTERVALLE_PAR_DEFAUT_MS : Math.round(moyenne);
+        return demande.copie(position, position * intervalle);
+    }
+
+    /**
+     * Doit être appelé sous le verrou.
+     */
+    private void sortirDeLaFile(DemandeEnAttente demande) {
+        TreeMap<Long, DemandeEnAttente> file = files.get(demande.getMediumId());
+        if (file != null) {
+            file.remove(demande.getId());
+        }
+    }
+
+    /**
+     * Fait expirer les demandes dont le client ne s'est plus manifesté et
+     * oublie celles qui ont quitté la file depuis un délai d'abandon.
+     * Doit être appelé sous le verrou.
+     *
+     * @param forcer vrai pour purger même si la dernière purge est récente
+     */
+    private void purger(long maintenant, boolean forcer) {
+        if (!forcer && maintenant - dernierePurge < PERIODE_PURGE_MS) {
+            return;
+        }
+        dernierePurge = maintenant;
+        Iterator<DemandeEnAttente> it = demandes.values().iterator();
+        while (it.hasNext()) {
+            DemandeEnAttente demande = it.next();
+            if (maintenant - demande.dernierSignal <= delaiAbandonMs || demande.enAffectation) {
+                continue;
+            }
+            if (demande.etat == DemandeEnAttente.Etat.EN_ATTENTE) {
+                demande.etat = DemandeEnAttente.Etat.EXPIREE;
+                demande.dernierSignal = maintenant;
+                sortirDeLaFile(demande);
+            } else {
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("FileAttente[");
+        for (Map.Entry<Long, TreeMap<Long, DemandeEnAttente>> file : files.entrySet()) {
+            if (!file.getValue().isEmpty()) {
+                sb.append(" medium #").append(file.getKey()).append('=').append(file.getValue().size());
+            }
+        }
+        return sb.append(" ]").toString();
+    }
+}
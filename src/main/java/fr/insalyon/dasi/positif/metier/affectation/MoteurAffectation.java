@@ -0,0 +1,279 @@
+package fr.insalyon.dasi.positif.metier.affectation;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moteur d'affectation des voyances, tenu en mémoire : pour chaque Medium,
+ * la file triée (ConcurrentSkipListSet) des employés ayant un créneau libre
+ * qui savent l'incarner, dans l'ordre de la StrategieAffectation.
+ * <br>Le choix d'un employé ne fait aucun accès à la base : il prend le
+ * premier de la file (O(log n)), lui occupe un créneau et le replace dans
+ * les files de tous ses médiums, à sa nouvelle priorité, ou l'en retire s'il
+ * n'a plus de créneau libre.
+ * <br>Le moteur tient aussi la VueDisponibilite des médiums.
+ * La base reste la référence : le moteur est chargé au démarrage
+ * (cf.&nbsp;Service.demarrer()) puis réconcilié avec elle à chaque fin de
+ * voyance et chaque fois qu'une réservation se révèle périmée.
+ *
+ * @author Liam BETTE, Alexis BOSIO, Thibault REMY
+ */
+public class MoteurAffectation {
+
+    /**
+     * Élément d'une file de médium : une priorité figée au moment de
+     * l'insertion, départagée par l'identifiant de l'employé.
+     */
+    static final class Position implements Comparable<Position> {
+
+        final double priorite;
+        final long employeId;
+
+        Position(double priorite, long employeId) {
+            this.priorite = priorite;
+            this.employeId = employeId;
+        }
+
+        @Override
+        public int compareTo(Position autre) {
+            int c = Double.compare(priorite, autre.priorite);
+            return c != 0 ? c : Long.compare(employeId, autre.employeId);
+        }
+    }
+
+    private final StrategieAffectation strategie;
+
+    private final ConcurrentMap<Long, EtatEmploye> employes = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<Long, ConcurrentSkipListSet<Position>> files = new ConcurrentHashMap<>();
+
+    private final VueDisponibilite vue = new VueDisponibilite();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final long origine = System.currentTimeMillis();
+
+    /**
+     * @param strategie la stratégie de choix des employés
+     */
+    public MoteurAffectation(StrategieAffectation strategie) {
+        this.strategie = strategie;
+    }
+
+    public StrategieAffectation getStrategie() {
+        return strategie;
+    }
+
+    /**
+     * @return la vue de la disponibilité des médiums
+     */
+    public VueDisponibilite getVueDisponibilite() {
+        return vue;
+    }
+
+    /**
+     * Charge ou remplace l'état complet d'un employé (démarrage).
+     *
+     * @param employeId l'identifiant de l'employé
+     * @param mediums les identifiants des médiums qu'il sait incarner
+     * @param disponible sa disponibilité dans la base
+     * @param capacite son nombre de créneaux
+     * @param enCours son nombre de créneaux occupés
+     * @param historique son nombre total de voyances
+     */
+    public void charger(long employeId, Collection<Long> mediums, boolean disponible, int capacite,
+            long enCours, long historique) {
+        EtatEmploye etat = employes.computeIfAbsent(employeId, EtatEmploye::new);
+        synchronized (etat) {
+            retirerDesFiles(etat);
+            etat.setMediums(Collections.unmodifiableSet(new HashSet<>(mediums)));
+            vue.definirMediums(employeId, etat.getMediums());
+            etat.setDisponible(disponible);
+            etat.setCapacite(capacite);
+            etat.setEnCours(enCours);
+            etat.setHistorique(historique);
+            placerDansLesFiles(etat);
+        }
+    }
+
+    /**
+     * Réconcilie un employé avec la base : médiums, disponibilité et
+     * créneaux. Les autres mesures de charge tenues en mémoire sont
+     * conservées.
+     *
+     * @param employeId l'identifiant de l'employé
+     * @param mediums les identifiants des médiums qu'il sait incarner
+     * @param disponible sa disponibilité dans la base
+     * @param capacite son nombre de créneaux
+     * @param enCours son nombre de créneaux occupés
+     */
+    public void reconcilier(long employeId, Collection<Long> mediums, boolean disponible, int capacite, long enCours) {
+        EtatEmploye etat = employes.computeIfAbsent(employeId, EtatEmploye::new);
+        synchronized (etat) {
+            retirerDesFiles(etat);
+            etat.setMediums(Collections.unmodifiableSet(new HashSet<>(mediums)));
+            vue.definirMediums(employeId, etat.getMediums());
+            etat.setDisponible(disponible);
+            etat.setCapacite(capacite);
+            etat.setEnCours(enCours);
+            placerDansLesFiles(etat);
+        }
+    }
+
+    /**
+     * Retire un employé du moteur.
+     *
+     * @param employeId l'identifiant de l'employé
+     */
+    public void retirer(long employeId) {
+        EtatEmploye etat = employes.remove(employeId);
+        if (etat != null) {
+            synchronized (etat) {
+                retirerDesFiles(etat);
+                vue.retirer(employeId);
+            }
+        }
+    }
+
+    /**
+     * Choisit l'employé qui incarnera le médium et lui réserve un créneau,
+     * jusqu'à liberer() ou annuler().
+     *
+     * @param mediumId l'identifiant du médium
+     * @return l'identifiant de l'employé réservé, null si aucun employé
+     * disponible ne sait incarner ce médium
+     */
+    public Long reserver(long mediumId) {
+        ConcurrentSkipListSet<Position> file = files.get(mediumId);
+        if (file == null) {
+            return null;
+        }
+        // Toujours le premier de la file, et non un parcours : un employé
+        // réservé par un autre Thread y est replacé plus loin, à sa nouvelle
+        // priorité, et un itérateur pourrait ne pas l'y voir.
+        while (true) {
+            Position position;
+            try {
+                position = file.first();
+            } catch (NoSuchElementException ex) {
+                return null;
+            }
+            EtatEmploye etat = employes.get(position.employeId);
+            if (etat == null) {
+                // Employé en cours de retrait (cf. retirer())
+                Thread.yield();
+                continue;
+            }
+            synchronized (etat) {
+                // Un autre Thread a pu réserver cet employé entre-temps
+                if (etat.position != position || !etat.aUnCreneauLibre()) {
+                    continue;
+                }
+                etat.compterAffectation(sequence.incrementAndGet(), System.currentTimeMillis() - origine);
+                placerDansLesFiles(etat);
+                return etat.getId();
+            }
+        }
+    }
+
+    /**
+     * Annule une réservation qui n'a pas abouti (échec de la transaction) :
+     * le créneau est rendu.
+     *
+     * @param employeId l'identifiant de l'employé réservé
+     */
+    public void annuler(long employeId) {
+        EtatEmploye etat = employes.get(employeId);
+        if (etat != null) {
+            synchronized (etat) {
+                etat.annulerAffectation();
+                placerDansLesFiles(etat);
+            }
+        }
+    }
+
+    /**
+     * Enregistre la fin d'une voyance : le créneau est rendu.
+     *
+     * @param employeId l'identifiant de l'employé
+     */
+    public void liberer(long employeId) {
+        EtatEmploye etat = employes.get(employeId);
+        if (etat != null) {
+            synchronized (etat) {
+                etat.terminerVoyance();
+                placerDansLesFiles(etat);
+            }
+        }
+    }
+
+    /**
+     * @param employeId l'identifiant de l'employé
+     * @return l'état de l'employé, null s'il n'est pas connu du moteur
+     */
+    public EtatEmploye obtenirEtat(long employeId) {
+        return employes.get(employeId);
+    }
+
+    /**
+     * @return le nombre d'employés connus du moteur
+     */
+    public int getNombreEmployes() {
+        return employes.size();
+    }
+
+    /**
+     * @param mediumId l'identifiant du médium
+     * @return le nombre d'employés ayant un créneau libre pour ce médium
+     */
+    public int getNombreDisponibles(long mediumId) {
+        Set<Position> file = files.get(mediumId);
+        return file == null ? 0 : file.size();
+    }
+
+    /**
+     * Doit être appelé sous le verrou de l'état.
+     */
+    private void retirerDesFiles(EtatEmploye etat) {
+        Position position = etat.position;
+        if (position == null) {
+            return;
+        }
+        for (Long mediumId : etat.getMediums()) {
+            ConcurrentSkipListSet<Position> file = files.get(mediumId);
+            if (file != null) {
+                file.remove(position);
+            }
+        }
+        etat.position = null;
+    }
+
+    /**
+     * Doit être appelé sous le verrou de l'état.
+     */
+    private void placerDansLesFiles(EtatEmploye etat) {
+        retirerDesFiles(etat);
+        vue.definirLibre(etat.getId(), etat.aUnCreneauLibre());
+        if (!etat.aUnCreneauLibre()) {
+            return;
+        }
+        Position position = new Position(strategie.priorite(etat), etat.getId());
+        etat.position = position;
+        for (Long mediumId : etat.getMediums()) {
+            files.computeIfAbsent(mediumId, m -> new ConcurrentSkipListSet<>()).add(position);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MoteurAffectation[strategie=" + strategie + ", employes=" + employes.size()
+                + ", mediums=" + files.size() + "]";
+    }
+}
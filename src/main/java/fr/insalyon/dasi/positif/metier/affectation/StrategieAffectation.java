@@ -0,0 +1,22 @@
+package fr.insalyon.dasi.positif.metier.affectation;
+
+/**
+ * Stratégie de choix de l'Employé qui incarnera un Medium : parmi les
+ * employés disponibles, le moteur d'affectation choisit celui de plus petite
+ * priorité (à égalité, le plus petit identifiant).
+ * <br>La priorité d'un employé est recalculée à chaque changement de son état
+ * (affectation, fin de voyance, réconciliation) : elle ne doit dépendre que
+ * de cet état, pas de l'heure de l'appel.
+ *
+ * @author Liam BETTE, Alexis BOSIO, Thibault REMY
+ * @see StrategieAffectationStandard
+ */
+@FunctionalInterface
+public interface StrategieAffectation {
+
+    /**
+     * @param etat l'état de l'employé
+     * @return la priorité de l'employé (la plus petite est choisie)
+     */
+    double priorite(EtatEmploye etat);
+}
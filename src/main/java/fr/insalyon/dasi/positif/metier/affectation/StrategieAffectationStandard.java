@@ -0,0 +1,68 @@
+package fr.insalyon.dasi.positif.metier.affectation;
+
+/**
+ * Les stratégies d'affectation fournies avec le moteur. La stratégie est
+ * choisie par la propriété système <code>positif.affectation.strategie</code>
+ * (par défaut CHARGE_HISTORIQUE).
+ *
+ * @author Liam BETTE, Alexis BOSIO, Thibault REMY
+ */
+public enum StrategieAffectationStandard implements StrategieAffectation {
+
+    /**
+     * L'employé qui a le moins de voyances en cours.
+     */
+    MOINS_ACTIF {
+        @Override
+        public double priorite(EtatEmploye etat) {
+            return etat.getEnCours();
+        }
+    },
+    /**
+     * Tourniquet : l'employé affecté il y a le plus longtemps.
+     */
+    TOURNIQUET {
+        @Override
+        public double priorite(EtatEmploye etat) {
+            return etat.getDerniereAffectation();
+        }
+    },
+    /**
+     * L'employé qui a eu le moins de voyances récemment (charge amortie avec
+     * le temps, cf.&nbsp;EtatEmploye.getChargeRecente()).
+     */
+    CHARGE_RECENTE {
+        @Override
+        public double priorite(EtatEmploye etat) {
+            return etat.getChargeRecente();
+        }
+    },
+    /**
+     * L'employé qui a eu le moins de voyances depuis toujours.
+     */
+    CHARGE_HISTORIQUE {
+        @Override
+        public double priorite(EtatEmploye etat) {
+            return etat.getHistorique();
+        }
+    };
+
+    /**
+     * Convertit un nom de stratégie (insensible à la casse) en stratégie.
+     *
+     * @param nom le nom de la stratégie
+     * @param parDefaut la stratégie à retourner si le nom est absent ou
+     * inconnu
+     * @return la stratégie correspondante
+     */
+    public static StrategieAffectationStandard depuisNom(String nom, StrategieAffectationStandard parDefaut) {
+        if (nom == null) {
+            return parDefaut;
+        }
+        try {
+            return StrategieAffectationStandard.valueOf(nom.trim().toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            return parDefaut;
+        }
+    }
+}
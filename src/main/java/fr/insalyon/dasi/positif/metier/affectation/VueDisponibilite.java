@@ -0,0 +1,123 @@
+package fr.insalyon.dasi.positif.metier.affectation;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Vue compacte de la disponibilité des médiums, tenue à jour par
+ * MoteurAffectation à chaque réservation et chaque libération.
+ * <br>Chaque employé reçoit un numéro de bit. Pour chaque Medium, un BitSet
+ * marque les employés qui savent l'incarner ; un autre BitSet marque les
+ * employés qui ont un créneau libre. Un médium est disponible si les deux
+ * ensembles se rencontrent (BitSet.intersects(), sans allocation).
+ *
+ * @author Liam BETTE, Alexis BOSIO, Thibault REMY
+ */
+public class VueDisponibilite {
+
+    private final Map<Long, Integer> bits = new HashMap<>();
+
+    private final Map<Long, BitSet> employesParMedium = new HashMap<>();
+
+    private final BitSet libres = new BitSet();
+
+    private final Map<Long, Collection<Long>> mediumsParEmploye = new HashMap<>();
+
+    /**
+     * Enregistre les médiums qu'un employé sait incarner.
+     *
+     * @param employeId l'identifiant de l'employé
+     * @param mediums les identifiants de ses médiums
+     */
+    synchronized void definirMediums(long employeId, Collection<Long> mediums) {
+        Integer bit = bits.get(employeId);
+        if (bit == null) {
+            bit = bits.size();
+            bits.put(employeId, bit);
+        }
+        effacerMediums(employeId, bit);
+        for (Long mediumId : mediums) {
+            BitSet employes = employesParMedium.get(mediumId);
+            if (employes == null) {
+                employes = new BitSet();
+                employesParMedium.put(mediumId, employes);
+            }
+            employes.set(bit);
+        }
+        mediumsParEmploye.put(employeId, mediums);
+    }
+
+    /**
+     * @param employeId l'identifiant de l'employé
+     * @param creneauLibre vrai si l'employé est en service et a un créneau
+     * libre
+     */
+    synchronized void definirLibre(long employeId, boolean creneauLibre) {
+        Integer bit = bits.get(employeId);
+        if (bit != null) {
+            libres.set(bit, creneauLibre);
+        }
+    }
+
+    /**
+     * Retire un employé de la vue ; son numéro de bit reste réservé.
+     *
+     * @param employeId l'identifiant de l'employé
+     */
+    synchronized void retirer(long employeId) {
+        Integer bit = bits.get(employeId);
+        if (bit != null) {
+            effacerMediums(employeId, bit);
+            libres.clear(bit);
+        }
+    }
+
+    /**
+     * Doit être appelé sous le verrou.
+     */
+    private void effacerMediums(long employeId, int bit) {
+        Collection<Long> anciens = mediumsParEmploye.remove(employeId);
+        if (anciens == null) {
+            return;
+        }
+        for (Long mediumId : anciens) {
+            BitSet employes = employesParMedium.get(mediumId);
+            if (employes != null) {
+                employes.clear(bit);
+            }
+        }
+    }
+
+    /**
+     * @param mediumId l'identifiant du médium
+     * @return vrai si au moins un employé sachant l'incarner a un créneau
+     * libre
+     */
+    public synchronized boolean estDisponible(long mediumId) {
+        BitSet employes = employesParMedium.get(mediumId);
+        return employes != null && employes.intersects(libres);
+    }
+
+    /**
+     * @return les identifiants des médiums disponibles
+     */
+    public synchronized Set<Long> obtenirMediumsDisponibles() {
+        Set<Long> disponibles = new TreeSet<>();
+        for (Map.Entry<Long, BitSet> medium : employesParMedium.entrySet()) {
+            if (medium.getValue().intersects(libres)) {
+                disponibles.add(medium.getKey());
+            }
+        }
+        return disponibles;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "VueDisponibilite[employes=" + bits.size() + ", libres=" + libres.cardinality()
+                + ", mediumsDisponibles=" + obtenirMediumsDisponibles() + "]";
+    }
+}
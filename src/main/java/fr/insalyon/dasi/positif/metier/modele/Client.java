@@ -1,32 +1,53 @@
 package fr.insalyon.dasi.positif.metier.modele;
 
-import fr.insalyon.dasi.positif.util.AstroTest;
-import java.io.IOException;
+import fr.insalyon.dasi.positif.util.MoteurAstro;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 import javax.persistence.DiscriminatorValue;
 import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.OneToMany;
+import javax.persistence.Table;
 import javax.persistence.Temporal;
 
 /**
  * La classe représentant un Client. 
  * Super classe : Personne.
+ * <br>Le profil astral est complété après l'inscription : les signes sont
+ * calculés à la création (cf.&nbsp;MoteurAstro), la couleur et l'animal
+ * sont demandés plus tard au Service Web par l'EnrichisseurProfils. Tant
+ * que ce n'est pas fait, le profil est EN_ATTENTE.
  *
  * @author Liam BETTE, Alexis BOSIO, Thibault REMY
  */
 @Entity
 @DiscriminatorValue("C")
+@Table(indexes = @Index(name = "IDX_CLIENT_PROFIL", columnList = "ETATPROFIL, PROCHAINENRICHISSEMENT"))
 public class Client extends Personne implements Serializable {
 
     private static final long serialVersionUID = 1L;
+
+    /**
+     * État du profil astral d'un Client.
+     */
+    public enum EtatProfil {
+        /**
+         * Couleur et animal pas encore obtenus
+         */
+        EN_ATTENTE,
+        /**
+         * Profil complet
+         */
+        COMPLET
+    }
+
     @Id
     @GeneratedValue(strategy = GenerationType.AUTO)
     private Long id;
@@ -67,10 +88,25 @@ public class Client extends Personne implements Serializable {
      */
     private String animal;
 
+    @Enumerated(EnumType.STRING)
+    private EtatProfil etatProfil;
+
+    /**
+     * Instant à partir duquel le profil peut être (ré)demandé au Service Web ;
+     * repoussé pendant qu'un enrichisseur le tient réservé
+     */
+    @Temporal(javax.persistence.TemporalType.TIMESTAMP)
+    private Date prochainEnrichissement;
+
+    /**
+     * Nombre d'essais d'obtention du profil
+     */
+    private int essaisProfil;
+
     /**
      * Liste des conversations du client
      */
-    @OneToMany
+    @OneToMany(mappedBy = "client")
     protected List<Conversation> conversations;
 
     /**
@@ -100,18 +136,66 @@ public class Client extends Personne implements Serializable {
         this.numeroTel = numeroTel;
         this.conversations = new ArrayList<>();
 
-        
-        AstroTest astroApi = new AstroTest();
-        try {
-            List<String> profil = astroApi.getProfil(prenom, this.dateNaissance);
-            this.signeZodiaque = profil.get(0);
-            this.signeChinois = profil.get(1);
-            this.couleur = profil.get(2);
-            this.animal = profil.get(3);
-        } catch (IOException ex) {
-            Logger.getLogger(Client.class.getName()).log(Level.SEVERE, null, ex);
+        // Signes calculés localement ; couleur et animal demandés plus tard
+        // au Service Web (cf. EnrichisseurProfils)
+        if (dateNaissance != null) {
+            this.signeZodiaque = MoteurAstro.signeZodiaque(dateNaissance);
+            this.signeChinois = MoteurAstro.signeChinois(dateNaissance);
         }
+        this.etatProfil = EtatProfil.EN_ATTENTE;
+        this.prochainEnrichissement = new Date();
+
+    }
+
+    /**
+     * Réserve le profil pour un essai d'enrichissement : il ne sera pas
+     * proposé à un autre essai avant la fin de la réservation.
+     *
+     * @param finReservation la fin de la réservation
+     */
+    public void reserverEnrichissement(Date finReservation) {
+        this.essaisProfil++;
+        this.prochainEnrichissement = finReservation;
+    }
+
+    /**
+     * Complète le profil astral.
+     *
+     * @param couleur la couleur porte-bonheur
+     * @param animal l'animal totem
+     */
+    public void completerProfil(String couleur, String animal) {
+        this.couleur = couleur;
+        this.animal = animal;
+        this.etatProfil = EtatProfil.COMPLET;
+        this.prochainEnrichissement = null;
+    }
+
+    /**
+     * Enregistre l'échec d'un essai d'enrichissement.
+     *
+     * @param prochainEssai l'instant du prochain essai
+     */
+    public void echouerEnrichissement(Date prochainEssai) {
+        this.prochainEnrichissement = prochainEssai;
+    }
+
+    /**
+     * Rend l'essai réservé par reserverEnrichissement() sans l'avoir fait :
+     * il ne compte pas parmi les essais du profil.
+     *
+     * @param prochainEssai l'instant du prochain essai
+     */
+    public void rendreEnrichissement(Date prochainEssai) {
+        this.essaisProfil--;
+        this.prochainEnrichissement = prochainEssai;
+    }
 
+    /**
+     * @return vrai tant que la couleur et l'animal ne sont pas obtenus
+     */
+    public boolean isProfilEnAttente() {
+        return etatProfil == EtatProfil.EN_ATTENTE;
     }
 
     /*
@@ -175,6 +259,18 @@ public class Client extends Personne implements Serializable {
     public void setSigneZodiaque(String signeZodiaque) {
         this.signeZodiaque = signeZodiaque;
     }
+
+    public EtatProfil getEtatProfil() {
+        return etatProfil;
+    }
+
+    public Date getProchainEnrichissement() {
+        return prochainEnrichissement;
+    }
+
+    public int getEssaisProfil() {
+        return essaisProfil;
+    }
     
     public void addConversation (Conversation conversation){
         this.conversations.add(conversation); 
@@ -0,0 +1,149 @@
+package fr.insalyon.dasi.positif.metier.modele;
+
+import java.io.Serializable;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import org.eclipse.persistence.annotations.Cache;
+import org.eclipse.persistence.config.CacheIsolationType;
+
+/**
+ * Classe représentant un compteur de voyances, tenu à jour à chaque demande
+ * et à chaque fin de voyance. Il y a trois sortes de compteurs :
+ * <ul>
+ * <li>par Medium (clé "M12", employeId vide) ;</li>
+ * <li>par Employé (clé "E3", mediumId vide) ;</li>
+ * <li>par couple Medium/Employé (clé "M12-E3").</li>
+ * </ul>
+ * Les compteurs sont modifiés par des requêtes de mise à jour en masse : ils
+ * ne sont pas conservés dans le cache partagé. L'index sur l'Employé sert au
+ * choix de l'Employé le moins chargé (cf.&nbsp;EmployeDAO).
+ *
+ * @author Liam BETTE, Alexis BOSIO, Thibault REMY
+ */
+@Entity
+@Cache(isolation = CacheIsolationType.ISOLATED)
+@Table(indexes = @Index(name = "IDX_COMPTEUR_EMPLOYE", columnList = "EMPLOYEID, MEDIUMID"))
+public class CompteurVoyances implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * La clé du compteur (cf.&nbsp;cleMedium(), cleEmploye(), clePaire())
+     */
+    @Id
+    private String cle;
+
+    /**
+     * L'identifiant du Medium compté (vide pour un compteur par Employé)
+     */
+    private Long mediumId;
+
+    /**
+     * L'identifiant de l'Employé compté (vide pour un compteur par Medium)
+     */
+    private Long employeId;
+
+    /**
+     * Le nombre total de voyances demandées
+     */
+    private long nombre;
+
+    /**
+     * Le nombre de voyances demandées et pas encore terminées
+     */
+    private long enCours;
+
+    /**
+     * Constructeur par défaut
+     */
+    public CompteurVoyances() {
+    }
+
+    /**
+     * Constructeur d'un compteur à zéro
+     *
+     * @param mediumId l'identifiant du Medium (null pour un compteur par
+     * Employé)
+     * @param employeId l'identifiant de l'Employé (null pour un compteur par
+     * Medium)
+     */
+    public CompteurVoyances(Long mediumId, Long employeId) {
+        this.cle = cle(mediumId, employeId);
+        this.mediumId = mediumId;
+        this.employeId = employeId;
+    }
+
+    /**
+     * @param mediumId l'identifiant du Medium, ou null
+     * @param employeId l'identifiant de l'Employé, ou null
+     * @return la clé du compteur correspondant
+     */
+    public static String cle(Long mediumId, Long employeId) {
+        if (employeId == null) {
+            return cleMedium(mediumId);
+        }
+        if (mediumId == null) {
+            return cleEmploye(employeId);
+        }
+        return clePaire(mediumId, employeId);
+    }
+
+    public static String cleMedium(long mediumId) {
+        return "M" + mediumId;
+    }
+
+    public static String cleEmploye(long employeId) {
+        return "E" + employeId;
+    }
+
+    public static String clePaire(long mediumId, long employeId) {
+        return "M" + mediumId + "-E" + employeId;
+    }
+
+//******** GETTERS ET SETTERS *************
+    public String getCle() {
+        return cle;
+    }
+
+    public Long getMediumId() {
+        return mediumId;
+    }
+
+    public Long getEmployeId() {
+        return employeId;
+    }
+
+    public long getNombre() {
+        return nombre;
+    }
+
+    public void ajouter(long nombre, long enCours) {
+        this.nombre += nombre;
+        this.enCours += enCours;
+    }
+
+    public long getEnCours() {
+        return enCours;
+    }
+
+    @Override
+    public int hashCode() {
+        return cle != null ? cle.hashCode() : 0;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (!(object instanceof CompteurVoyances)) {
+            return false;
+        }
+        CompteurVoyances other = (CompteurVoyances) object;
+        return cle == null ? other.cle == null : cle.equals(other.cle);
+    }
+
+    @Override
+    public String toString() {
+        return "Compteur " + cle + " : " + nombre + " voyances dont " + enCours + " en cours";
+    }
+}
@@ -3,17 +3,37 @@ package fr.insalyon.dasi.positif.metier.modele;
 import java.io.Serializable;
 import java.util.Date;
 import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
 import javax.persistence.Temporal;
+import javax.persistence.Version;
 
 /**
  * Classe représentant une Conversation.
+ * <br>La Conversation porte les clés étrangères vers son client, son employé
+ * et son médium (colonnes indexées) ; les listes de conversations de ces
+ * entités en sont le côté inverse.
+ * <br>Comme les Personnes, la Conversation porte un numéro de version : deux
+ * modifications concurrentes (acceptation, fin, commentaire) ne s'écrasent
+ * pas.
+ * <br>L'instant de création et le motif de fin permettent de fermer d'office
+ * les conversations abandonnées (cf.&nbsp;NettoyeurVoyances).
  *
  * @author Liam BETTE, Alexis BOSIO, Thibault REMY
  */
 @Entity
+@Table(indexes = {
+    @Index(name = "IDX_CONVERSATION_CLIENT", columnList = "CLIENT_ID"),
+    @Index(name = "IDX_CONVERSATION_EMPLOYE", columnList = "EMPLOYE_ID"),
+    @Index(name = "IDX_CONVERSATION_MEDIUM", columnList = "MEDIUM_ID")
+})
 public class Conversation implements Serializable {
 
     private static final long serialVersionUID = 1L;
@@ -22,6 +42,19 @@ public class Conversation implements Serializable {
     @GeneratedValue(strategy = GenerationType.AUTO)
     private Long id;
 
+    /**
+     * Le numéro de version de la Conversation, incrémenté à chaque
+     * modification.
+     */
+    @Version
+    private long version;
+
+    /**
+     * Instant de la demande de voyance
+     */
+    @Temporal(javax.persistence.TemporalType.TIMESTAMP)
+    private Date creation;
+
     /**
      * Date de début de la conversation
      */
@@ -34,6 +67,13 @@ public class Conversation implements Serializable {
     @Temporal(javax.persistence.TemporalType.DATE)
     private Date fin;
 
+    /**
+     * Motif de la fin de la conversation (vide tant qu'elle n'est pas
+     * terminée)
+     */
+    @Enumerated(EnumType.STRING)
+    private MotifFin motifFin;
+
     /**
      * Commentaire de la conversation
      */
@@ -42,16 +82,22 @@ public class Conversation implements Serializable {
     /**
      * Employé de la conversation.
      */
+    @ManyToOne
+    @JoinColumn(name = "EMPLOYE_ID")
     private Employe employe;
     
     /**
      * Medium de la conversation.
      */
+    @ManyToOne
+    @JoinColumn(name = "MEDIUM_ID")
     private Medium medium;
     
     /**
      * Client de la conversation.
      */
+    @ManyToOne
+    @JoinColumn(name = "CLIENT_ID")
     private Client client;
 
     /**
@@ -72,7 +118,7 @@ public class Conversation implements Serializable {
         this.employe = employe;
         this.medium = medium;
         this.client = client;
-
+        this.creation = new Date();
     }
 
 //******** GETTERS ET SETTERS *************
@@ -84,6 +130,10 @@ public class Conversation implements Serializable {
         this.id = id;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
     public Medium getMedium() {
         return medium;
     }
@@ -102,6 +152,10 @@ public class Conversation implements Serializable {
     
     
 
+    public Date getCreation() {
+        return creation;
+    }
+
     public Date getDebut() {
         return debut;
     }
@@ -115,7 +169,21 @@ public class Conversation implements Serializable {
     }
 
     public void setFin() {
+        terminer(MotifFin.TERMINEE);
+    }
+
+    /**
+     * Termine la conversation (date de fin)
+     *
+     * @param motif le motif de la fin
+     */
+    public void terminer(MotifFin motif) {
         this.fin = new Date();
+        this.motifFin = motif;
+    }
+
+    public MotifFin getMotifFin() {
+        return motifFin;
     }
 
     public Employe getEmploye() {
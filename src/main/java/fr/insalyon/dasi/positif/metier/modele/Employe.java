@@ -3,6 +3,7 @@ package fr.insalyon.dasi.positif.metier.modele;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
+import javax.persistence.Column;
 import javax.persistence.DiscriminatorValue;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
@@ -14,6 +15,9 @@ import javax.persistence.OneToMany;
 /**
  * Classe représentant un employé. 
  * Super classe : Personne.
+ * <br>Un employé mène jusqu'à <code>capacite</code> voyances en parallèle :
+ * chaque voyance occupe un créneau, pris et rendu par une mise à jour
+ * conditionnelle en base (cf.&nbsp;EmployeDAO.occuperCreneau()).
  *
  * @author Liam BETTE, Alexis BOSIO, Thibault REMY
  */
@@ -23,6 +27,10 @@ public class Employe extends Personne implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Nombre de voyances menées en parallèle par un nouvel employé.
+     */
+    public static final int CAPACITE_PAR_DEFAUT = 3;
     
     /**
      * La liste des Mediums que peut incarner l'employé.
@@ -33,14 +41,29 @@ public class Employe extends Personne implements Serializable {
     /**
      * La liste des conversations de l'employé
      */
-    @OneToMany
+    @OneToMany(mappedBy = "employe")
     private List<Conversation> conversations = new ArrayList<Conversation>();
     
     /**
-     * La disponibilité de l'employé.
+     * La disponibilité de l'employé : vrai s'il est en service et peut
+     * recevoir de nouvelles voyances (dans la limite de sa capacité).
      */
     private boolean disponible;
 
+    /**
+     * Le nombre de voyances que l'employé peut mener en parallèle.
+     */
+    private int capacite = CAPACITE_PAR_DEFAUT;
+
+    /**
+     * Le nombre de créneaux occupés, c'est-à-dire de voyances en cours.
+     * <br>Cette colonne n'est jamais écrite depuis l'entité : seules les
+     * mises à jour conditionnelles d'EmployeDAO la modifient, pour qu'une
+     * copie périmée ne puisse pas l'écraser.
+     */
+    @Column(updatable = false)
+    private int occupation;
+
     /**
      * Constructeur par défaut
      */
@@ -72,6 +95,25 @@ public class Employe extends Personne implements Serializable {
         return disponible;
     }
 
+    public int getCapacite() {
+        return capacite;
+    }
+
+    public void setCapacite(int capacite) {
+        this.capacite = capacite;
+    }
+
+    public int getOccupation() {
+        return occupation;
+    }
+
+    /**
+     * @return vrai si l'employé est en service et a au moins un créneau libre
+     */
+    public boolean aUnCreneauLibre() {
+        return disponible && occupation < capacite;
+    }
+
     public List<Medium> getMedium() {
         return mediums;
     }
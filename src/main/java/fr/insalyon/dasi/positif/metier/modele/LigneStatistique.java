@@ -0,0 +1,74 @@
+package fr.insalyon.dasi.positif.metier.modele;
+
+import java.io.Serializable;
+
+/**
+ * Classe représentant une ligne de statistique : le nombre de voyances d'un
+ * Medium ou d'un Employé, identifié par son id (deux employés peuvent porter
+ * le même nom).
+ *
+ * @author Liam BETTE, Alexis BOSIO, Thibault REMY
+ */
+public class LigneStatistique implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * L'identifiant du Medium ou de l'Employé.
+     */
+    private final Long id;
+
+    /**
+     * Le libellé à afficher (nom du Medium, prénom et nom de l'Employé).
+     */
+    private final String libelle;
+
+    /**
+     * Le nombre de voyances.
+     */
+    private final long nombre;
+
+    /**
+     * La part des voyances (entre 0 et 1), renseignée pour les camemberts.
+     */
+    private float part;
+
+    /**
+     * Constructeur (utilisé par les requêtes JPQL SELECT NEW)
+     *
+     * @param id L'identifiant du Medium ou de l'Employé
+     * @param libelle Le libellé à afficher
+     * @param nombre Le nombre de voyances
+     */
+    public LigneStatistique(Long id, String libelle, Long nombre) {
+        this.id = id;
+        this.libelle = libelle;
+        this.nombre = nombre == null ? 0 : nombre;
+    }
+
+//******** GETTERS ET SETTERS *************
+    public Long getId() {
+        return id;
+    }
+
+    public String getLibelle() {
+        return libelle;
+    }
+
+    public long getNombre() {
+        return nombre;
+    }
+
+    public float getPart() {
+        return part;
+    }
+
+    public void setPart(float part) {
+        this.part = part;
+    }
+
+    @Override
+    public String toString() {
+        return libelle + " (#" + id + ") : " + nombre;
+    }
+}
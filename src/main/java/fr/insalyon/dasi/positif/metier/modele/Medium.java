@@ -12,12 +12,18 @@ import javax.persistence.Inheritance;
 import javax.persistence.InheritanceType;
 import javax.persistence.ManyToMany;
 import javax.persistence.OneToMany;
+import org.eclipse.persistence.annotations.Cache;
+import org.eclipse.persistence.annotations.CacheType;
 
 /**
  * Classe représentant un Medium.
+ * <br>Le catalogue des Mediums change rarement : il est conservé dans le cache
+ * partagé (les 200 derniers utilisés en mémoire, relus en base après une
+ * heure).
  * @author Liam BETTE, Alexis BOSIO, Thibault REMY
  */
 @Entity
+@Cache(type = CacheType.SOFT_WEAK, size = 200, expiry = 3600000)
 @Inheritance(strategy=InheritanceType.JOINED)
 @DiscriminatorColumn(name="talent")
 public class Medium implements Serializable {
@@ -36,7 +42,7 @@ public class Medium implements Serializable {
     /**
      * La liste des conversations du Medium
      */
-    @OneToMany
+    @OneToMany(mappedBy = "medium")
     private List<Conversation> conversation = new ArrayList<Conversation>();
     
     /**
@@ -0,0 +1,18 @@
+package fr.insalyon.dasi.positif.metier.modele;
+
+/**
+ * Motif de la fin d'une Conversation.
+ *
+ * @author Liam BETTE, Alexis BOSIO, Thibault REMY
+ */
+public enum MotifFin {
+    /**
+     * Terminée par l'employé (cf.&nbsp;Service.TerminerVoyance())
+     */
+    TERMINEE,
+    /**
+     * Fermée d'office, restée ouverte plus longtemps que la durée maximale
+     * d'une voyance (cf.&nbsp;NettoyeurVoyances)
+     */
+    EXPIREE
+}
@@ -0,0 +1,268 @@
+package fr.insalyon.dasi.positif.metier.modele;
+
+import java.io.Serializable;
+import java.util.Date;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.Version;
+import org.eclipse.persistence.annotations.Cache;
+import org.eclipse.persistence.config.CacheIsolationType;
+
+/**
+ * Classe représentant une Notification (e-mail ou notification sur le
+ * téléphone) à envoyer : la boîte d'envoi.
+ * <br>La Notification est créée dans la transaction qui modifie les données
+ * dont elle informe : elle n'est envoyée que si cette transaction est
+ * validée. Elle est envoyée plus tard, hors de la requête, par le
+ * DistributeurNotifications, qui la réessaie en cas d'échec.
+ * <br>Les Notifications sont relues par lots et modifiées par le seul
+ * distributeur : elles ne sont pas conservées dans le cache partagé. Le
+ * numéro de version empêche deux distributeurs de réserver la même.
+ *
+ * @author Liam BETTE, Alexis BOSIO, Thibault REMY
+ */
+@Entity
+@Cache(isolation = CacheIsolationType.ISOLATED)
+@Table(indexes = @Index(name = "IDX_NOTIFICATION_ENVOI", columnList = "ETAT, PROCHAINESSAI"))
+public class Notification implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Moyen d'envoi d'une Notification.
+     */
+    public enum Canal {
+        /**
+         * E-mail (cf.&nbsp;Message.envoyerMail())
+         */
+        MAIL,
+        /**
+         * Notification sur le téléphone (cf.&nbsp;Message.envoyerNotification())
+         */
+        TELEPHONE
+    }
+
+    /**
+     * État d'une Notification.
+     */
+    public enum Etat {
+        /**
+         * Pas encore envoyée, ou à réessayer
+         */
+        A_ENVOYER,
+        /**
+         * Envoyée
+         */
+        ENVOYEE,
+        /**
+         * Abandonnée après le nombre maximal d'essais
+         */
+        ABANDONNEE
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    private Long id;
+
+    @Version
+    private long version;
+
+    @Enumerated(EnumType.STRING)
+    private Canal canal;
+
+    @Enumerated(EnumType.STRING)
+    private Etat etat;
+
+    /**
+     * L'adresse de l'expéditeur (e-mail seulement)
+     */
+    private String expediteur;
+
+    /**
+     * L'adresse e-mail ou le numéro de téléphone du destinataire
+     */
+    private String destinataire;
+
+    /**
+     * L'objet (e-mail seulement)
+     */
+    private String objet;
+
+    @Column(length = 4000)
+    private String corps;
+
+    @Temporal(javax.persistence.TemporalType.TIMESTAMP)
+    private Date creation;
+
+    /**
+     * Instant à partir duquel la Notification peut être (ré)essayée ; repoussé
+     * pendant qu'un distributeur la tient réservée
+     */
+    @Temporal(javax.persistence.TemporalType.TIMESTAMP)
+    private Date prochainEssai;
+
+    /**
+     * Instant de l'envoi (vide tant qu'elle n'est pas envoyée)
+     */
+    @Temporal(javax.persistence.TemporalType.TIMESTAMP)
+    private Date envoi;
+
+    /**
+     * Nombre d'essais d'envoi
+     */
+    private int essais;
+
+    /**
+     * Motif du dernier échec d'envoi
+     */
+    @Column(length = 1000)
+    private String derniereErreur;
+
+    /**
+     * Constructeur par défaut
+     */
+    public Notification() {
+    }
+
+    private Notification(Canal canal, String expediteur, String destinataire, String objet, String corps) {
+        this.canal = canal;
+        this.etat = Etat.A_ENVOYER;
+        this.expediteur = expediteur;
+        this.destinataire = destinataire;
+        this.objet = objet;
+        this.corps = corps;
+        this.creation = new Date();
+        this.prochainEssai = creation;
+    }
+
+    /**
+     * @param expediteur l'adresse de l'expéditeur
+     * @param destinataire l'adresse du destinataire
+     * @param objet l'objet
+     * @param corps le corps
+     * @return un e-mail à envoyer
+     */
+    public static Notification mail(String expediteur, String destinataire, String objet, String corps) {
+        return new Notification(Canal.MAIL, expediteur, destinataire, objet, corps);
+    }
+
+    /**
+     * @param telephone le numéro de téléphone du destinataire
+     * @param corps le message
+     * @return une notification sur le téléphone à envoyer
+     */
+    public static Notification telephone(String telephone, String corps) {
+        return new Notification(Canal.TELEPHONE, null, telephone, null, corps);
+    }
+
+    /**
+     * Réserve la Notification pour un essai d'envoi : elle ne sera pas
+     * proposée à un autre essai avant la fin de la réservation.
+     *
+     * @param finReservation l'instant de fin de la réservation
+     */
+    public void reserver(Date finReservation) {
+        essais++;
+        prochainEssai = finReservation;
+    }
+
+    /**
+     * Enregistre l'envoi de la Notification.
+     */
+    public void setEnvoyee() {
+        etat = Etat.ENVOYEE;
+        envoi = new Date();
+        prochainEssai = null;
+    }
+
+    /**
+     * Enregistre l'échec d'un essai d'envoi.
+     *
+     * @param erreur le motif de l'échec
+     * @param prochainEssai l'instant du prochain essai, null pour abandonner
+     */
+    public void echouer(String erreur, Date prochainEssai) {
+        derniereErreur = erreur != null && erreur.length() > 1000 ? erreur.substring(0, 1000) : erreur;
+        this.prochainEssai = prochainEssai;
+        if (prochainEssai == null) {
+            etat = Etat.ABANDONNEE;
+        }
+    }
+
+//******** GETTERS ET SETTERS *************
+    public Long getId() {
+        return id;
+    }
+
+    public Canal getCanal() {
+        return canal;
+    }
+
+    public Etat getEtat() {
+        return etat;
+    }
+
+    public String getExpediteur() {
+        return expediteur;
+    }
+
+    public String getDestinataire() {
+        return destinataire;
+    }
+
+    public String getObjet() {
+        return objet;
+    }
+
+    public String getCorps() {
+        return corps;
+    }
+
+    public Date getCreation() {
+        return creation;
+    }
+
+    public Date getProchainEssai() {
+        return prochainEssai;
+    }
+
+    public Date getEnvoi() {
+        return envoi;
+    }
+
+    public int getEssais() {
+        return essais;
+    }
+
+    public String getDerniereErreur() {
+        return derniereErreur;
+    }
+
+    @Override
+    public int hashCode() {
+        return id != null ? id.hashCode() : 0;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (!(object instanceof Notification)) {
+            return false;
+        }
+        Notification other = (Notification) object;
+        return id == null ? other.id == null : id.equals(other.id);
+    }
+
+    @Override
+    public String toString() {
+        return "Notification #" + id + " (" + canal + " à " + destinataire + ") : " + etat
+                + ", " + essais + " essai(s)";
+    }
+}
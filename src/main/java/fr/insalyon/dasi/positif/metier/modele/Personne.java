@@ -9,12 +9,23 @@ import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.Inheritance;
 import javax.persistence.InheritanceType;
+import javax.persistence.Version;
+import org.eclipse.persistence.annotations.Cache;
+import org.eclipse.persistence.annotations.CacheType;
 
 /**
  * Classe représentant une personne.
+ * <br>Les Personnes (Employés et Clients) sont conservées dans le cache
+ * partagé (les 1000 dernières utilisées en mémoire, relues en base après dix
+ * minutes).
+ * <br>Le numéro de version protège les Personnes des modifications
+ * concurrentes : une transaction qui modifie une version périmée échoue
+ * (OptimisticLockException) au lieu d'écraser l'autre modification. C'est ce
+ * qui empêche deux demandes simultanées de réserver le même Employé.
  * @author Liam BETTE, Alexis BOSIO, Thibault REMY
  */
 @Entity
+@Cache(type = CacheType.SOFT_WEAK, size = 1000, expiry = 600000)
 @Inheritance(strategy=InheritanceType.JOINED)
 @DiscriminatorColumn(name="person_type")  // Spécifie s'il s'agit d'un client ou d'un employé
 public class Personne implements Serializable {
@@ -24,6 +35,12 @@ public class Personne implements Serializable {
     @GeneratedValue(strategy = GenerationType.AUTO)
     protected Long id;
     
+    /**
+     * Le numéro de version de la Personne, incrémenté à chaque modification.
+     */
+    @Version
+    private long version;
+    
     /**
      * Le nom de la Personne.
      */
@@ -121,6 +138,10 @@ public class Personne implements Serializable {
     public void setId(Long id) {
         this.id = id;
     }
+
+    public long getVersion() {
+        return version;
+    }
     
     @Override
     public int hashCode() {
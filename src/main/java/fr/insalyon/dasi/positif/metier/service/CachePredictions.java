@@ -0,0 +1,320 @@
+package fr.insalyon.dasi.positif.metier.service;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Cache des prédictions du Service Web Astro : les prédictions ne dépendent
+ * que de la couleur, de l'animal et des trois niveaux (de 1 à 4), et sont
+ * gardées une durée de vie fixe.
+ * <br>Le cache est borné. Une nouvelle prédiction entre dans une petite
+ * fenêtre LRU (1&nbsp;% de la taille) ; quand elle en sort, elle n'entre dans
+ * la partie principale (LRU) qu'à la place d'une prédiction demandée moins
+ * souvent qu'elle (admission TinyLFU). Les fréquences sont estimées par une
+ * esquisse Count-Min, divisées par deux périodiquement pour oublier les
+ * profils passés de mode : une rafale de profils rares ne chasse pas les
+ * profils fréquents.
+ * <br>Toutes les méthodes sont synchronisées : les opérations sont en O(1) et
+ * ne font aucun accès au réseau.
+ *
+ * @author Liam BETTE, Alexis BOSIO, Thibault REMY
+ */
+public class CachePredictions {
+
+    public static final int TAILLE_MAX_PAR_DEFAUT = 10000;
+
+    public static final long DUREE_VIE_PAR_DEFAUT_MINUTES = 60;
+
+    /**
+     * Clé du cache : les paramètres de AstroTest.getPredictions().
+     */
+    static final class Cle {
+
+        final String couleur;
+        final String animal;
+        final int niveaux;
+
+        Cle(String couleur, String animal, int amour, int sante, int travail) {
+            this.couleur = couleur;
+            this.animal = animal;
+            this.niveaux = (amour << 16) | (sante << 8) | travail;
+        }
+
+        @Override
+        public int hashCode() {
+            return (Objects.hashCode(couleur) * 31 + Objects.hashCode(animal)) * 31 + niveaux;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Cle)) {
+                return false;
+            }
+            Cle autre = (Cle) o;
+            return niveaux == autre.niveaux && Objects.equals(couleur, autre.couleur)
+                    && Objects.equals(animal, autre.animal);
+        }
+    }
+
+    private static final class Entree {
+
+        final List<String> predictions;
+        final long expiration;
+
+        Entree(List<String> predictions, long expiration) {
+            this.predictions = predictions;
+            this.expiration = expiration;
+        }
+    }
+
+    /**
+     * Esquisse Count-Min des fréquences de demande : quatre lignes de
+     * compteurs plafonnés à 15, la fréquence estimée étant le plus petit des
+     * quatre compteurs de la clé. Chaque ligne a de quatre à huit compteurs
+     * par prédiction gardée : les collisions ne gonflent pas la fréquence des
+     * profils rares.
+     */
+    static final class Esquisse {
+
+        private static final int LIGNES = 4;
+        private static final int PLAFOND = 15;
+        private static final int[] GRAINES = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+        private final byte[][] compteurs;
+        private final int masque;
+        private final int periodeVieillissement;
+        private int ajouts;
+
+        Esquisse(int tailleMax) {
+            int largeur = Integer.highestOneBit(Math.max(16, tailleMax - 1)) * 8;
+            compteurs = new byte[LIGNES][largeur];
+            masque = largeur - 1;
+            periodeVieillissement = 10 * Math.max(16, tailleMax);
+        }
+
+        private int indice(int hash, int ligne) {
+            int h = (hash ^ GRAINES[ligne]) * GRAINES[(ligne + 1) % LIGNES];
+            return (h ^ (h >>> 16)) & masque;
+        }
+
+        void incrementer(Object cle) {
+            int hash = cle.hashCode();
+            boolean incremente = false;
+            for (int ligne = 0; ligne < LIGNES; ligne++) {
+                int i = indice(hash, ligne);
+                if (compteurs[ligne][i] < PLAFOND) {
+                    compteurs[ligne][i]++;
+                    incremente = true;
+                }
+            }
+            if (incremente && ++ajouts >= periodeVieillissement) {
+                vieillir();
+            }
+        }
+
+        int frequence(Object cle) {
+            int hash = cle.hashCode();
+            int frequence = PLAFOND;
+            for (int ligne = 0; ligne < LIGNES; ligne++) {
+                frequence = Math.min(frequence, compteurs[ligne][indice(hash, ligne)]);
+            }
+            return frequence;
+        }
+
+        private void vieillir() {
+            for (byte[] ligne : compteurs) {
+                for (int i = 0; i < ligne.length; i++) {
+                    ligne[i] >>= 1;
+                }
+            }
+            ajouts /= 2;
+        }
+    }
+
+    private final int tailleFenetre;
+
+    private final int taillePrincipale;
+
+    private final long dureeVieMs;
+
+    private final LinkedHashMap<Cle, Entree> fenetre = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LinkedHashMap<Cle, Entree> principale = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final Esquisse esquisse;
+
+    private long succes;
+
+    private long echecs;
+
+    private long evictions;
+
+    private long expirations;
+
+    /**
+     * @param tailleMax le nombre maximal de prédictions gardées
+     * @param dureeVieMs la durée de vie d'une prédiction
+     */
+    public CachePredictions(int tailleMax, long dureeVieMs) {
+        this.tailleFenetre = Math.max(1, tailleMax / 100);
+        this.taillePrincipale = Math.max(0, tailleMax - tailleFenetre);
+        this.dureeVieMs = dureeVieMs;
+        this.esquisse = new Esquisse(tailleMax);
+    }
+
+    /**
+     * Cherche des prédictions ; la demande est comptée dans la fréquence du
+     * profil, qu'elle soit servie ou non.
+     *
+     * @param couleur la couleur porte-bonheur
+     * @param animal l'animal totem
+     * @param amour le niveau en amour
+     * @param sante le niveau en santé
+     * @param travail le niveau en travail
+     * @return les prédictions, null si elles ne sont pas dans le cache
+     */
+    public synchronized List<String> obtenir(String couleur, String animal, int amour, int sante, int travail) {
+        Cle cle = new Cle(couleur, animal, amour, sante, travail);
+        esquisse.incrementer(cle);
+        Entree entree = lire(cle);
+        if (entree == null) {
+            echecs++;
+            return null;
+        }
+        succes++;
+        return entree.predictions;
+    }
+
+    /**
+     * @return vrai si les prédictions sont dans le cache (sans compter de
+     * demande)
+     */
+    public synchronized boolean contient(String couleur, String animal, int amour, int sante, int travail) {
+        return lire(new Cle(couleur, animal, amour, sante, travail)) != null;
+    }
+
+    /**
+     * Garde des prédictions dans le cache.
+     *
+     * @param couleur la couleur porte-bonheur
+     * @param animal l'animal totem
+     * @param amour le niveau en amour
+     * @param sante le niveau en santé
+     * @param travail le niveau en travail
+     * @param predictions les prédictions
+     */
+    public synchronized void mettre(String couleur, String animal, int amour, int sante, int travail,
+            List<String> predictions) {
+        Cle cle = new Cle(couleur, animal, amour, sante, travail);
+        Entree entree = new Entree(Collections.unmodifiableList(predictions), System.currentTimeMillis() + dureeVieMs);
+        if (principale.containsKey(cle)) {
+            principale.put(cle, entree);
+            return;
+        }
+        fenetre.put(cle, entree);
+        if (fenetre.size() <= tailleFenetre) {
+            return;
+        }
+        Iterator<Map.Entry<Cle, Entree>> it = fenetre.entrySet().iterator();
+        Map.Entry<Cle, Entree> candidat = it.next();
+        it.remove();
+        admettre(candidat.getKey(), candidat.getValue());
+    }
+
+    /**
+     * Vide le cache (les fréquences sont conservées).
+     */
+    public synchronized void vider() {
+        fenetre.clear();
+        principale.clear();
+    }
+
+    /**
+     * Le candidat sorti de la fenêtre entre dans la partie principale si elle
+     * a de la place, ou à la place de la prédiction la moins récemment
+     * demandée s'il est demandé plus souvent qu'elle.
+     */
+    private void admettre(Cle cle, Entree entree) {
+        if (principale.size() < taillePrincipale) {
+            principale.put(cle, entree);
+            return;
+        }
+        evictions++;
+        if (taillePrincipale == 0) {
+            return;
+        }
+        Iterator<Map.Entry<Cle, Entree>> it = principale.entrySet().iterator();
+        Map.Entry<Cle, Entree> victime = it.next();
+        if (esquisse.frequence(cle) > esquisse.frequence(victime.getKey())) {
+            it.remove();
+            principale.put(cle, entree);
+        }
+    }
+
+    /**
+     * Doit être appelé sous le verrou.
+     */
+    private Entree lire(Cle cle) {
+        LinkedHashMap<Cle, Entree> partie = fenetre;
+        Entree entree = fenetre.get(cle);
+        if (entree == null) {
+            partie = principale;
+            entree = principale.get(cle);
+        }
+        if (entree != null && entree.expiration <= System.currentTimeMillis()) {
+            partie.remove(cle);
+            expirations++;
+            return null;
+        }
+        return entree;
+    }
+
+    /**
+     * @return le nombre de prédictions gardées
+     */
+    public synchronized int getTaille() {
+        return fenetre.size() + principale.size();
+    }
+
+    public synchronized long getSucces() {
+        return succes;
+    }
+
+    public synchronized long getEchecs() {
+        return echecs;
+    }
+
+    /**
+     * @return le nombre de prédictions écartées faute de place
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return le nombre de prédictions écartées à la fin de leur durée de vie
+     */
+    public synchronized long getExpirations() {
+        return expirations;
+    }
+
+    /**
+     * @return la proportion de demandes servies par le cache (0 si aucune
+     * demande)
+     */
+    public synchronized double getTauxSucces() {
+        long total = succes + echecs;
+        return total == 0 ? 0 : (double) succes / total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CachePredictions[taille=" + getTaille() + ", succes=" + succes + ", echecs=" + echecs
+                + ", evictions=" + evictions + ", expirations=" + expirations
+                + ", taux=" + String.format("%.2f", getTauxSucces()) + "]";
+    }
+}
@@ -0,0 +1,145 @@
+package fr.insalyon.dasi.positif.metier.service;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import fr.insalyon.dasi.positif.metier.modele.Medium;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Instantané immuable du catalogue des médiums, avec leurs représentations
+ * JSON déjà encodées en UTF-8 : la liste et les fiches des médiums sont
+ * écrites telles quelles, sans accès à la base ni construction d'arbre JSON.
+ * <br>Le catalogue ne change presque jamais : Service en garde un instantané,
+ * chargé au démarrage et remplacé d'un bloc quand un médium change
+ * (cf.&nbsp;Service.invaliderCatalogue()).
+ *
+ * @author Liam BETTE, Alexis BOSIO, Thibault REMY
+ */
+public final class CatalogueMediums {
+
+    /**
+     * Représentations JSON d'un médium.
+     */
+    public static final class Fiche {
+
+        private final long id;
+
+        private final String nom;
+
+        private final byte[] resume;
+
+        private final byte[] resumeDisponible;
+
+        private final byte[] resumeOccupe;
+
+        private final byte[] detail;
+
+        Fiche(Medium medium, Gson gson) {
+            this.id = medium.getId();
+            this.nom = medium.getNom();
+            JsonObject json = new JsonObject();
+            json.addProperty("nom", medium.getNom());
+            json.addProperty("id", medium.getId());
+            this.resume = encoder(gson, json);
+            json.addProperty("disponible", true);
+            this.resumeDisponible = encoder(gson, json);
+            json.addProperty("disponible", false);
+            this.resumeOccupe = encoder(gson, json);
+
+            JsonObject fiche = new JsonObject();
+            fiche.addProperty("nom", medium.getNom());
+            fiche.addProperty("desc", medium.getDescriptif());
+            fiche.addProperty("id", medium.getId());
+            JsonObject conteneur = new JsonObject();
+            conteneur.add("Medium", fiche);
+            this.detail = encoder(gson, conteneur);
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getNom() {
+            return nom;
+        }
+
+        /**
+         * @param disponible la disponibilité du médium, null si elle est
+         * inconnue
+         * @return l'élément de la liste des médiums (nom, id et éventuellement
+         * disponible), en JSON UTF-8 ; le tableau ne doit pas être modifié
+         */
+        public byte[] getResume(Boolean disponible) {
+            if (disponible == null) {
+                return resume;
+            }
+            return disponible ? resumeDisponible : resumeOccupe;
+        }
+
+        /**
+         * @return la réponse de caractMedium ({"Medium": {nom, desc, id}}), en
+         * JSON UTF-8 ; le tableau ne doit pas être modifié
+         */
+        public byte[] getDetail() {
+            return detail;
+        }
+    }
+
+    private static byte[] encoder(Gson gson, JsonObject json) {
+        return gson.toJson(json).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private final List<Fiche> fiches;
+
+    private final Map<Long, Fiche> fichesParId;
+
+    private final long creation = System.currentTimeMillis();
+
+    /**
+     * @param mediums les médiums du catalogue, dans l'ordre d'affichage
+     */
+    public CatalogueMediums(List<Medium> mediums) {
+        Gson gson = new Gson();
+        List<Fiche> liste = new ArrayList<>();
+        Map<Long, Fiche> parId = new HashMap<>();
+        for (Medium medium : mediums) {
+            Fiche fiche = new Fiche(medium, gson);
+            liste.add(fiche);
+            parId.put(fiche.getId(), fiche);
+        }
+        this.fiches = Collections.unmodifiableList(liste);
+        this.fichesParId = Collections.unmodifiableMap(parId);
+    }
+
+    /**
+     * @return les fiches des médiums, dans l'ordre d'affichage
+     */
+    public List<Fiche> getFiches() {
+        return fiches;
+    }
+
+    /**
+     * @param id l'identifiant du médium
+     * @return la fiche du médium, null s'il n'est pas au catalogue
+     */
+    public Fiche obtenir(long id) {
+        return fichesParId.get(id);
+    }
+
+    /**
+     * @return l'instant de construction de l'instantané
+     */
+    public long getCreation() {
+        return creation;
+    }
+
+    @Override
+    public String toString() {
+        return "CatalogueMediums[" + fiches.size() + " médiums]";
+    }
+}
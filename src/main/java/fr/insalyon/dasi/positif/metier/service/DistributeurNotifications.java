@@ -0,0 +1,299 @@
+package fr.insalyon.dasi.positif.metier.service;
+
+import fr.insalyon.dasi.positif.metier.modele.Notification;
+import fr.insalyon.dasi.positif.util.Message;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tâche de fond qui envoie les Notifications de la boîte d'envoi : les
+ * requêtes ne font que les y placer, dans leur transaction, et n'attendent
+ * plus leur envoi.
+ * <br>Un Thread releveur réserve les notifications à envoyer par lots
+ * (cf.&nbsp;Service.reserverNotifications()) et confie chaque lot à un
+ * livreur ; il ne réserve pas plus de lots qu'il n'y a de livreurs libres.
+ * Chaque livreur envoie son lot puis en enregistre le résultat en une seule
+ * transaction. Une notification dont l'envoi échoue est réessayée après un
+ * délai doublé à chaque essai, puis abandonnée après ESSAIS_MAX essais.
+ * <br>Le releveur passe périodiquement, et aussitôt qu'une transaction a
+ * placé des notifications (cf.&nbsp;signaler()). Une notification réservée
+ * par un distributeur arrêté avant d'avoir enregistré son envoi est
+ * réessayée à la fin de sa réservation : une notification peut ainsi être
+ * envoyée deux fois, jamais perdue.
+ *
+ * @author Liam BETTE, Alexis BOSIO, Thibault REMY
+ */
+public class DistributeurNotifications {
+
+    public static final int NOMBRE_LIVREURS_PAR_DEFAUT = 2;
+
+    public static final long PERIODE_PAR_DEFAUT_SECONDES = 10;
+
+    /**
+     * Nombre maximal de notifications par lot
+     */
+    public static final int TAILLE_LOT = 20;
+
+    /**
+     * Nombre maximal d'essais d'envoi d'une notification
+     */
+    public static final int ESSAIS_MAX = 5;
+
+    /**
+     * Durée de la réservation d'un lot par un livreur
+     */
+    static final long RESERVATION_MS = 60 * 1000;
+
+    /**
+     * Délai avant le deuxième essai, doublé à chaque nouvel essai
+     */
+    static final long DELAI_INITIAL_REESSAI_MS = 10 * 1000;
+
+    static final long DELAI_MAX_REESSAI_MS = 10 * 60 * 1000;
+
+    private static final Logger LOGGER = Logger.getLogger(DistributeurNotifications.class.getName());
+
+    private final int nombreLivreurs;
+
+    private final long periodeMs;
+
+    private volatile ScheduledExecutorService releveur;
+
+    private ExecutorService livreurs;
+
+    private final Semaphore livreursLibres;
+
+    private final AtomicBoolean releveDemandee = new AtomicBoolean();
+
+    private final AtomicInteger lotsEnCours = new AtomicInteger();
+
+    private final AtomicLong lots = new AtomicLong();
+
+    private final AtomicLong envoyees = new AtomicLong();
+
+    private final AtomicLong echecs = new AtomicLong();
+
+    private final AtomicLong abandonnees = new AtomicLong();
+
+    /**
+     * @param nombreLivreurs le nombre de Threads d'envoi
+     * @param periodeMs l'intervalle entre deux passages périodiques du
+     * releveur
+     */
+    public DistributeurNotifications(int nombreLivreurs, long periodeMs) {
+        this.nombreLivreurs = nombreLivreurs;
+        this.periodeMs = periodeMs;
+        this.livreursLibres = new Semaphore(nombreLivreurs);
+    }
+
+    /**
+     * @param essais le nombre d'essais déjà faits
+     * @return le délai avant le prochain essai
+     */
+    static long delaiReessai(int essais) {
+        return Math.min(DELAI_MAX_REESSAI_MS, DELAI_INITIAL_REESSAI_MS << Math.min(20, Math.max(0, essais - 1)));
+    }
+
+    /**
+     * Démarre le releveur et les livreurs ; le premier passage est immédiat
+     * (notifications laissées par l'exécution précédente).
+     */
+    public synchronized void demarrer() {
+        if (releveur != null) {
+            return;
+        }
+        AtomicInteger numero = new AtomicInteger();
+        livreurs = Executors.newFixedThreadPool(nombreLivreurs, tache -> {
+            Thread thread = new Thread(tache, "LivreurNotifications-" + numero.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        ScheduledExecutorService planificateur = Executors.newSingleThreadScheduledExecutor(tache -> {
+            Thread thread = new Thread(tache, "DistributeurNotifications");
+            thread.setDaemon(true);
+            return thread;
+        });
+        planificateur.scheduleWithFixedDelay(this::passer, 0, periodeMs, TimeUnit.MILLISECONDS);
+        releveur = planificateur;
+    }
+
+    /**
+     * Arrête le releveur et attend que les livreurs aient enregistré les lots
+     * en cours. Les notifications restantes seront envoyées au prochain
+     * démarrage.
+     */
+    public synchronized void arreter() {
+        if (releveur == null) {
+            return;
+        }
+        releveur.shutdown();
+        try {
+            releveur.awaitTermination(RESERVATION_MS, TimeUnit.MILLISECONDS);
+            livreurs.shutdown();
+            livreurs.awaitTermination(RESERVATION_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        releveur = null;
+        livreurs = null;
+    }
+
+    /**
+     * Demande un passage immédiat du releveur : des notifications viennent
+     * d'être placées dans la boîte d'envoi. Plusieurs demandes rapprochées
+     * ne font qu'un passage.
+     */
+    public void signaler() {
+        ScheduledExecutorService planificateur = releveur;
+        if (planificateur == null || !releveDemandee.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            planificateur.execute(() -> {
+                releveDemandee.set(false);
+                passer();
+            });
+        } catch (RejectedExecutionException ex) {
+            // Distributeur en cours d'arrêt
+            releveDemandee.set(false);
+        }
+    }
+
+    /**
+     * Réserve des lots de notifications à envoyer, tant qu'un livreur est
+     * libre et que les lots sont pleins, et les confie aux livreurs.
+     *
+     * @return le nombre de notifications réservées
+     */
+    int relever() {
+        int reservees = 0;
+        while (livreursLibres.tryAcquire()) {
+            List<Notification> lot;
+            try {
+                lot = Service.reserverNotifications(TAILLE_LOT, RESERVATION_MS);
+            } catch (RuntimeException ex) {
+                livreursLibres.release();
+                throw ex;
+            }
+            if (lot.isEmpty()) {
+                livreursLibres.release();
+                break;
+            }
+            reservees += lot.size();
+            lots.incrementAndGet();
+            lotsEnCours.incrementAndGet();
+            try {
+                livreurs.execute(() -> livrer(lot));
+            } catch (RejectedExecutionException ex) {
+                // Distributeur en cours d'arrêt : le lot sera réessayé à la
+                // fin de sa réservation
+                lotsEnCours.decrementAndGet();
+                livreursLibres.release();
+                break;
+            }
+            if (lot.size() < TAILLE_LOT) {
+                break;
+            }
+        }
+        return reservees;
+    }
+
+    /**
+     * Envoie un lot et en enregistre le résultat. Exécuté par un livreur.
+     */
+    private void livrer(List<Notification> lot) {
+        try {
+            List<Long> envoi = new ArrayList<>();
+            Map<Long, String> echec = new HashMap<>();
+            for (Notification n : lot) {
+                try {
+                    if (n.getCanal() == Notification.Canal.MAIL) {
+                        Message.envoyerMail(n.getExpediteur(), n.getDestinataire(), n.getObjet(), n.getCorps());
+                    } else {
+                        Message.envoyerNotification(n.getDestinataire(), n.getCorps());
+                    }
+                    envoi.add(n.getId());
+                } catch (RuntimeException ex) {
+                    echec.put(n.getId(), ex.toString());
+                }
+            }
+            abandonnees.addAndGet(Service.enregistrerEnvois(envoi, echec));
+            envoyees.addAndGet(envoi.size());
+            echecs.addAndGet(echec.size());
+        } catch (RuntimeException ex) {
+            LOGGER.log(Level.WARNING, "Échec de l'enregistrement d'un lot de notifications", ex);
+        } finally {
+            lotsEnCours.decrementAndGet();
+            livreursLibres.release();
+        }
+        if (lot.size() == TAILLE_LOT) {
+            // D'autres notifications attendent sans doute
+            signaler();
+        }
+    }
+
+    /**
+     * Passage du releveur : une exception arrêterait les passages suivants.
+     */
+    private void passer() {
+        try {
+            relever();
+        } catch (RuntimeException ex) {
+            LOGGER.log(Level.WARNING, "Échec de la relève des notifications", ex);
+        }
+    }
+
+    /**
+     * @return le nombre de lots réservés depuis le démarrage
+     */
+    public long getLots() {
+        return lots.get();
+    }
+
+    /**
+     * @return le nombre de lots en cours d'envoi
+     */
+    public int getLotsEnCours() {
+        return lotsEnCours.get();
+    }
+
+    /**
+     * @return le nombre de notifications envoyées depuis le démarrage
+     */
+    public long getEnvoyees() {
+        return envoyees.get();
+    }
+
+    /**
+     * @return le nombre d'essais d'envoi échoués depuis le démarrage
+     */
+    public long getEchecs() {
+        return echecs.get();
+    }
+
+    /**
+     * @return le nombre de notifications abandonnées depuis le démarrage
+     */
+    public long getAbandonnees() {
+        return abandonnees.get();
+    }
+
+    @Override
+    public String toString() {
+        return "DistributeurNotifications[livreurs=" + nombreLivreurs + ", lots=" + lots
+                + ", envoyees=" + envoyees + ", echecs=" + echecs + ", abandonnees=" + abandonnees + "]";
+    }
+}
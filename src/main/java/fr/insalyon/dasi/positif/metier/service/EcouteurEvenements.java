@@ -0,0 +1,17 @@
+package fr.insalyon.dasi.positif.metier.service;
+
+/**
+ * Reçoit les événements publiés par Service (cf.&nbsp;Service.ajouterEcouteur()).
+ * <br>recevoir() est appelé par le Thread du Service, après la transaction :
+ * il doit rendre la main tout de suite et confier tout envoi lent à un
+ * autre Thread.
+ *
+ * @author Liam BETTE, Alexis BOSIO, Thibault REMY
+ */
+public interface EcouteurEvenements {
+
+    /**
+     * @param evenement l'événement publié
+     */
+    void recevoir(EvenementVoyance evenement);
+}
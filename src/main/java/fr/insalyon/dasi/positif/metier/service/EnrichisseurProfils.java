@@ -0,0 +1,320 @@
+package fr.insalyon.dasi.positif.metier.service;
+
+import fr.insalyon.dasi.positif.metier.modele.Client;
+import fr.insalyon.dasi.positif.util.AstroTest;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tâche de fond qui complète le profil astral des nouveaux clients :
+ * l'inscription enregistre le client aussitôt, profil EN_ATTENTE, et
+ * n'attend plus le Service Web Astro.
+ * <br>Un Thread releveur réserve les profils en attente par lots
+ * (cf.&nbsp;Service.reserverProfils()) et confie chaque lot à un
+ * enrichisseur ; il ne réserve pas plus de lots qu'il n'y a d'enrichisseurs
+ * libres, ce qui borne le nombre d'appels simultanés au Service Web.
+ * Chaque enrichisseur demande la couleur et l'animal de chaque client du lot
+ * puis enregistre les résultats en une seule transaction. Un profil dont
+ * l'appel échoue est réessayé après un délai doublé à chaque essai ; après
+ * ESSAIS_MAX essais, la couleur et l'animal sont dérivés localement
+ * (cf.&nbsp;MoteurAstro).
+ * <br>Le releveur passe périodiquement, et aussitôt qu'un client s'est
+ * inscrit (cf.&nbsp;signaler()). Un profil réservé par un enrichisseur
+ * arrêté est réessayé à la fin de sa réservation.
+ *
+ * @author Liam BETTE, Alexis BOSIO, Thibault REMY
+ */
+public class EnrichisseurProfils {
+
+    public static final int NOMBRE_ENRICHISSEURS_PAR_DEFAUT = 2;
+
+    public static final long PERIODE_PAR_DEFAUT_SECONDES = 30;
+
+    /**
+     * Nombre maximal de profils par lot
+     */
+    public static final int TAILLE_LOT = 10;
+
+    /**
+     * Nombre maximal d'appels au Service Web pour un profil
+     */
+    public static final int ESSAIS_MAX = 5;
+
+    /**
+     * Délai de lecture d'un appel au Service Web : plus long qu'à
+     * l'inscription, personne n'attend la réponse
+     */
+    static final int DELAI_LECTURE_MS = 10 * 1000;
+
+    /**
+     * Durée de la réservation d'un lot par un enrichisseur : de quoi faire
+     * tous les appels du lot
+     */
+    static final long RESERVATION_MS = TAILLE_LOT * DELAI_LECTURE_MS + 60 * 1000;
+
+    /**
+     * Délai avant le deuxième essai, doublé à chaque nouvel essai
+     */
+    static final long DELAI_INITIAL_REESSAI_MS = 30 * 1000;
+
+    static final long DELAI_MAX_REESSAI_MS = 10 * 60 * 1000;
+
+    private static final Logger LOGGER = Logger.getLogger(EnrichisseurProfils.class.getName());
+
+    private final int nombreEnrichisseurs;
+
+    private final long periodeMs;
+
+    private volatile ScheduledExecutorService releveur;
+
+    private ExecutorService enrichisseurs;
+
+    private final Semaphore enrichisseursLibres;
+
+    private final AtomicBoolean releveDemandee = new AtomicBoolean();
+
+    private final AtomicInteger lotsEnCours = new AtomicInteger();
+
+    private final AtomicLong lots = new AtomicLong();
+
+    private final AtomicLong completes = new AtomicLong();
+
+    private final AtomicLong echecs = new AtomicLong();
+
+    private final AtomicLong derives = new AtomicLong();
+
+    /**
+     * @param nombreEnrichisseurs le nombre de Threads d'appel au Service Web
+     * @param periodeMs l'intervalle entre deux passages périodiques du
+     * releveur
+     */
+    public EnrichisseurProfils(int nombreEnrichisseurs, long periodeMs) {
+        this.nombreEnrichisseurs = nombreEnrichisseurs;
+        this.periodeMs = periodeMs;
+        this.enrichisseursLibres = new Semaphore(nombreEnrichisseurs);
+    }
+
+    /**
+     * @param essais le nombre d'essais déjà faits
+     * @return le délai avant le prochain essai
+     */
+    static long delaiReessai(int essais) {
+        return Math.min(DELAI_MAX_REESSAI_MS, DELAI_INITIAL_REESSAI_MS << Math.min(20, Math.max(0, essais - 1)));
+    }
+
+    /**
+     * Démarre le releveur et les enrichisseurs ; le premier passage est
+     * immédiat (profils laissés en attente par l'exécution précédente).
+     */
+    public synchronized void demarrer() {
+        if (releveur != null) {
+            return;
+        }
+        AtomicInteger numero = new AtomicInteger();
+        enrichisseurs = Executors.newFixedThreadPool(nombreEnrichisseurs, tache -> {
+            Thread thread = new Thread(tache, "EnrichisseurProfils-" + numero.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        ScheduledExecutorService planificateur = Executors.newSingleThreadScheduledExecutor(tache -> {
+            Thread thread = new Thread(tache, "ReleveurProfils");
+            thread.setDaemon(true);
+            return thread;
+        });
+        planificateur.scheduleWithFixedDelay(this::passer, 0, periodeMs, TimeUnit.MILLISECONDS);
+        releveur = planificateur;
+    }
+
+    /**
+     * Arrête le releveur et attend que les enrichisseurs aient enregistré les
+     * lots en cours. Les profils restants seront complétés au prochain
+     * démarrage.
+     */
+    public synchronized void arreter() {
+        if (releveur == null) {
+            return;
+        }
+        releveur.shutdown();
+        try {
+            releveur.awaitTermination(RESERVATION_MS, TimeUnit.MILLISECONDS);
+            enrichisseurs.shutdown();
+            enrichisseurs.awaitTermination(RESERVATION_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        releveur = null;
+        enrichisseurs = null;
+    }
+
+    /**
+     * Demande un passage immédiat du releveur : un client vient de s'inscrire.
+     * Plusieurs demandes rapprochées ne font qu'un passage.
+     */
+    public void signaler() {
+        ScheduledExecutorService planificateur = releveur;
+        if (planificateur == null || !releveDemandee.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            planificateur.execute(() -> {
+                releveDemandee.set(false);
+                passer();
+            });
+        } catch (RejectedExecutionException ex) {
+            // Enrichisseur en cours d'arrêt
+            releveDemandee.set(false);
+        }
+    }
+
+    /**
+     * Réserve des lots de profils en attente, tant qu'un enrichisseur est
+     * libre et que les lots sont pleins, et les confie aux enrichisseurs.
+     *
+     * @return le nombre de profils réservés
+     */
+    int relever() {
+        int reserves = 0;
+        while (enrichisseursLibres.tryAcquire()) {
+            List<Client> lot;
+            try {
+                lot = Service.reserverProfils(TAILLE_LOT, RESERVATION_MS);
+            } catch (RuntimeException ex) {
+                enrichisseursLibres.release();
+                throw ex;
+            }
+            if (lot.isEmpty()) {
+                enrichisseursLibres.release();
+                break;
+            }
+            reserves += lot.size();
+            lots.incrementAndGet();
+            lotsEnCours.incrementAndGet();
+            try {
+                enrichisseurs.execute(() -> enrichir(lot));
+            } catch (RejectedExecutionException ex) {
+                // Enrichisseur en cours d'arrêt : le lot sera réessayé à la
+                // fin de sa réservation
+                lotsEnCours.decrementAndGet();
+                enrichisseursLibres.release();
+                break;
+            }
+            if (lot.size() < TAILLE_LOT) {
+                break;
+            }
+        }
+        return reserves;
+    }
+
+    /**
+     * Demande les profils d'un lot et en enregistre le résultat. Exécuté par
+     * un enrichisseur.
+     */
+    private void enrichir(List<Client> lot) {
+        try {
+            AstroTest astro = new AstroTest();
+            Map<Long, List<String>> profils = new HashMap<>();
+            List<Long> echec = new ArrayList<>();
+            List<Long> ignores = new ArrayList<>();
+            boolean serviceIndisponible = false;
+            for (Client c : lot) {
+                if (serviceIndisponible) {
+                    // Inutile d'attendre le délai de chaque appel : le reste
+                    // du lot est réessayé plus tard, sans compter d'essai
+                    ignores.add(c.getId());
+                    continue;
+                }
+                try {
+                    profils.put(c.getId(), astro.getProfil(c.getPrenom(), c.getDateNaissance(), DELAI_LECTURE_MS));
+                } catch (IOException ex) {
+                    LOGGER.log(Level.FINE, "Échec de l'obtention du profil du client #" + c.getId(), ex);
+                    serviceIndisponible = true;
+                    echec.add(c.getId());
+                } catch (RuntimeException ex) {
+                    // Réponse inattendue pour ce client seulement
+                    LOGGER.log(Level.FINE, "Échec de l'obtention du profil du client #" + c.getId(), ex);
+                    echec.add(c.getId());
+                }
+            }
+            derives.addAndGet(Service.enregistrerProfils(profils, echec, ignores));
+            completes.addAndGet(profils.size());
+            echecs.addAndGet(echec.size());
+        } catch (RuntimeException ex) {
+            LOGGER.log(Level.WARNING, "Échec de l'enregistrement d'un lot de profils", ex);
+        } finally {
+            lotsEnCours.decrementAndGet();
+            enrichisseursLibres.release();
+        }
+        if (lot.size() == TAILLE_LOT) {
+            // D'autres profils attendent sans doute
+            signaler();
+        }
+    }
+
+    /**
+     * Passage du releveur : une exception arrêterait les passages suivants.
+     */
+    private void passer() {
+        try {
+            relever();
+        } catch (RuntimeException ex) {
+            LOGGER.log(Level.WARNING, "Échec de la relève des profils en attente", ex);
+        }
+    }
+
+    /**
+     * @return le nombre de lots réservés depuis le démarrage
+     */
+    public long getLots() {
+        return lots.get();
+    }
+
+    /**
+     * @return le nombre de lots en cours d'enrichissement
+     */
+    public int getLotsEnCours() {
+        return lotsEnCours.get();
+    }
+
+    /**
+     * @return le nombre de profils complétés par le Service Web depuis le
+     * démarrage
+     */
+    public long getCompletes() {
+        return completes.get();
+    }
+
+    /**
+     * @return le nombre d'appels au Service Web échoués depuis le démarrage
+     */
+    public long getEchecs() {
+        return echecs.get();
+    }
+
+    /**
+     * @return le nombre de profils dérivés localement après ESSAIS_MAX
+     * échecs depuis le démarrage
+     */
+    public long getDerives() {
+        return derives.get();
+    }
+
+    @Override
+    public String toString() {
+        return "EnrichisseurProfils[enrichisseurs=" + nombreEnrichisseurs + ", lots=" + lots
+                + ", completes=" + completes + ", echecs=" + echecs + ", derives=" + derives + "]";
+    }
+}
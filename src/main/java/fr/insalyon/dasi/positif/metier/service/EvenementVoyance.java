@@ -0,0 +1,79 @@
+package fr.insalyon.dasi.positif.metier.service;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Événement de la vie d'une voyance, publié par Service à destination d'une
+ * Personne (cf.&nbsp;Service.ajouterEcouteur()).
+ *
+ * @author Liam BETTE, Alexis BOSIO, Thibault REMY
+ */
+public final class EvenementVoyance {
+
+    /**
+     * Sorte d'événement.
+     */
+    public enum Type {
+        /**
+         * Voyance demandée : un employé a été affecté (à l'employé et au
+         * client)
+         */
+        DEMANDE,
+        /**
+         * Voyance acceptée par l'employé (au client)
+         */
+        ACCEPTEE,
+        /**
+         * Prédictions prêtes (à l'employé)
+         */
+        PREDICTIONS,
+        /**
+         * Voyance terminée, par l'employé ou d'office (à l'employé et au
+         * client)
+         */
+        TERMINEE
+    }
+
+    private final Type type;
+
+    private final long destinataireId;
+
+    private final long conversationId;
+
+    private final List<String> predictions;
+
+    /**
+     * @param type la sorte d'événement
+     * @param destinataireId l'identifiant de la Personne à prévenir
+     * @param conversationId l'identifiant de la conversation concernée
+     * @param predictions les prédictions (événement PREDICTIONS), null sinon
+     */
+    public EvenementVoyance(Type type, long destinataireId, long conversationId, List<String> predictions) {
+        this.type = type;
+        this.destinataireId = destinataireId;
+        this.conversationId = conversationId;
+        this.predictions = predictions == null ? null : Collections.unmodifiableList(predictions);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getDestinataireId() {
+        return destinataireId;
+    }
+
+    public long getConversationId() {
+        return conversationId;
+    }
+
+    public List<String> getPredictions() {
+        return predictions;
+    }
+
+    @Override
+    public String toString() {
+        return "EvenementVoyance " + type + " (conversation #" + conversationId + ") pour #" + destinataireId;
+    }
+}
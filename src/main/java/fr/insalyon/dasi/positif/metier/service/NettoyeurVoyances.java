@@ -0,0 +1,146 @@
+package fr.insalyon.dasi.positif.metier.service;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tâche de fond qui ferme d'office les voyances restées ouvertes plus
+ * longtemps que la durée maximale d'une voyance : un employé qui ferme son
+ * navigateur sans terminer sa voyance garderait sinon un créneau occupé
+ * pour toujours.
+ * <br>Chaque passage ferme les voyances par lots
+ * (cf.&nbsp;Service.fermerVoyancesExpirees()) et compte les créneaux ainsi
+ * rendus aux employés.
+ *
+ * @author Liam BETTE, Alexis BOSIO, Thibault REMY
+ */
+public class NettoyeurVoyances {
+
+    public static final long DUREE_MAX_PAR_DEFAUT_MINUTES = 120;
+
+    public static final long PERIODE_PAR_DEFAUT_SECONDES = 300;
+
+    /**
+     * Nombre maximal de voyances fermées par transaction
+     */
+    public static final int TAILLE_LOT = 100;
+
+    private static final Logger LOGGER = Logger.getLogger(NettoyeurVoyances.class.getName());
+
+    private final long dureeMaxMs;
+
+    private final long periodeMs;
+
+    private ScheduledExecutorService planificateur;
+
+    private final AtomicLong passages = new AtomicLong();
+
+    private final AtomicLong creneauxRendus = new AtomicLong();
+
+    private volatile long dernierPassage;
+
+    /**
+     * @param dureeMaxMs la durée au-delà de laquelle une voyance non terminée
+     * est fermée, comptée depuis la demande
+     * @param periodeMs l'intervalle entre deux passages
+     */
+    public NettoyeurVoyances(long dureeMaxMs, long periodeMs) {
+        this.dureeMaxMs = dureeMaxMs;
+        this.periodeMs = periodeMs;
+    }
+
+    /**
+     * Planifie les passages, le premier après une période.
+     */
+    public synchronized void demarrer() {
+        if (planificateur != null) {
+            return;
+        }
+        planificateur = Executors.newSingleThreadScheduledExecutor(tache -> {
+            Thread thread = new Thread(tache, "NettoyeurVoyances");
+            thread.setDaemon(true);
+            return thread;
+        });
+        planificateur.scheduleWithFixedDelay(this::passer, periodeMs, periodeMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Arrête les passages et attend la fin du passage en cours.
+     */
+    public synchronized void arreter() {
+        if (planificateur == null) {
+            return;
+        }
+        planificateur.shutdown();
+        try {
+            planificateur.awaitTermination(periodeMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        planificateur = null;
+    }
+
+    /**
+     * Ferme toutes les voyances expirées, lot par lot.
+     *
+     * @return le nombre de voyances fermées, c'est-à-dire de créneaux rendus
+     */
+    public int nettoyer() {
+        int fermees = 0;
+        int lot;
+        do {
+            lot = Service.fermerVoyancesExpirees(dureeMaxMs, TAILLE_LOT);
+            fermees += lot;
+        } while (lot == TAILLE_LOT);
+        passages.incrementAndGet();
+        creneauxRendus.addAndGet(fermees);
+        dernierPassage = System.currentTimeMillis();
+        if (fermees > 0) {
+            LOGGER.log(Level.INFO, "{0} voyance(s) expirée(s) fermée(s), {1} créneau(x) rendu(s) depuis le démarrage",
+                    new Object[]{fermees, creneauxRendus.get()});
+        }
+        return fermees;
+    }
+
+    /**
+     * Passage planifié : une exception arrêterait les passages suivants.
+     */
+    private void passer() {
+        try {
+            nettoyer();
+        } catch (RuntimeException ex) {
+            LOGGER.log(Level.WARNING, "Échec du nettoyage des voyances expirées", ex);
+        }
+    }
+
+    /**
+     * @return le nombre de passages effectués
+     */
+    public long getPassages() {
+        return passages.get();
+    }
+
+    /**
+     * @return le nombre de créneaux rendus aux employés depuis le démarrage
+     */
+    public long getCreneauxRendus() {
+        return creneauxRendus.get();
+    }
+
+    /**
+     * @return l'instant du dernier passage, 0 s'il n'y en a pas encore eu
+     */
+    public long getDernierPassage() {
+        return dernierPassage;
+    }
+
+    @Override
+    public String toString() {
+        return "NettoyeurVoyances[dureeMax=" + dureeMaxMs / 60000 + " min, passages=" + passages
+                + ", creneauxRendus=" + creneauxRendus + "]";
+    }
+}
@@ -2,68 +2,357 @@ package fr.insalyon.dasi.positif.metier.service;
 
 import fr.insalyon.dasi.positif.dao.AstrologueDAO;
 import fr.insalyon.dasi.positif.dao.ClientDAO;
+import fr.insalyon.dasi.positif.dao.CompteurVoyancesDAO;
 import fr.insalyon.dasi.positif.dao.ConversationDAO;
 import fr.insalyon.dasi.positif.dao.EmployeDAO;
 import fr.insalyon.dasi.positif.dao.JpaUtil;
 import fr.insalyon.dasi.positif.dao.MediumDAO;
+import fr.insalyon.dasi.positif.dao.NotificationDAO;
 import fr.insalyon.dasi.positif.dao.PersonneDAO;
+import fr.insalyon.dasi.positif.dao.StatistiquesCache;
+import fr.insalyon.dasi.positif.dao.StatistiquesDAO;
 import fr.insalyon.dasi.positif.dao.TarologueDAO;
 import fr.insalyon.dasi.positif.dao.VoyantDAO;
+import fr.insalyon.dasi.positif.metier.affectation.DemandeEnAttente;
+import fr.insalyon.dasi.positif.metier.affectation.FileAttente;
+import fr.insalyon.dasi.positif.metier.affectation.MoteurAffectation;
+import fr.insalyon.dasi.positif.metier.affectation.StrategieAffectation;
+import fr.insalyon.dasi.positif.metier.affectation.StrategieAffectationStandard;
 import fr.insalyon.dasi.positif.metier.modele.Astrologue;
 import fr.insalyon.dasi.positif.metier.modele.Client;
+import fr.insalyon.dasi.positif.metier.modele.CompteurVoyances;
 import fr.insalyon.dasi.positif.metier.modele.Conversation;
 import fr.insalyon.dasi.positif.metier.modele.Employe;
+import fr.insalyon.dasi.positif.metier.modele.LigneStatistique;
 import fr.insalyon.dasi.positif.metier.modele.Medium;
+import fr.insalyon.dasi.positif.metier.modele.MotifFin;
+import fr.insalyon.dasi.positif.metier.modele.Notification;
 import fr.insalyon.dasi.positif.metier.modele.Personne;
 import fr.insalyon.dasi.positif.metier.modele.Tarologue;
 import fr.insalyon.dasi.positif.metier.modele.Voyant;
 import fr.insalyon.dasi.positif.util.AstroTest;
-import fr.insalyon.dasi.positif.util.Message;
+import fr.insalyon.dasi.positif.util.MoteurAstro;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.persistence.RollbackException;
+import javax.persistence.PersistenceException;
 
 /**
  * Classe qui regroupe tous les services utiles à l'application.
+ * <br>Les méthodes de consultation lisent en lecture seule : les entités
+ * retournées sont partagées et ne doivent pas être modifiées par l'appelant.
  * 
  * @author Liam BETTE, Alexis BOSIO, Thibault REMY
  */
 public class Service {
     
+    /**
+     * Nombre maximal de choix successifs d'un employé par demanderVoyance()
+     * lorsque le moteur d'affectation ou le cache partagé sont périmés.
+     */
+    private static final int NOMBRE_MAX_RESERVATIONS = 3;
+
+    /**
+     * Moteur d'affectation des voyances en mémoire (cf.&nbsp;demarrer()).
+     * Tant qu'il n'est pas démarré, l'employé est choisi par la base.
+     */
+    private static volatile MoteurAffectation moteurAffectation = null;
+
+    /**
+     * Files d'attente des demandes qu'aucun employé ne pouvait servir. La
+     * longueur maximale d'une file et le délai d'abandon sont lus dans les
+     * propriétés système <code>positif.attente.longueurMax</code> et
+     * <code>positif.attente.delaiAbandonSecondes</code>.
+     */
+    private static final FileAttente fileAttente = new FileAttente(
+            Integer.getInteger("positif.attente.longueurMax", FileAttente.LONGUEUR_MAX_PAR_DEFAUT),
+            Long.getLong("positif.attente.delaiAbandonSecondes", FileAttente.DELAI_ABANDON_PAR_DEFAUT_MS / 1000) * 1000);
+
+    /**
+     * Les écouteurs des événements des voyances (cf.&nbsp;ajouterEcouteur()).
+     */
+    private static final List<EcouteurEvenements> ecouteurs = new CopyOnWriteArrayList<>();
+
+    /**
+     * Cache des prédictions du Service Web Astro. La taille maximale et la
+     * durée de vie sont lues dans les propriétés
+     * <code>positif.predictions.tailleMax</code> et
+     * <code>positif.predictions.dureeVieMinutes</code>.
+     */
+    private static final CachePredictions cachePredictions = new CachePredictions(
+            Integer.getInteger("positif.predictions.tailleMax", CachePredictions.TAILLE_MAX_PAR_DEFAUT),
+            Long.getLong("positif.predictions.dureeVieMinutes", CachePredictions.DUREE_VIE_PAR_DEFAUT_MINUTES) * 60 * 1000);
+
+    /**
+     * Instantané du catalogue des médiums (cf.&nbsp;obtenirCatalogue()).
+     */
+    private static volatile CatalogueMediums catalogue = null;
+
+    /**
+     * Fermeture d'office des voyances abandonnées (cf.&nbsp;demarrer()).
+     */
+    private static volatile NettoyeurVoyances nettoyeurVoyances = null;
+
+    /**
+     * Envoi des notifications de la boîte d'envoi (cf.&nbsp;demarrer()).
+     */
+    private static volatile DistributeurNotifications distributeurNotifications = null;
+
+    /**
+     * Enrichissement des profils astraux des nouveaux clients
+     * (cf.&nbsp;demarrer()).
+     */
+    private static volatile EnrichisseurProfils enrichisseurProfils = null;
+
     public Service() {
     }
 
+    /**
+     * Démarre le moteur d'affectation : charge depuis la base les employés,
+     * les médiums qu'ils savent incarner, leur disponibilité et leur charge.
+     * La stratégie est lue dans la propriété système
+     * <code>positif.affectation.strategie</code>
+     * (cf.&nbsp;StrategieAffectationStandard).
+     * <br>Crée les compteurs de voyances manquants
+     * (cf.&nbsp;creerCompteursManquants()).
+     * <br>Charge l'instantané du catalogue des médiums et démarre le
+     * NettoyeurVoyances ; la durée maximale d'une voyance
+     * et l'intervalle entre deux passages sont lus dans les propriétés
+     * <code>positif.voyance.dureeMaxMinutes</code> et
+     * <code>positif.voyance.nettoyageSecondes</code>.
+     * <br>Démarre le DistributeurNotifications ; le nombre de livreurs et
+     * l'intervalle entre deux relèves périodiques sont lus dans les propriétés
+     * <code>positif.notifications.livreurs</code> et
+     * <code>positif.notifications.periodeSecondes</code>.
+     * <br>Démarre l'EnrichisseurProfils ; le nombre d'enrichisseurs et
+     * l'intervalle entre deux relèves périodiques sont lus dans les propriétés
+     * <code>positif.profils.enrichisseurs</code> et
+     * <code>positif.profils.periodeSecondes</code>.
+     * <br>Si la propriété <code>positif.predictions.prechauffage</code> donne
+     * un nombre de profils, préchauffe le cache des prédictions
+     * (cf.&nbsp;prechaufferPredictions()).
+     * <br><strong>À appeler après JpaUtil.init().</strong>
+     */
+    public static void demarrer() {
+        StrategieAffectation strategie = StrategieAffectationStandard.depuisNom(
+                System.getProperty("positif.affectation.strategie"), StrategieAffectationStandard.CHARGE_HISTORIQUE);
+        MoteurAffectation moteur = new MoteurAffectation(strategie);
+        chargerCatalogue();
+        creerCompteursManquants();
+        JpaUtil.executer("demarrer", () -> {
+            HashMap<Long,CompteurVoyances> compteurs = new HashMap<>();
+            for (CompteurVoyances k : CompteurVoyancesDAO.obtenirCompteursEmployes()) {
+                compteurs.put(k.getEmployeId(), k);
+            }
+            for (Employe e : EmployeDAO.obtenirTous()) {
+                CompteurVoyances k = compteurs.get(e.getId());
+                moteur.charger(e.getId(), idsMediums(e), e.isDispo(), e.getCapacite(),
+                        e.getOccupation(), k == null ? 0 : k.getNombre());
+            }
+            return null;
+        }, true);
+        moteurAffectation = moteur;
+
+        NettoyeurVoyances nettoyeur = new NettoyeurVoyances(
+                Long.getLong("positif.voyance.dureeMaxMinutes", NettoyeurVoyances.DUREE_MAX_PAR_DEFAUT_MINUTES) * 60 * 1000,
+                Long.getLong("positif.voyance.nettoyageSecondes", NettoyeurVoyances.PERIODE_PAR_DEFAUT_SECONDES) * 1000);
+        nettoyeur.demarrer();
+        nettoyeurVoyances = nettoyeur;
+
+        DistributeurNotifications distributeur = new DistributeurNotifications(
+                Integer.getInteger("positif.notifications.livreurs", DistributeurNotifications.NOMBRE_LIVREURS_PAR_DEFAUT),
+                Long.getLong("positif.notifications.periodeSecondes", DistributeurNotifications.PERIODE_PAR_DEFAUT_SECONDES) * 1000);
+        distributeur.demarrer();
+        distributeurNotifications = distributeur;
+
+        EnrichisseurProfils enrichisseur = new EnrichisseurProfils(
+                Integer.getInteger("positif.profils.enrichisseurs", EnrichisseurProfils.NOMBRE_ENRICHISSEURS_PAR_DEFAUT),
+                Long.getLong("positif.profils.periodeSecondes", EnrichisseurProfils.PERIODE_PAR_DEFAUT_SECONDES) * 1000);
+        enrichisseur.demarrer();
+        enrichisseurProfils = enrichisseur;
+
+        int profils = Integer.getInteger("positif.predictions.prechauffage", 0);
+        if (profils > 0) {
+            Thread prechauffage = new Thread(() -> prechaufferPredictions(profils), "PrechauffagePredictions");
+            prechauffage.setDaemon(true);
+            prechauffage.start();
+        }
+    }
+
+    /**
+     * Arrête le moteur d'affectation : l'employé est de nouveau choisi par la
+     * base. Arrête aussi le NettoyeurVoyances, le DistributeurNotifications
+     * et l'EnrichisseurProfils (les notifications non envoyées et les profils
+     * en attente le seront au prochain démarrage).
+     */
+    public static void arreter() {
+        moteurAffectation = null;
+        NettoyeurVoyances nettoyeur = nettoyeurVoyances;
+        nettoyeurVoyances = null;
+        if (nettoyeur != null) {
+            nettoyeur.arreter();
+        }
+        DistributeurNotifications distributeur = distributeurNotifications;
+        distributeurNotifications = null;
+        if (distributeur != null) {
+            distributeur.arreter();
+        }
+        EnrichisseurProfils enrichisseur = enrichisseurProfils;
+        enrichisseurProfils = null;
+        if (enrichisseur != null) {
+            enrichisseur.arreter();
+        }
+    }
+
+    /**
+     * @return le moteur d'affectation, null s'il n'est pas démarré
+     */
+    public static MoteurAffectation obtenirMoteurAffectation() {
+        return moteurAffectation;
+    }
+
+    /**
+     * Donne les médiums qu'un employé peut incarner tout de suite, d'après
+     * la vue de disponibilité du moteur d'affectation (sans accès à la base).
+     *
+     * @return les identifiants des médiums disponibles, null si le moteur
+     * d'affectation n'est pas démarré
+     */
+    public static Set<Long> obtenirMediumsDisponibles() {
+        MoteurAffectation moteur = moteurAffectation;
+        return moteur == null ? null : moteur.getVueDisponibilite().obtenirMediumsDisponibles();
+    }
+
+    /**
+     * @return le nettoyeur des voyances abandonnées, null s'il n'est pas
+     * démarré
+     */
+    public static NettoyeurVoyances obtenirNettoyeurVoyances() {
+        return nettoyeurVoyances;
+    }
+
+    /**
+     * @return le distributeur des notifications, null s'il n'est pas démarré
+     */
+    public static DistributeurNotifications obtenirDistributeurNotifications() {
+        return distributeurNotifications;
+    }
+
+    /**
+     * @return l'enrichisseur des profils astraux, null s'il n'est pas démarré
+     */
+    public static EnrichisseurProfils obtenirEnrichisseurProfils() {
+        return enrichisseurProfils;
+    }
+
+    /**
+     * Abonne un écouteur aux événements des voyances (demande, acceptation,
+     * prédictions, fin).
+     *
+     * @param ecouteur l'écouteur
+     */
+    public static void ajouterEcouteur(EcouteurEvenements ecouteur) {
+        ecouteurs.add(ecouteur);
+    }
+
+    /**
+     * @param ecouteur l'écouteur à désabonner
+     */
+    public static void retirerEcouteur(EcouteurEvenements ecouteur) {
+        ecouteurs.remove(ecouteur);
+    }
+
+    /**
+     * Publie un événement à tous les écouteurs ; l'échec d'un écouteur
+     * n'interrompt pas le service.
+     */
+    private static void publier(EvenementVoyance evenement) {
+        for (EcouteurEvenements ecouteur : ecouteurs) {
+            try {
+                ecouteur.recevoir(evenement);
+            } catch (RuntimeException ex) {
+                Logger.getLogger(Service.class.getName()).log(Level.WARNING,
+                        "Échec de la publication de " + evenement, ex);
+            }
+        }
+    }
+
+    private static List<Long> idsMediums(Employe employe) {
+        List<Long> ids = new ArrayList<>();
+        for (Medium m : employe.getMedium()) {
+            ids.add(m.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Réconcilie l'état d'un employé dans le moteur d'affectation avec la
+     * base (médiums, disponibilité et créneaux).
+     */
+    private static void reconcilierEmploye(MoteurAffectation moteur, long idEmploye) {
+        JpaUtil.executer("reconcilierEmploye", () -> {
+            Employe employe = EmployeDAO.obtenirEmployeParId(idEmploye);
+            if (employe == null) {
+                moteur.retirer(idEmploye);
+            } else {
+                moteur.reconcilier(idEmploye, idsMediums(employe), employe.isDispo(),
+                        employe.getCapacite(), employe.getOccupation());
+            }
+            return null;
+        }, true);
+    }
+
     /**
      * Permet l'inscription d'un nouveau Client (Ajout dans la base)
+     * <br>Le client est enregistré avec un profil astral EN_ATTENTE, complété
+     * ensuite par l'EnrichisseurProfils.
      *
      * @param client Le nouveau client à ajouter
      * @return Vrai si l'inscription à été réalisée
      */
     public boolean sInscrire(Client client) {
-        JpaUtil.creerEntityManager();
         try {
             // Transaction Persistence
-            JpaUtil.ouvrirTransaction();
-            ClientDAO.creer(client);
-            JpaUtil.validerTransaction();
-
-            envoiMailInscription(client, 0);
-            JpaUtil.fermerEntityManager();
-            return true;
-
-        } catch (RollbackException e) {
-            envoiMailInscription(client, 1);
-            JpaUtil.fermerEntityManager();
+            JpaUtil.executer("sInscrire", () -> {
+                ClientDAO.creer(client);
+                envoiMailInscription(client, 0);
+                return null;
+            }, false);
+        } catch (PersistenceException e) {
+            try {
+                JpaUtil.executer("sInscrire (échec)", () -> {
+                    envoiMailInscription(client, 1);
+                    return null;
+                }, false);
+                signalerNotifications();
+            } catch (PersistenceException ex) {
+                Logger.getLogger(Service.class.getName()).log(Level.WARNING,
+                        "Échec de la notification de l'échec d'inscription", ex);
+            }
             return false;
         }
+        signalerNotifications();
+        signalerProfils();
+        return true;
     }
 
     /**
@@ -75,9 +364,7 @@ public class Service {
      * @return La Personne à condition qu'elle existe dans la base.
      */
     public Personne seConnecter(String email, String motDePasse) {
-        JpaUtil.creerEntityManager();
-        Personne personne = PersonneDAO.obtenir(email);
-        JpaUtil.fermerEntityManager();
+        Personne personne = JpaUtil.executer("seConnecter", () -> PersonneDAO.obtenir(email), true);
         if (personne != null && personne.getMotDePasse().equals(motDePasse)) {
             System.out.println("Vous êtes connecté !");
             return personne;
@@ -93,103 +380,549 @@ public class Service {
      * @return La liste des Mediums
      */
     public List<Medium> obtenirTousMediums() {
-        JpaUtil.creerEntityManager();
-        List<Medium> listesMediums = MediumDAO.obtenirTous();
-        JpaUtil.fermerEntityManager();
-        return listesMediums;
+        return JpaUtil.executer("obtenirTousMediums", MediumDAO::obtenirTous, true);
     }
 
     /**
      * Créé une conversation qui met en relation un Client et un Medium
      * interprété par un employé.
      * Envoie une notification à l'employé (console)
+     * <br>Aucun verrou global : la voyance occupe un créneau de l'employé par
+     * une mise à jour conditionnelle (EmployeDAO.occuperCreneau()). Deux
+     * demandes simultanées peuvent choisir le même employé, mais elles ne
+     * peuvent pas occuper plus de créneaux qu'il n'en a : celle qui n'en
+     * obtient pas passe au meilleur candidat suivant.
      *
      * @param client Le client qui demande la conversation
      * @param medium Le medium avec qui il veut réaliser la conversation
      * @return La conversation, null si le médium n'est pas disponible
      */
     public Conversation demanderVoyance(Client client, Medium medium) {
+        MoteurAffectation moteur = moteurAffectation;
+        Conversation conversation = null;
+
+        for (int reservation = 1; reservation <= NOMBRE_MAX_RESERVATIONS; reservation++) {
+            // Choix de l'employé en mémoire, sans accès à la base
+            Long idReserve = null;
+            if (moteur != null) {
+                idReserve = moteur.reserver(medium.getId());
+                if (idReserve == null) {
+                    return null;
+                }
+            }
+            Long idEmployeReserve = idReserve;
+            AtomicReference<Long> idPerime = new AtomicReference<>();
+
+            // Transaction
+            // Le client et le médium sont relus dans le contexte de la
+            // transaction : une reprise ne modifie pas les objets de l'appelant.
+            try {
+                conversation = JpaUtil.executer("demanderVoyance", () -> {
+                    idPerime.set(null);
+                    Medium mediumGere = MediumDAO.obtenirMediumParId(medium.getId());
+                    Client clientGere = ClientDAO.obtenirClientParId(client.getId());
+                    Long idEmploye = idEmployeReserve != null ? idEmployeReserve
+                            : EmployeDAO.obtenirIdEmployePourVoyance(mediumGere.getId());
 
-        JpaUtil.creerEntityManager();
-        Employe employe = (Employe) EmployeDAO.obtenirEmployePourVoyance(medium);
+                    if (idEmploye == null) {
+                        return null;
+                    }
+                    Employe employe = EmployeDAO.obtenirEmployeParId(idEmploye);
+                    if (employe == null) {
+                        idPerime.set(idEmploye);
+                        return null;
+                    }
+                    if (!EmployeDAO.occuperCreneau(idEmploye)) {
+                        // Plus de créneau libre : le moteur ou le cache
+                        // n'étaient plus à jour, la base fait foi
+                        idPerime.set(idEmploye);
+                        return null;
+                    }
+                    // Une seule insertion : la conversation porte les clés
+                    // étrangères. Les listes de conversations (côté inverse)
+                    // ne sont ni chargées ni tenues à jour : elles sont
+                    // relues après invalidation du cache (cf. plus bas).
+                    Conversation nouvelle = new Conversation(employe, mediumGere, clientGere);
+                    ConversationDAO.creer(nouvelle);
+                    CompteurVoyancesDAO.incrementer(mediumGere.getId(), employe.getId(), 1, 1);
+                    envoiNotificationEmploye(nouvelle);
+                    return nouvelle;
+                }, false);
+            } catch (RuntimeException ex) {
+                if (idReserve != null) {
+                    moteur.annuler(idReserve);
+                }
+                throw ex;
+            }
 
-        if (employe == null) {
+            Long perime = idPerime.get();
+            if (perime == null) {
+                if (conversation != null) {
+                    JpaUtil.invaliderCache(Employe.class, conversation.getEmploye().getId());
+                    JpaUtil.invaliderCache(Client.class, client.getId());
+                    JpaUtil.invaliderCache(Medium.class, medium.getId());
+                }
+                break;
+            }
+            JpaUtil.invaliderCache(Employe.class, perime);
+            if (moteur != null) {
+                moteur.annuler(perime);
+                reconcilierEmploye(moteur, perime);
+            }
+        }
+
+        if (conversation == null) {
             return null;
         }
-        employe.setDisponible(false);
-        Conversation conversation = new Conversation(employe, medium, client);
-        employe.addConversation(conversation);
-        medium.addConversation(conversation);
-        client.addConversation(conversation);
-        
-        // Transaction
-        JpaUtil.ouvrirTransaction();
-        ConversationDAO.creer(conversation);
-        MediumDAO.modifier(medium);
-        ClientDAO.modifier(client);
-        EmployeDAO.modifier(employe);    
-        JpaUtil.validerTransaction();
-        JpaUtil.fermerEntityManager();
         
-        // Envoi notification de demande de voyance à l'employé
-        envoiNotificationEmploye(conversation);
+        // La notification de l'employé est dans la boîte d'envoi
+        signalerNotifications();
+        publier(new EvenementVoyance(EvenementVoyance.Type.DEMANDE, conversation.getEmploye().getId(), conversation.getId(), null));
+        publier(new EvenementVoyance(EvenementVoyance.Type.DEMANDE, conversation.getClient().getId(), conversation.getId(), null));
         
         return conversation;
     }
 
+    /**
+     * Demande une voyance, et met le client en file d'attente si aucun
+     * employé ne peut incarner le médium tout de suite. Tant que des clients
+     * attendent ce médium, une nouvelle demande prend la file sans tenter
+     * d'affectation : les premiers arrivés sont servis les premiers.
+     * <br>Le client doit ensuite suivre sa demande par consulterDemande(),
+     * au moins une fois par délai d'abandon.
+     *
+     * @param client Le client qui demande la conversation
+     * @param medium Le medium avec qui il veut réaliser la conversation
+     * @return La demande : SERVIE (avec l'identifiant de la conversation),
+     * EN_ATTENTE (avec sa position et l'attente estimée) ou REFUSEE si la file
+     * du médium est pleine
+     */
+    public DemandeEnAttente demanderVoyanceOuAttendre(Client client, Medium medium) {
+        if (fileAttente.estVide(medium.getId())) {
+            Conversation conversation = demanderVoyance(client, medium);
+            if (conversation != null) {
+                return DemandeEnAttente.servie(client.getId(), medium.getId(), conversation.getId());
+            }
+        }
+        DemandeEnAttente demande = fileAttente.ajouter(client.getId(), medium.getId());
+        if (demande.getEtat() == DemandeEnAttente.Etat.EN_ATTENTE && demande.getPosition() == 1) {
+            // Un créneau a pu se libérer depuis l'échec de demanderVoyance(),
+            // alors que la file était encore vide
+            servirFileAttente(Collections.singletonList(medium.getId()));
+            DemandeEnAttente suivie = fileAttente.consulter(demande.getId());
+            if (suivie != null) {
+                demande = suivie;
+            }
+        }
+        return demande;
+    }
+
+    /**
+     * Consulte une demande mise en file par demanderVoyanceOuAttendre() ; la
+     * consultation compte comme un signe de vie du client.
+     * Si le moteur d'affectation voit un créneau libre pour le médium (un
+     * employé a été mis en service, par exemple), la file est servie
+     * d'abord.
+     *
+     * @param idDemande l'identifiant de la demande
+     * @return La demande, null si elle est inconnue ou oubliée
+     */
+    public DemandeEnAttente consulterDemande(long idDemande) {
+        DemandeEnAttente demande = fileAttente.consulter(idDemande);
+        MoteurAffectation moteur = moteurAffectation;
+        if (demande != null && demande.getEtat() == DemandeEnAttente.Etat.EN_ATTENTE
+                && moteur != null && moteur.getVueDisponibilite().estDisponible(demande.getMediumId())) {
+            servirFileAttente(Collections.singletonList(demande.getMediumId()));
+            demande = fileAttente.consulter(idDemande);
+        }
+        return demande;
+    }
+
+    /**
+     * Lit le client d'une demande mise en file, sans la consulter : permet
+     * de vérifier qu'elle appartient au client connecté.
+     *
+     * @param idDemande l'identifiant de la demande
+     * @return l'identifiant du client, null si la demande est inconnue ou
+     * oubliée
+     */
+    public Long obtenirClientDemande(long idDemande) {
+        return fileAttente.obtenirClientId(idDemande);
+    }
+
+    /**
+     * Retire une demande de la file d'attente.
+     *
+     * @param idDemande l'identifiant de la demande
+     * @return Vrai si la demande était en attente
+     */
+    public boolean annulerDemande(long idDemande) {
+        return fileAttente.annuler(idDemande);
+    }
+
+    /**
+     * Sert les demandes en attente des médiums donnés, des plus anciennes
+     * aux plus récentes, tant qu'un employé peut être affecté. Une demande
+     * qui n'a pas pu être servie garde sa place en tête de file.
+     *
+     * @param idsMediums les identifiants des médiums
+     */
+    private void servirFileAttente(Collection<Long> idsMediums) {
+        DemandeEnAttente demande;
+        while ((demande = fileAttente.prendre(idsMediums)) != null) {
+            Conversation conversation;
+            try {
+                Client client = getClientParId(demande.getClientId());
+                Medium medium = getMediumParId(demande.getMediumId());
+                if (client == null || medium == null) {
+                    fileAttente.rendre(demande.getId());
+                    fileAttente.annuler(demande.getId());
+                    continue;
+                }
+                conversation = demanderVoyance(client, medium);
+            } catch (RuntimeException ex) {
+                fileAttente.rendre(demande.getId());
+                throw ex;
+            }
+            if (conversation == null) {
+                fileAttente.rendre(demande.getId());
+                return;
+            }
+            if (!fileAttente.servir(demande.getId(), conversation.getId())) {
+                // Demande annulée pendant l'affectation : le créneau est rendu
+                TerminerVoyance(conversation);
+            }
+        }
+    }
+
     /** 
-     * Accepte la voyance et envoi une notification au client
+     * Accepte la voyance et envoie une notification au client (dans la même
+     * transaction, cf.&nbsp;envoiNotificationClient())
      * @param conversation la conversation entre le client et le medium
      */
     public void AccepterVoyance(Conversation conversation) {
-        conversation.setDebut(new Date());
-        
         //Transaction
-        JpaUtil.creerEntityManager();
-        JpaUtil.ouvrirTransaction();
-        ConversationDAO.modifier(conversation);
-        JpaUtil.validerTransaction();
-        JpaUtil.fermerEntityManager();
+        // La conversation est relue par identifiant : celle de l'appelant
+        // peut être un objet partagé en lecture seule.
+        Conversation acceptee = JpaUtil.executer("AccepterVoyance", () -> {
+            Conversation geree = ConversationDAO.obtenirConversationParId(conversation.getId());
+            geree.setDebut(new Date());
+            envoiNotificationClient(geree);
+            return geree;
+        }, false);
         
-        envoiNotificationClient(conversation);
+        signalerNotifications();
+        publier(new EvenementVoyance(EvenementVoyance.Type.ACCEPTEE, acceptee.getClient().getId(), acceptee.getId(), null));
     }
 
     /**
-     * Met fin à la voyance (date de fin) et rend disponible l'employé
+     * Met fin à la voyance (date de fin) et libère le créneau de l'employé,
+     * qui sert aussitôt la plus ancienne demande en attente d'un des médiums
+     * qu'il sait incarner.
      * @param conversation la conversation entre le client et le medium.
      */
     public static void TerminerVoyance(Conversation conversation) {
-        JpaUtil.creerEntityManager();
-        JpaUtil.ouvrirTransaction();
-        
-        // MAJ de la date de fin de la conversation
-        conversation.setFin();
-        
-        // MAJ de la disponibilité de l'employé
-        Employe employe = conversation.getEmploye();
-        employe.setDisponible(true);
-        EmployeDAO.modifier(employe);
-        ConversationDAO.modifier(conversation);
-        
-        JpaUtil.validerTransaction();
-        JpaUtil.fermerEntityManager();
+        AtomicBoolean enCours = new AtomicBoolean(false);
+        AtomicReference<List<Long>> idsMediums = new AtomicReference<>();
+        AtomicReference<Long> idClient = new AtomicReference<>();
+        Long idEmploye = JpaUtil.executer("TerminerVoyance", () -> {
+            Conversation geree = ConversationDAO.obtenirConversationParId(conversation.getId());
+            enCours.set(geree.getFin() == null);
+            idsMediums.set(idsMediums(geree.getEmploye()));
+            idClient.set(geree.getClient().getId());
+            if (enCours.get()) {
+                CompteurVoyancesDAO.incrementer(geree.getMedium().getId(), geree.getEmploye().getId(), 0, -1);
+                // Libération du créneau de l'employé
+                EmployeDAO.libererCreneau(geree.getEmploye().getId());
+                // MAJ de la date de fin de la conversation ; une voyance déjà
+                // fermée d'office garde sa date de fin et son motif (EXPIREE)
+                geree.terminer(MotifFin.TERMINEE);
+            }
+            return geree.getEmploye().getId();
+        }, false);
+        JpaUtil.invaliderCache(Employe.class, idEmploye);
+
+        MoteurAffectation moteur = moteurAffectation;
+        if (moteur != null) {
+            if (enCours.get()) {
+                moteur.liberer(idEmploye);
+            }
+            reconcilierEmploye(moteur, idEmploye);
+        }
+
+        if (enCours.get()) {
+            publier(new EvenementVoyance(EvenementVoyance.Type.TERMINEE, idEmploye, conversation.getId(), null));
+            publier(new EvenementVoyance(EvenementVoyance.Type.TERMINEE, idClient.get(), conversation.getId(), null));
+            fileAttente.enregistrerLiberation(idsMediums.get());
+            // La voyance est terminée quoi qu'il arrive : un échec de
+            // l'affectation ne doit pas remonter à l'appelant
+            try {
+                new Service().servirFileAttente(idsMediums.get());
+            } catch (RuntimeException ex) {
+                Logger.getLogger(Service.class.getName()).log(Level.WARNING,
+                        "Échec du service de la file d'attente", ex);
+            }
+        }
     }
     
+    /**
+     * Ferme d'office un lot de voyances demandées depuis plus longtemps que
+     * la durée maximale et toujours pas terminées (motif EXPIREE). Les
+     * créneaux des employés concernés sont recalculés en une seule requête
+     * pour tout le lot ; les demandes en attente de leurs médiums sont
+     * ensuite servies.
+     *
+     * @param dureeMaxMs la durée maximale d'une voyance, depuis sa demande
+     * @param tailleLot le nombre maximal de voyances fermées
+     * @return le nombre de voyances fermées
+     */
+    public static int fermerVoyancesExpirees(long dureeMaxMs, int tailleLot) {
+        Date limite = new Date(System.currentTimeMillis() - dureeMaxMs);
+        Map<Long, List<Long>> mediumsParEmploye = new HashMap<>();
+        List<EvenementVoyance> evenements = new ArrayList<>();
+        int fermees = JpaUtil.executer("fermerVoyancesExpirees", () -> {
+            mediumsParEmploye.clear();
+            evenements.clear();
+            List<Conversation> lot = ConversationDAO.obtenirOuvertesAvant(limite, tailleLot);
+            Map<List<Long>, Long> parPaire = new HashMap<>();
+            for (Conversation c : lot) {
+                c.terminer(MotifFin.EXPIREE);
+                evenements.add(new EvenementVoyance(EvenementVoyance.Type.TERMINEE, c.getEmploye().getId(), c.getId(), null));
+                evenements.add(new EvenementVoyance(EvenementVoyance.Type.TERMINEE, c.getClient().getId(), c.getId(), null));
+                Employe employe = c.getEmploye();
+                if (!mediumsParEmploye.containsKey(employe.getId())) {
+                    mediumsParEmploye.put(employe.getId(), idsMediums(employe));
+                }
+                parPaire.merge(Arrays.asList(c.getMedium().getId(), employe.getId()), 1L, Long::sum);
+            }
+            // Dans l'ordre de demanderVoyance() : créneaux, puis compteurs
+            EmployeDAO.recalculerOccupations(mediumsParEmploye.keySet());
+            for (Map.Entry<List<Long>, Long> paire : parPaire.entrySet()) {
+                CompteurVoyancesDAO.incrementer(paire.getKey().get(0), paire.getKey().get(1), 0, -paire.getValue());
+            }
+            return lot.size();
+        }, false);
+        if (fermees == 0) {
+            return 0;
+        }
+        for (EvenementVoyance evenement : evenements) {
+            publier(evenement);
+        }
+
+        MoteurAffectation moteur = moteurAffectation;
+        Set<Long> idsMediums = new TreeSet<>();
+        for (Map.Entry<Long, List<Long>> employe : mediumsParEmploye.entrySet()) {
+            JpaUtil.invaliderCache(Employe.class, employe.getKey());
+            if (moteur != null) {
+                reconcilierEmploye(moteur, employe.getKey());
+            }
+            idsMediums.addAll(employe.getValue());
+        }
+        try {
+            new Service().servirFileAttente(idsMediums);
+        } catch (RuntimeException ex) {
+            Logger.getLogger(Service.class.getName()).log(Level.WARNING,
+                    "Échec du service de la file d'attente", ex);
+        }
+        return fermees;
+    }
+
+    /**
+     * Réserve un lot de notifications à envoyer (cf.&nbsp;DistributeurNotifications) :
+     * elles ne seront pas proposées à un autre envoi avant la fin de la
+     * réservation.
+     *
+     * @param tailleLot le nombre maximal de notifications réservées
+     * @param reservationMs la durée de la réservation
+     * @return les notifications réservées, les plus anciennes en premier
+     */
+    public static List<Notification> reserverNotifications(int tailleLot, long reservationMs) {
+        return JpaUtil.executer("reserverNotifications", () -> {
+            Date maintenant = new Date();
+            Date finReservation = new Date(maintenant.getTime() + reservationMs);
+            List<Notification> lot = NotificationDAO.obtenirAEnvoyer(maintenant, tailleLot);
+            for (Notification n : lot) {
+                n.reserver(finReservation);
+            }
+            return lot;
+        }, false);
+    }
+
+    /**
+     * Enregistre le résultat de l'envoi d'un lot de notifications réservé par
+     * reserverNotifications(). Une notification en échec est réessayée plus
+     * tard, ou abandonnée après DistributeurNotifications.ESSAIS_MAX essais.
+     *
+     * @param envoyees les identifiants des notifications envoyées
+     * @param echecs le motif de l'échec, par identifiant de notification
+     * @return le nombre de notifications abandonnées
+     */
+    public static int enregistrerEnvois(Collection<Long> envoyees, Map<Long, String> echecs) {
+        return JpaUtil.executer("enregistrerEnvois", () -> {
+            for (Long id : envoyees) {
+                NotificationDAO.obtenirNotificationParId(id).setEnvoyee();
+            }
+            int abandonnees = 0;
+            long maintenant = System.currentTimeMillis();
+            for (Map.Entry<Long, String> echec : echecs.entrySet()) {
+                Notification n = NotificationDAO.obtenirNotificationParId(echec.getKey());
+                Date prochainEssai = null;
+                if (n.getEssais() < DistributeurNotifications.ESSAIS_MAX) {
+                    prochainEssai = new Date(maintenant + DistributeurNotifications.delaiReessai(n.getEssais()));
+                } else {
+                    abandonnees++;
+                }
+                n.echouer(echec.getValue(), prochainEssai);
+            }
+            return abandonnees;
+        }, false);
+    }
+
+    /**
+     * Demande au DistributeurNotifications, s'il est démarré, de relever
+     * aussitôt la boîte d'envoi.
+     * <br><strong>À appeler après la validation de la transaction.</strong>
+     */
+    private static void signalerNotifications() {
+        DistributeurNotifications distributeur = distributeurNotifications;
+        if (distributeur != null) {
+            distributeur.signaler();
+        }
+    }
+
+    /**
+     * Réserve un lot de profils astraux en attente (cf.&nbsp;EnrichisseurProfils) :
+     * ils ne seront pas proposés à un autre essai avant la fin de la
+     * réservation.
+     *
+     * @param tailleLot le nombre maximal de profils réservés
+     * @param reservationMs la durée de la réservation
+     * @return les clients réservés, les plus anciens en premier
+     */
+    public static List<Client> reserverProfils(int tailleLot, long reservationMs) {
+        return JpaUtil.executer("reserverProfils", () -> {
+            Date maintenant = new Date();
+            Date finReservation = new Date(maintenant.getTime() + reservationMs);
+            List<Client> lot = ClientDAO.obtenirProfilsEnAttente(maintenant, tailleLot);
+            for (Client c : lot) {
+                c.reserverEnrichissement(finReservation);
+            }
+            return lot;
+        }, false);
+    }
+
+    /**
+     * Enregistre le résultat de l'enrichissement d'un lot de profils réservé
+     * par reserverProfils(). Un profil en échec est réessayé plus tard ; après
+     * EnrichisseurProfils.ESSAIS_MAX essais, sa couleur et son animal sont
+     * dérivés localement (cf.&nbsp;MoteurAstro).
+     *
+     * @param profils le profil obtenu du Service Web (signe du zodiaque,
+     * signe chinois, couleur, animal), par identifiant de client
+     * @param echecs les identifiants des clients dont le profil n'a pas pu
+     * être obtenu
+     * @param ignores les identifiants des clients pour qui le Service Web n'a
+     * pas été appelé : leur essai n'est pas compté
+     * @return le nombre de profils dérivés localement
+     */
+    public static int enregistrerProfils(Map<Long, List<String>> profils, Collection<Long> echecs,
+            Collection<Long> ignores) {
+        return JpaUtil.executer("enregistrerProfils", () -> {
+            for (Map.Entry<Long, List<String>> profil : profils.entrySet()) {
+                Client c = ClientDAO.obtenirClientParId(profil.getKey());
+                if (c != null && c.isProfilEnAttente()) {
+                    // Les signes restent ceux calculés localement
+                    c.completerProfil(profil.getValue().get(2), profil.getValue().get(3));
+                }
+            }
+            int derives = 0;
+            long maintenant = System.currentTimeMillis();
+            for (Long id : echecs) {
+                Client c = ClientDAO.obtenirClientParId(id);
+                if (c == null || !c.isProfilEnAttente()) {
+                    continue;
+                }
+                if (c.getEssaisProfil() < EnrichisseurProfils.ESSAIS_MAX) {
+                    c.echouerEnrichissement(new Date(maintenant + EnrichisseurProfils.delaiReessai(c.getEssaisProfil())));
+                } else {
+                    c.completerProfil(MoteurAstro.couleurLocale(c.getPrenom(), c.getDateNaissance()),
+                            MoteurAstro.animalLocal(c.getPrenom(), c.getDateNaissance()));
+                    derives++;
+                }
+            }
+            for (Long id : ignores) {
+                Client c = ClientDAO.obtenirClientParId(id);
+                if (c != null && c.isProfilEnAttente()) {
+                    c.rendreEnrichissement(new Date(maintenant + EnrichisseurProfils.delaiReessai(c.getEssaisProfil() - 1)));
+                }
+            }
+            return derives;
+        }, false);
+    }
+
+    /**
+     * Complète sur demande le profil astral d'un client encore en attente,
+     * sans attendre l'EnrichisseurProfils : la couleur et l'animal sont
+     * demandés au Service Web, ou dérivés localement (cf.&nbsp;MoteurAstro)
+     * si l'appel échoue.
+     *
+     * @param client le client dont le profil est en attente
+     * @return le client au profil complet
+     */
+    private static Client completerProfil(Client client) {
+        String couleur;
+        String animal;
+        try {
+            List<String> profil = new AstroTest().getProfil(client.getPrenom(), client.getDateNaissance());
+            couleur = profil.get(2);
+            animal = profil.get(3);
+        } catch (IOException | RuntimeException ex) {
+            Logger.getLogger(Service.class.getName()).log(Level.FINE,
+                    "Échec de l'obtention du profil du client #" + client.getId(), ex);
+            couleur = MoteurAstro.couleurLocale(client.getPrenom(), client.getDateNaissance());
+            animal = MoteurAstro.animalLocal(client.getPrenom(), client.getDateNaissance());
+        }
+        final String couleurObtenue = couleur;
+        final String animalObtenu = animal;
+        Client complet = JpaUtil.executer("completerProfil", () -> {
+            Client c = ClientDAO.obtenirClientParId(client.getId());
+            if (c != null && c.isProfilEnAttente()) {
+                c.completerProfil(couleurObtenue, animalObtenu);
+            }
+            return c;
+        }, false);
+        if (complet == null) {
+            // Client inconnu de la base : le profil n'est complété que pour
+            // cet appel
+            client.completerProfil(couleur, animal);
+            return client;
+        }
+        return complet;
+    }
+
+    /**
+     * Demande à l'EnrichisseurProfils, s'il est démarré, de relever aussitôt
+     * les profils en attente.
+     * <br><strong>À appeler après la validation de la transaction.</strong>
+     */
+    private static void signalerProfils() {
+        EnrichisseurProfils enrichisseur = enrichisseurProfils;
+        if (enrichisseur != null) {
+            enrichisseur.signaler();
+        }
+    }
+
     /**
      * Ajoute un commentaire à la voyance
      * @param conversation La conversation à laquelle ajouter le commentaire
      * @param commentaire Le texte du commentaire
      */
     public static void CommenterVoyance(Conversation conversation, String commentaire) {
-        JpaUtil.creerEntityManager();
-        JpaUtil.ouvrirTransaction();
-        
-        // MAJ du commentaire de la conversation
-        conversation.setCommentaire(commentaire);
-        ConversationDAO.modifier(conversation);
-        
-        JpaUtil.validerTransaction();
-        JpaUtil.fermerEntityManager();
+        JpaUtil.executer("CommenterVoyance", () -> {
+            // MAJ du commentaire de la conversation
+            ConversationDAO.obtenirConversationParId(conversation.getId()).setCommentaire(commentaire);
+            return null;
+        }, false);
     }
     
     /**
@@ -198,83 +931,162 @@ public class Service {
      * @param amour Une note en amour de 1 PAS BON à 4 BON
      * @param sante Une note en sante de 1 PAS BON à 4 BON
      * @param travail Une note de 1 PAS BON à 4 BON
-     * @return La liste des predictions dans l'ordre suivant (amour, sante, travail) et null si une erreur s'est produite.
+     * Si le profil astral du client est encore en attente, il est complété
+     * d'abord (cf.&nbsp;completerProfil()).
+     * @return La liste des predictions dans l'ordre suivant (amour, sante, travail) et null si une erreur s'est produite
      */
     public static List<String> ObtenirPredictions(Client client, int amour, int sante, int travail)
     {
+        if (client.isProfilEnAttente()) {
+            client = completerProfil(client);
+        }
+        List<String> predictions = cachePredictions.obtenir(client.getCouleur(), client.getAnimal(), amour, sante, travail);
+        if (predictions != null) {
+            return predictions;
+        }
         AstroTest astro = new AstroTest();
         try {
-            return astro.getPredictions(client.getCouleur(), client.getAnimal(), amour, sante, travail);
+            predictions = astro.getPredictions(client.getCouleur(), client.getAnimal(), amour, sante, travail);
+            cachePredictions.mettre(client.getCouleur(), client.getAnimal(), amour, sante, travail, predictions);
+            return predictions;
         } catch (IOException ex) {
             Logger.getLogger(Service.class.getName()).log(Level.SEVERE, null, ex);
             return null;
         }
     }
+
+    /**
+     * Préchauffe le cache des prédictions : pour chacun des profils astraux
+     * (couleur, animal) les plus répandus parmi les clients, obtient les
+     * prédictions de toutes les combinaisons de niveaux qui ne sont pas déjà
+     * dans le cache. Les appels au Service Web sont faits un par un ; le
+     * préchauffage s'arrête au premier échec.
+     * @param nombreProfils le nombre de profils à préchauffer
+     * @return le nombre de prédictions obtenues
+     */
+    public static int prechaufferPredictions(int nombreProfils) {
+        List<Object[]> profils = JpaUtil.executer("prechaufferPredictions",
+                () -> ClientDAO.obtenirProfilsFrequents(nombreProfils), true);
+        AstroTest astro = new AstroTest();
+        int obtenues = 0;
+        try {
+            for (Object[] profil : profils) {
+                String couleur = (String) profil[0];
+                String animal = (String) profil[1];
+                for (int amour = 1; amour <= 4; amour++) {
+                    for (int sante = 1; sante <= 4; sante++) {
+                        for (int travail = 1; travail <= 4; travail++) {
+                            if (!cachePredictions.contient(couleur, animal, amour, sante, travail)) {
+                                cachePredictions.mettre(couleur, animal, amour, sante, travail,
+                                        astro.getPredictions(couleur, animal, amour, sante, travail));
+                                obtenues++;
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            Logger.getLogger(Service.class.getName()).log(Level.WARNING,
+                    "Préchauffage des prédictions interrompu après " + obtenues + " prédiction(s)", ex);
+        }
+        return obtenues;
+    }
+
+    /**
+     * @return le cache des prédictions du Service Web Astro
+     */
+    public static CachePredictions obtenirCachePredictions() {
+        return cachePredictions;
+    }
+
+    /**
+     * Obtient les prédictions pour le client d'une voyance et les publie à
+     * l'employé qui la mène (événement PREDICTIONS).
+     * @param conversation la conversation entre le client et le medium.
+     * @param amour Une note en amour de 1 PAS BON à 4 BON
+     * @param sante Une note en sante de 1 PAS BON à 4 BON
+     * @param travail Une note de 1 PAS BON à 4 BON
+     * @return les prédictions (cf.&nbsp;ObtenirPredictions()), null si une erreur s'est produite.
+     */
+    public List<String> genererPredictions(Conversation conversation, int amour, int sante, int travail) {
+        List<String> predictions = ObtenirPredictions(conversation.getClient(), amour, sante, travail);
+        if (predictions != null) {
+            publier(new EvenementVoyance(EvenementVoyance.Type.PREDICTIONS,
+                    conversation.getEmploye().getId(), conversation.getId(), predictions));
+        }
+        return predictions;
+    }
     
     /**
      * Cette méthode permet d'obtenir les valeurs de l'histogramme du nombre de voyances par médium.
-     * @return Un dictionnaire des couples (clé = nom du medium, valeur = nombre de voyance).
+     * Les nombres sont lus dans les compteurs de voyances (une ligne par médium).
+     * @return Une ligne par médium (id, nom, nombre de voyances), la plus grande en premier.
      */
-    public HashMap<String,Integer> ObtenirHistogrammeVoyancesParMedium()
+    public List<LigneStatistique> ObtenirHistogrammeVoyancesParMedium()
     {
-        List<Medium> mediums = obtenirTousMediums();
-        
-        HashMap<String,Integer> histogramme = new HashMap<>();
-        mediums.forEach((m) -> {
-            String nom = m.getNom();
-            Integer nbVoyances = m.getConversations().size();
-            histogramme.put(nom, nbVoyances);
-        });
-        return histogramme;
+        return JpaUtil.executer("ObtenirHistogrammeVoyancesParMedium", () -> {
+            HashMap<Long,Long> nombres = new HashMap<>();
+            for (CompteurVoyances k : CompteurVoyancesDAO.obtenirCompteursMediums()) {
+                nombres.put(k.getMediumId(), k.getNombre());
+            }
+            List<LigneStatistique> histogramme = new ArrayList<>();
+            for (Medium m : MediumDAO.obtenirTous()) {
+                histogramme.add(new LigneStatistique(m.getId(), m.getNom(), nombres.get(m.getId())));
+            }
+            return trierParNombre(histogramme);
+        }, true);
     }
     
     
     /**
      * Cette méthode permet d'obtenir les valeurs de l'histogramme du nombre de voyances par employé.
-     * @return Un dictionnaire des couples (clé = prénom et nom de l'employe, valeur = nombre de voyance)
+     * Les nombres sont lus dans les compteurs de voyances (une ligne par employé).
+     * @return Une ligne par employé (id, prénom et nom, nombre de voyances), la plus grande en premier.
      */
-    public static HashMap<String,Integer> ObtenirHistogrammeVoyancesParEmploye()
+    public static List<LigneStatistique> ObtenirHistogrammeVoyancesParEmploye()
     {
-        JpaUtil.creerEntityManager();
-        List<Employe> employes = EmployeDAO.obtenirTous();
-        JpaUtil.fermerEntityManager();
-        
-        HashMap<String,Integer> histogramme = new HashMap<>();
-        employes.forEach((e) -> {
-            String nomPrenom = e.getPrenom() + ' ' + e.getNom();
-            Integer nbVoyances = e.getConversations().size();
-            histogramme.put(nomPrenom, nbVoyances);
-        });
-        return histogramme;
+        return JpaUtil.executer("ObtenirHistogrammeVoyancesParEmploye", () -> {
+            HashMap<Long,Long> nombres = new HashMap<>();
+            for (CompteurVoyances k : CompteurVoyancesDAO.obtenirCompteursEmployes()) {
+                nombres.put(k.getEmployeId(), k.getNombre());
+            }
+            List<LigneStatistique> histogramme = new ArrayList<>();
+            for (Employe e : EmployeDAO.obtenirTous()) {
+                histogramme.add(new LigneStatistique(e.getId(), e.getPrenom() + ' ' + e.getNom(), nombres.get(e.getId())));
+            }
+            return trierParNombre(histogramme);
+        }, true);
+    }
+    
+    private static List<LigneStatistique> trierParNombre(List<LigneStatistique> lignes) {
+        lignes.sort(Comparator.comparingLong(LigneStatistique::getNombre).reversed()
+                .thenComparing(LigneStatistique::getLibelle));
+        return lignes;
     }
     
     /**
      * Cette méthode permet d'obtenir les valeurs du camembert du pourcentage de voyances par employé.
-     * @return Un dictionnaire des couples (clé = prénom et nom de l'employe, valeur = pourcentage de voyance)
+     * @return Une ligne par employé (id, prénom et nom, nombre de voyances), dont la part est renseignée.
      */
-    public static HashMap<String,Float> ObtenirCamembertVoyancesParEmploye()
+    public static List<LigneStatistique> ObtenirCamembertVoyancesParEmploye()
     {
-        JpaUtil.creerEntityManager();
-        List<Employe> employes = EmployeDAO.obtenirTous();
-        JpaUtil.fermerEntityManager();
+        List<LigneStatistique> camembert = ObtenirHistogrammeVoyancesParEmploye();
         
-        int totalVoyances = 0;
-        for(Employe e : employes){
-            totalVoyances += e.getConversations().size();
+        long totalVoyances = 0;
+        for(LigneStatistique ligne : camembert){
+            totalVoyances += ligne.getNombre();
         }
         
-        HashMap<String,Float> camembert = new HashMap<>();
-        for(Employe e : employes){
-            String nomPrenom = e.getPrenom() + ' ' + e.getNom();
-            Integer nbVoyances = e.getConversations().size();
-            camembert.put(nomPrenom, (float) nbVoyances/totalVoyances );
+        for(LigneStatistique ligne : camembert){
+            ligne.setPart(totalVoyances == 0 ? 0 : (float) ligne.getNombre()/totalVoyances);
         }
         return camembert;
     }
 
     /**
-     * Simule l'envoi d'un mail de confirmation ou d'erreur dans la console
-     * suite à l'inscription d'un nouveau client.
+     * Place dans la boîte d'envoi le mail de confirmation ou d'erreur suite à
+     * l'inscription d'un nouveau client (cf.&nbsp;DistributeurNotifications).
+     * <br><strong>À appeler dans une transaction.</strong>
      *
      * @param c le nouveau client
      * @param statut pour différencier le message de confirmation (0) et
@@ -303,11 +1115,13 @@ public class Service {
         mailWriter.println();
         mailWriter.println("    L'équipe POSIT'IF");
 
-        Message.envoyerMail("contact@posit.if", c.getEmail(), "Bienvenue chez POSIT'IF", corps.toString());
+        NotificationDAO.creer(Notification.mail("contact@posit.if", c.getEmail(), "Bienvenue chez POSIT'IF", corps.toString()));
     }
     
     /**
-     * Envoie une notification à l'employé chargé d'incarner un médium
+     * Place dans la boîte d'envoi la notification de l'employé chargé
+     * d'incarner un médium.
+     * <br><strong>À appeler dans la transaction qui crée la conversation.</strong>
      * @param conv la conversation avec le client
      */
     public void envoiNotificationEmploye(Conversation conv) {
@@ -321,11 +1135,13 @@ public class Service {
         mailWriter.println("Médium à incarner : " + conv.getMedium().getNom());
         
         String telDest = conv.getEmploye().getNumeroTel();
-        Message.envoyerNotification(telDest, corps.toString());
+        NotificationDAO.creer(Notification.telephone(telDest, corps.toString()));
     }
     
     /**
-     * Envoie une notification au client chargé d'incarner un médium
+     * Place dans la boîte d'envoi la notification du client dont la voyance
+     * est acceptée.
+     * <br><strong>À appeler dans la transaction qui accepte la voyance.</strong>
      * @param conv la conversation avec le client
      */
     public void envoiNotificationClient(Conversation conv) {
@@ -342,7 +1158,7 @@ public class Service {
         mailWriter.println("Posit'ifement vôtre, "+ conv.getMedium().getNom());
         
         String telDest = conv.getClient().getNumeroTel();
-        Message.envoyerNotification(telDest, corps.toString());
+        NotificationDAO.creer(Notification.telephone(telDest, corps.toString()));
     }
 
     /**
@@ -350,8 +1166,6 @@ public class Service {
      * base de données.
      */
     public static void initialisation() {
-        JpaUtil.creerEntityManager();
-
         // Employés Init
         Employe e1 = new Employe(true, "Bette", "Liam", "toto123", "liam.bette@posit.if", "0600000001");
         Employe e2 = new Employe(true, "Bosio", "Alexis", "123456", "alexis.bosio@posit.if", "0600000002");
@@ -410,24 +1224,152 @@ public class Service {
         e2.setMediums(listeMed2);
         e3.setMediums(listeMed3);
 
-        JpaUtil.ouvrirTransaction();
-        EmployeDAO.creer(e1);
-        EmployeDAO.creer(e2);
-        EmployeDAO.creer(e3);
+        JpaUtil.executer("initialisation", () -> {
+            EmployeDAO.creer(e1);
+            EmployeDAO.creer(e2);
+            EmployeDAO.creer(e3);
 
-        VoyantDAO.creer(m1);
-        VoyantDAO.creer(m2);
-        TarologueDAO.creer(m3);
-        TarologueDAO.creer(m4);
-        AstrologueDAO.creer(m5);
-        AstrologueDAO.creer(m6);
-        JpaUtil.validerTransaction();
+            VoyantDAO.creer(m1);
+            VoyantDAO.creer(m2);
+            TarologueDAO.creer(m3);
+            TarologueDAO.creer(m4);
+            AstrologueDAO.creer(m5);
+            AstrologueDAO.creer(m6);
+            return null;
+        }, false);
+
+        invaliderCatalogue();
+        reconstruireCompteurs();
+        if (moteurAffectation != null) {
+            // Arrêt préalable : demarrer() crée de nouvelles tâches de fond
+            arreter();
+            demarrer();
+        }
+    }
+
+    /**
+     * Recalcule tous les compteurs de voyances à partir des conversations
+     * enregistrées (réparation, ou première mise en place sur une base
+     * existante). Des compteurs à zéro sont créés pour chaque médium, chaque
+     * employé et chaque couple médium/employé possible. Les créneaux occupés
+     * des employés sont recalculés de la même façon.
+     * <br>À lancer quand aucune voyance n'est demandée ni terminée
+     * (cf.&nbsp;vue.ReconstruireCompteurs).
+     *
+     * @return le nombre de compteurs créés
+     */
+    public static int reconstruireCompteurs() {
+        int crees = JpaUtil.executer("reconstruireCompteurs", () -> {
+            CompteurVoyancesDAO.supprimerTous();
+
+            LinkedHashMap<String,CompteurVoyances> compteurs = compteursPossibles();
+            for (Object[] ligne : StatistiquesDAO.compterVoyancesParPaire()) {
+                Long mediumId = (Long) ligne[0];
+                Long employeId = (Long) ligne[1];
+                long nombre = ((Number) ligne[2]).longValue();
+                long enCours = ((Number) ligne[3]).longValue();
+                for (CompteurVoyances k : new CompteurVoyances[]{
+                    new CompteurVoyances(mediumId, null),
+                    new CompteurVoyances(null, employeId),
+                    new CompteurVoyances(mediumId, employeId)}) {
+                    compteurs.putIfAbsent(k.getCle(), k);
+                    compteurs.get(k.getCle()).ajouter(nombre, enCours);
+                }
+            }
+
+            compteurs.values().forEach(CompteurVoyancesDAO::creer);
+            EmployeDAO.recalculerOccupations();
+            return compteurs.size();
+        }, false);
+        JpaUtil.invaliderCache(Employe.class);
+        return crees;
+    }
+
+    /**
+     * Crée à zéro les compteurs de voyances qui manquent pour un médium, un
+     * employé ou un couple médium/employé possible : les voyances ne font
+     * ensuite que mettre à jour des compteurs existants, sans insertion
+     * concurrente d'un même compteur (cf.&nbsp;CompteurVoyancesDAO.incrementer()).
+     *
+     * @return le nombre de compteurs créés
+     */
+    public static int creerCompteursManquants() {
+        return JpaUtil.executer("creerCompteursManquants", () -> {
+            Set<String> existants = new HashSet<>(CompteurVoyancesDAO.obtenirCles());
+            int crees = 0;
+            for (CompteurVoyances k : compteursPossibles().values()) {
+                if (existants.add(k.getCle())) {
+                    CompteurVoyancesDAO.creer(k);
+                    crees++;
+                }
+            }
+            return crees;
+        }, false);
+    }
+
+    /**
+     * @return un compteur à zéro pour chaque médium, chaque employé et chaque
+     * couple médium/employé possible, par clé
+     */
+    private static LinkedHashMap<String,CompteurVoyances> compteursPossibles() {
+        LinkedHashMap<String,CompteurVoyances> compteurs = new LinkedHashMap<>();
+        for (Medium m : MediumDAO.obtenirTous()) {
+            compteurs.put(CompteurVoyances.cleMedium(m.getId()), new CompteurVoyances(m.getId(), null));
+        }
+        for (Employe e : EmployeDAO.obtenirTous()) {
+            compteurs.put(CompteurVoyances.cleEmploye(e.getId()), new CompteurVoyances(null, e.getId()));
+            for (Medium m : e.getMedium()) {
+                compteurs.put(CompteurVoyances.clePaire(m.getId(), e.getId()), new CompteurVoyances(m.getId(), e.getId()));
+            }
+        }
+        return compteurs;
+    }
+
+    /**
+     * Vide le cache partagé des Mediums et des Personnes. À appeler après une
+     * modification du catalogue ou des employés faite directement en base.
+     */
+    public static void invaliderCatalogue() {
+        JpaUtil.invaliderCache(Medium.class);
+        JpaUtil.invaliderCache(Personne.class);
+        chargerCatalogue();
+    }
+
+    /**
+     * Donne l'instantané du catalogue des médiums, avec leurs représentations
+     * JSON (sans accès à la base, sauf au premier appel si demarrer() n'a pas
+     * été appelé).
+     *
+     * @return l'instantané courant, à ne pas garder : il est remplacé à chaque
+     * modification du catalogue
+     */
+    public static CatalogueMediums obtenirCatalogue() {
+        CatalogueMediums courant = catalogue;
+        return courant != null ? courant : chargerCatalogue();
+    }
+
+    /**
+     * Construit un nouvel instantané du catalogue et le substitue à l'ancien.
+     */
+    private static CatalogueMediums chargerCatalogue() {
+        CatalogueMediums nouveau = new CatalogueMediums(
+                JpaUtil.executer("chargerCatalogue", MediumDAO::obtenirTous, true));
+        catalogue = nouveau;
+        return nouveau;
+    }
+
+    /**
+     * Retourne les compteurs d'utilisation du cache partagé, par classe
+     * d'entité.
+     *
+     * @return les compteurs, triés par nom de classe
+     */
+    public static Map<String, StatistiquesCache> obtenirStatistiquesCache() {
+        return StatistiquesCache.toutes();
     }
     
     public Client getClientParId(long id){
-        JpaUtil.creerEntityManager();
-        Client personne = ClientDAO.obtenirClientParId(id);
-        JpaUtil.fermerEntityManager();
+        Client personne = JpaUtil.executer("getClientParId", () -> ClientDAO.obtenirClientParId(id), true);
         if (personne != null) {
             return personne;
         } else {
@@ -436,9 +1378,7 @@ public class Service {
     }
     
      public Conversation getConversationParId(long id){
-        JpaUtil.creerEntityManager();
-        Conversation convo = ConversationDAO.obtenirConversationParId(id);
-        JpaUtil.fermerEntityManager();
+        Conversation convo = JpaUtil.executer("getConversationParId", () -> ConversationDAO.obtenirConversationParId(id), true);
         if (convo != null) {
             return convo;
         } else {
@@ -447,9 +1387,7 @@ public class Service {
     }
     
     public Employe getEmployeParId(long id){
-        JpaUtil.creerEntityManager();
-        Employe personne = EmployeDAO.obtenirEmployeParId(id);
-        JpaUtil.fermerEntityManager();
+        Employe personne = JpaUtil.executer("getEmployeParId", () -> EmployeDAO.obtenirEmployeParId(id), true);
         if (personne != null) {
             return personne;
         } else {
@@ -458,9 +1396,7 @@ public class Service {
     }
     
     public Personne getPersonneParId(Personne p){
-        JpaUtil.creerEntityManager();
-        Personne personne = ClientDAO.obtenirClientParId(p.getId());
-        JpaUtil.fermerEntityManager();
+        Personne personne = JpaUtil.executer("getPersonneParId", () -> ClientDAO.obtenirClientParId(p.getId()), true);
         if (personne != null) {
             return personne;
         } else {
@@ -469,17 +1405,11 @@ public class Service {
     }
     
     public Medium getMediumParId(Long id){
-        JpaUtil.creerEntityManager();
-        Medium med = MediumDAO.obtenirMediumParId(id);
-        JpaUtil.fermerEntityManager();
-        return med;
+        return JpaUtil.executer("getMediumParId", () -> MediumDAO.obtenirMediumParId(id), true);
     }
     
     public List<Conversation> getConversationsMed(long idClient, long idMedium) {
-        JpaUtil.creerEntityManager();
-        List<Conversation> convs = ConversationDAO.obtenirConvParMedium(idClient,idMedium);
-        JpaUtil.fermerEntityManager();
-        return convs;
+        return JpaUtil.executer("getConversationsMed", () -> ConversationDAO.obtenirConvParMedium(idClient,idMedium), true);
     }
  
-}
\ No newline at end of file
+}
\ No newline at end of file
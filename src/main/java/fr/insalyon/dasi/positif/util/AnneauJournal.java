@@ -0,0 +1,101 @@
+package fr.insalyon.dasi.positif.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Tampon circulaire sans verrou à producteurs multiples et consommateur
+ * unique, utilisé pour transmettre les évènements du Journal à l'écrivain
+ * en tâche de fond.
+ * <br>Chaque producteur réserve une séquence par CAS puis publie son
+ * évènement dans la case correspondante ; le consommateur lit les cases dans
+ * l'ordre des séquences. Les messages d'un même thread sont donc toujours
+ * lus dans l'ordre où ils ont été émis.
+ *
+ * @author DASI Team
+ */
+final class AnneauJournal {
+
+    private final AtomicReferenceArray<Object> cases;
+    private final int masque;
+
+    /**
+     * Prochaine séquence à réserver par un producteur.
+     */
+    private final AtomicLong sequenceProduction = new AtomicLong();
+
+    /**
+     * Prochaine séquence à lire par le consommateur (écrite uniquement par
+     * lui).
+     */
+    private final AtomicLong sequenceConsommation = new AtomicLong();
+
+    /**
+     * Constructeur
+     *
+     * @param capacite la capacité demandée, arrondie à la puissance de 2
+     * supérieure
+     */
+    AnneauJournal(int capacite) {
+        int taille = Integer.highestOneBit(Math.max(2, capacite - 1)) << 1;
+        this.cases = new AtomicReferenceArray<>(taille);
+        this.masque = taille - 1;
+    }
+
+    /**
+     * Tente de publier un évènement.
+     *
+     * @param evenement l'évènement à publier (non null)
+     * @return faux si l'anneau est plein
+     */
+    boolean publier(Object evenement) {
+        long sequence;
+        do {
+            sequence = sequenceProduction.get();
+            if (sequence - sequenceConsommation.get() >= cases.length()) {
+                return false;
+            }
+        } while (!sequenceProduction.compareAndSet(sequence, sequence + 1));
+        cases.lazySet((int) sequence & masque, evenement);
+        return true;
+    }
+
+    /**
+     * Retire le prochain évènement. À n'appeler que depuis le thread
+     * consommateur.
+     *
+     * @return l'évènement, ou null si aucun évènement n'est encore publié
+     */
+    Object prendre() {
+        long sequence = sequenceConsommation.get();
+        int indice = (int) sequence & masque;
+        Object evenement = cases.get(indice);
+        if (evenement == null) {
+            return null;
+        }
+        cases.lazySet(indice, null);
+        sequenceConsommation.lazySet(sequence + 1);
+        return evenement;
+    }
+
+    /**
+     * @return vrai si toutes les séquences réservées ont été consommées
+     */
+    boolean estVide() {
+        return sequenceProduction.get() == sequenceConsommation.get();
+    }
+
+    /**
+     * @return la dernière séquence réservée par un producteur
+     */
+    long sequenceProduite() {
+        return sequenceProduction.get();
+    }
+
+    /**
+     * @return la prochaine séquence que lira le consommateur
+     */
+    long sequenceConsommee() {
+        return sequenceConsommation.get();
+    }
+}
@@ -6,22 +6,51 @@ import com.google.gson.JsonParser;
 import com.google.gson.stream.JsonReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.http.HttpEntity;
 import org.apache.http.NameValuePair;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
 
 /**
+ * Client du Service Web Astro (profil astral, prédictions).
+ * <br>Toutes les instances partagent un seul client HTTP, dont les connexions
+ * sont gardées ouvertes (keep-alive) dans un pool : un appel ne paie la
+ * connexion TLS que lorsqu'aucune connexion n'est libre. Le pool est borné
+ * (au total et par route), et les délais de connexion, d'attente d'une
+ * connexion du pool et de lecture bornent la durée d'un appel.
+ * <br>Les réglages sont lus dans les propriétés système
+ * <code>positif.astro.connexionsMax</code>,
+ * <code>positif.astro.connexionsParRoute</code>,
+ * <code>positif.astro.delaiConnexionMs</code> et
+ * <code>positif.astro.delaiLectureMs</code>.
+ * <br>Les appels simultanés aux mêmes arguments sont regroupés : le premier
+ * appelle le Service Web, les suivants attendent sa réponse (ou son échec)
+ * au lieu de refaire l'appel. Les listes rendues sont donc partagées et non
+ * modifiables.
  *
  * @author DASI Team
  *
@@ -31,11 +60,101 @@ public class AstroTest {
     final static String MA_CLE_ASTRO_API = "ASTRO-01-M0lGLURBU0ktQVNUUk8tQjAx";
 
     public static final String ENCODING_UTF8 = "UTF-8";
-    public static final SimpleDateFormat JSON_DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd");
+
+    /**
+     * Format des dates du Service Web ; SimpleDateFormat n'est pas
+     * thread-safe : un format par Thread.
+     */
+    private static final ThreadLocal<SimpleDateFormat> JSON_DATE_FORMAT
+            = ThreadLocal.withInitial(() -> new SimpleDateFormat("yyyy-MM-dd"));
 
     public static final String ASTRO_API_URL
             = "https://servif-cocktail.insa-lyon.fr/WebDataGenerator/Astro";
 
+    public static final int CONNEXIONS_MAX_PAR_DEFAUT = 20;
+    public static final int CONNEXIONS_PAR_ROUTE_PAR_DEFAUT = 10;
+    public static final int DELAI_CONNEXION_PAR_DEFAUT_MS = 3000;
+    public static final int DELAI_LECTURE_PAR_DEFAUT_MS = 5000;
+
+    /**
+     * Durée de conservation d'une connexion inactive, si le serveur ne la
+     * précise pas (en-tête Keep-Alive)
+     */
+    static final long KEEP_ALIVE_PAR_DEFAUT_MS = 30 * 1000;
+
+    /**
+     * Une connexion inactive depuis plus longtemps est vérifiée avant d'être
+     * réutilisée
+     */
+    static final int VALIDATION_APRES_INACTIVITE_MS = 2000;
+
+    private static final PoolingHttpClientConnectionManager POOL = creerPool();
+
+    private static final RequestConfig CONFIG_REQUETES = creerConfigRequetes();
+
+    private static final CloseableHttpClient CLIENT_HTTP = creerClientHttp(POOL);
+
+    private static final AtomicLong nombreAppels = new AtomicLong();
+    private static final AtomicLong nombreEchecs = new AtomicLong();
+    private static final AtomicLong dureeTotaleNanos = new AtomicLong();
+    private static final AtomicLong dureeMaxNanos = new AtomicLong();
+
+    /**
+     * Les appels en cours, par service et arguments
+     */
+    private static final ConcurrentMap<List<Object>, CompletableFuture<List<String>>> APPELS_EN_COURS
+            = new ConcurrentHashMap<>();
+
+    private static final AtomicLong nombreAppelsRegroupes = new AtomicLong();
+
+    /**
+     * Appel au Service Web dont le résultat peut être partagé
+     */
+    private interface Appel {
+
+        List<String> executer() throws IOException;
+    }
+
+    private static PoolingHttpClientConnectionManager creerPool() {
+        PoolingHttpClientConnectionManager pool = new PoolingHttpClientConnectionManager(
+                KEEP_ALIVE_PAR_DEFAUT_MS * 2, TimeUnit.MILLISECONDS);
+        pool.setMaxTotal(Integer.getInteger("positif.astro.connexionsMax", CONNEXIONS_MAX_PAR_DEFAUT));
+        pool.setDefaultMaxPerRoute(Integer.getInteger("positif.astro.connexionsParRoute", CONNEXIONS_PAR_ROUTE_PAR_DEFAUT));
+        pool.setValidateAfterInactivity(VALIDATION_APRES_INACTIVITE_MS);
+        return pool;
+    }
+
+    private static RequestConfig creerConfigRequetes() {
+        int delaiConnexion = Integer.getInteger("positif.astro.delaiConnexionMs", DELAI_CONNEXION_PAR_DEFAUT_MS);
+        return RequestConfig.custom()
+                .setConnectTimeout(delaiConnexion)
+                .setConnectionRequestTimeout(delaiConnexion)
+                .setSocketTimeout(Integer.getInteger("positif.astro.delaiLectureMs", DELAI_LECTURE_PAR_DEFAUT_MS))
+                .build();
+    }
+
+    private static CloseableHttpClient creerClientHttp(PoolingHttpClientConnectionManager pool) {
+        ConnectionKeepAliveStrategy keepAlive = (reponse, contexte) -> {
+            long duree = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(reponse, contexte);
+            return duree > 0 ? duree : KEEP_ALIVE_PAR_DEFAUT_MS;
+        };
+        return HttpClients.custom()
+                .setConnectionManager(pool)
+                .setDefaultRequestConfig(CONFIG_REQUETES)
+                .setKeepAliveStrategy(keepAlive)
+                .evictExpiredConnections()
+                .evictIdleConnections(KEEP_ALIVE_PAR_DEFAUT_MS, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * @param date une date
+     * @return la date au format du Service Web
+     */
+    public static String formaterDate(Date date) {
+        return JSON_DATE_FORMAT.get().format(date);
+    }
+
     /*
      * Constructeur
      */
@@ -50,15 +169,31 @@ public class AstroTest {
      * Exemple de Méthode pour appeler le Service Web Profil
      */
     public List<String> getProfil(String prenom, Date dateNaissance) throws IOException {
+        return getProfil(prenom, dateNaissance, 0);
+    }
+
+    /*
+     * Appel du Service Web Profil avec un délai de lecture propre à l'appel
+     * (0 : délai commun du client HTTP)
+     */
+    public List<String> getProfil(String prenom, Date dateNaissance, int delaiLectureMs) throws IOException {
+        return regrouper(Arrays.<Object>asList("profil", prenom, formaterDate(dateNaissance), delaiLectureMs),
+                () -> appelerProfil(prenom, dateNaissance, delaiLectureMs));
+    }
+
+    private List<String> appelerProfil(String prenom, Date dateNaissance, int delaiLectureMs) throws IOException {
 
         ArrayList<String> result = new ArrayList<>();
 
+        RequestConfig config = delaiLectureMs <= 0 ? null
+                : RequestConfig.copy(CONFIG_REQUETES).setSocketTimeout(delaiLectureMs).build();
         JsonObject response = this.post(
                 ASTRO_API_URL,
+                config,
                 new BasicNameValuePair("service", "profil"),
                 new BasicNameValuePair("key", MA_CLE_ASTRO_API),
                 new BasicNameValuePair("prenom", prenom),
-                new BasicNameValuePair("date-naissance", JSON_DATE_FORMAT.format(dateNaissance))
+                new BasicNameValuePair("date-naissance", formaterDate(dateNaissance))
         );
 
         JsonObject profil = response.get("profil").getAsJsonObject();
@@ -75,6 +210,11 @@ public class AstroTest {
      * Exemple de Méthode pour appeler le Service Web Prédictions
      */
     public List<String> getPredictions(String couleur, String animal, int amour, int sante, int travail) throws IOException {
+        return regrouper(Arrays.<Object>asList("predictions", couleur, animal, amour, sante, travail),
+                () -> appelerPredictions(couleur, animal, amour, sante, travail));
+    }
+
+    private List<String> appelerPredictions(String couleur, String animal, int amour, int sante, int travail) throws IOException {
 
         ArrayList<String> result = new ArrayList<>();
 
@@ -101,36 +241,45 @@ public class AstroTest {
      * Méthode interne pour réaliser un appel HTTP et interpréter le résultat comme Objet JSON
      */
     protected JsonObject post(String url, NameValuePair... parameters) throws IOException {
+        return post(url, null, parameters);
+    }
+
+    /*
+     * Idem, avec des délais propres à l'appel (null : ceux du client HTTP)
+     */
+    protected JsonObject post(String url, RequestConfig config, NameValuePair... parameters) throws IOException {
 
-        CloseableHttpClient httpclient = HttpClients.createDefault();
+        long debut = System.nanoTime();
+        boolean succes = false;
 
         JsonElement responseElement = null;
 
         HttpPost httpPost = new HttpPost(url);
+        if (config != null) {
+            httpPost.setConfig(config);
+        }
         httpPost.setEntity(new UrlEncodedFormEntity(Arrays.asList(parameters), ENCODING_UTF8));
-        CloseableHttpResponse response = httpclient.execute(httpPost);
-        try {
+        try (CloseableHttpResponse response = CLIENT_HTTP.execute(httpPost)) {
 
             HttpEntity entity = response.getEntity();
 
             if (entity != null) {
-                JsonReader jsonReader = new JsonReader(new InputStreamReader(entity.getContent(), ENCODING_UTF8));
                 try {
-
+                    JsonReader jsonReader = new JsonReader(new InputStreamReader(entity.getContent(), ENCODING_UTF8));
                     JsonParser parser = new JsonParser();
                     responseElement = parser.parse(jsonReader);
-
                 } finally {
-                    jsonReader.close();
+                    // Lit la fin de la réponse : la connexion retourne
+                    // alors au pool au lieu d'être fermée
+                    EntityUtils.consumeQuietly(entity);
                 }
             }
+            succes = true;
 
         } finally {
-            response.close();
+            enregistrerAppel(System.nanoTime() - debut, succes);
         }
 
-        httpclient.close();
-
         JsonObject responseContainer = null;
         try {
             if (responseElement != null) {
@@ -143,6 +292,104 @@ public class AstroTest {
         return responseContainer;
     }
 
+    /**
+     * Fait l'appel, ou attend l'appel en cours aux mêmes arguments et en
+     * partage le résultat.
+     *
+     * @param cle le service et les arguments de l'appel
+     * @param appel l'appel au Service Web
+     * @return le résultat, non modifiable
+     * @throws IOException si l'appel (le sien ou celui qui est attendu) a
+     * échoué
+     */
+    private static List<String> regrouper(List<Object> cle, Appel appel) throws IOException {
+        CompletableFuture<List<String>> nouvel = new CompletableFuture<>();
+        CompletableFuture<List<String>> enCours = APPELS_EN_COURS.putIfAbsent(cle, nouvel);
+        if (enCours != null) {
+            nombreAppelsRegroupes.incrementAndGet();
+            try {
+                return enCours.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Attente d'un appel au Service Web interrompue");
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IOException(cause.toString(), cause);
+            }
+        }
+        try {
+            List<String> resultat = Collections.unmodifiableList(appel.executer());
+            nouvel.complete(resultat);
+            return resultat;
+        } catch (IOException | RuntimeException ex) {
+            nouvel.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            // Les appels suivants aux mêmes arguments interrogeront de
+            // nouveau le Service Web
+            APPELS_EN_COURS.remove(cle, nouvel);
+        }
+    }
+
+    private static void enregistrerAppel(long dureeNanos, boolean succes) {
+        nombreAppels.incrementAndGet();
+        if (!succes) {
+            nombreEchecs.incrementAndGet();
+        }
+        dureeTotaleNanos.addAndGet(dureeNanos);
+        dureeMaxNanos.accumulateAndGet(dureeNanos, Math::max);
+    }
+
+    /**
+     * @return l'état du pool de connexions : connexions prêtées
+     * (leased), libres (available), appels en attente d'une connexion
+     * (pending) et maximum
+     */
+    public static PoolStats obtenirStatistiquesPool() {
+        return POOL.getTotalStats();
+    }
+
+    /**
+     * @return le nombre d'appels au Service Web
+     */
+    public static long getNombreAppels() {
+        return nombreAppels.get();
+    }
+
+    /**
+     * @return le nombre d'appels en échec (connexion, délai, réponse
+     * illisible)
+     */
+    public static long getNombreEchecs() {
+        return nombreEchecs.get();
+    }
+
+    /**
+     * @return le nombre d'appels qui ont attendu le résultat d'un appel en
+     * cours aux mêmes arguments au lieu d'interroger le Service Web
+     */
+    public static long getNombreAppelsRegroupes() {
+        return nombreAppelsRegroupes.get();
+    }
+
+    /**
+     * @return la durée moyenne d'un appel, en millisecondes
+     */
+    public static double getDureeMoyenneMs() {
+        long appels = nombreAppels.get();
+        return appels == 0 ? 0 : dureeTotaleNanos.get() / 1e6 / appels;
+    }
+
+    /**
+     * @return la durée du plus long appel, en millisecondes
+     */
+    public static long getDureeMaxMs() {
+        return TimeUnit.NANOSECONDS.toMillis(dureeMaxNanos.get());
+    }
+
     /*
      * Méthode de test de l'API
      */
@@ -158,7 +405,7 @@ public class AstroTest {
         AstroTest astroApi = new AstroTest();
 
         String prenom = "Raphaël";
-        Date dateNaissance = JSON_DATE_FORMAT.parse("1976-07-10");
+        Date dateNaissance = JSON_DATE_FORMAT.get().parse("1976-07-10");
 
         List<String> profil = astroApi.getProfil(prenom, dateNaissance);
 
@@ -6,7 +6,10 @@ package fr.insalyon.dasi.positif.util;
  */
 public class DebugLogger {
 
-    // Méthode pour avoir des messages de Log dans le bon ordre (pause)
+    private static final Journal JOURNAL = Journal.obtenir("DebugLogger");
+
+    // Conservée pour compatibilité : l'ordre des messages est désormais
+    // garanti par le Journal, sans pause.
     public static void pause(long milliseconds) {
         try {
             Thread.sleep(milliseconds);
@@ -17,23 +20,12 @@ public class DebugLogger {
 
     // Méthode pour avoir des messages de Log dans le bon ordre (log)
     public static void log(String message) {
-        System.out.flush();
-        pause(5);
-        System.err.println("[DebugLogger] " + message);
-        System.err.flush();
-        pause(5);
+        JOURNAL.info(message);
     }
 
     // Méthode pour avoir des messages de Log dans le bon ordre (log avec exception)
     public static void log(String message, Exception ex) {
-        System.out.flush();
-        pause(5);
-        System.err.println("[DebugLogger] " + message);
-        System.err.println("[**EXCEPTION**] " + ex.getMessage());
-        System.err.print("[**EXCEPTION**] >>> ");
-        ex.printStackTrace(System.err);
-        System.err.flush();
-        pause(5);
+        JOURNAL.erreur(message, ex);
     }
     
     public static void main(String[] args) {
@@ -58,5 +50,6 @@ public class DebugLogger {
         }
         
         DebugLogger.log("** Fin du Test **");
+        Journal.vider();
     }
 }
@@ -0,0 +1,225 @@
+package fr.insalyon.dasi.positif.util;
+
+import java.io.PrintStream;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Journal asynchrone des couches dao et util.
+ * <br>Les messages sont filtrés par niveau avant toute allocation, puis
+ * confiés via un anneau sans verrou à un unique thread écrivain qui les
+ * écrit sur la sortie d'erreur. L'appelant ne dort jamais : si l'anneau est
+ * plein, il cède la main jusqu'à ce qu'une case se libère.
+ * <br>Le niveau se règle avec la propriété système
+ * <code>positif.journal.niveau</code> (TRACE, DEBUG, INFO, ATTENTION, ERREUR,
+ * AUCUN ; INFO par défaut) ou avec {@link #definirNiveau(NiveauJournal)}.
+ *
+ * <pre>
+ * private static final Journal JOURNAL = Journal.obtenir("MaClasse");
+ * ...
+ * if (JOURNAL.estActif(NiveauJournal.DEBUG)) {
+ *     JOURNAL.debug("Valeur calculée : " + valeur);
+ * }
+ * </pre>
+ *
+ * @author DASI Team
+ */
+public final class Journal {
+
+    private static final PrintStream SORTIE = System.err;
+    private static final DateTimeFormatter HORODATE_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+    private static volatile int seuil = NiveauJournal.depuisNom(
+            System.getProperty("positif.journal.niveau"), NiveauJournal.INFO).ordinal();
+
+    private static final AnneauJournal ANNEAU = new AnneauJournal(
+            Integer.getInteger("positif.journal.capacite", 8192));
+
+    /**
+     * Vrai lorsque l'écrivain est (ou va être) suspendu faute d'évènement.
+     */
+    private static volatile boolean ecrivainEnAttente = false;
+
+    private static final Thread ECRIVAIN = new Thread(Journal::ecrire, "positif-journal");
+
+    static {
+        ECRIVAIN.setDaemon(true);
+        ECRIVAIN.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Journal::vider, "positif-journal-arret"));
+    }
+
+    /**
+     * Un message en transit entre l'appelant et l'écrivain.
+     */
+    private static final class Evenement {
+
+        final LocalTime horodatage = LocalTime.now();
+        final String thread = Thread.currentThread().getName();
+        final NiveauJournal niveau;
+        final String source;
+        final String message;
+        final Throwable exception;
+
+        Evenement(NiveauJournal niveau, String source, String message, Throwable exception) {
+            this.niveau = niveau;
+            this.source = source;
+            this.message = message;
+            this.exception = exception;
+        }
+    }
+
+    private final String source;
+
+    private Journal(String source) {
+        this.source = source;
+    }
+
+    /**
+     * Retourne un Journal dont les messages seront préfixés par la source
+     * indiquée.
+     *
+     * @param source le nom affiché entre crochets devant chaque message
+     * @return le Journal
+     */
+    public static Journal obtenir(String source) {
+        return new Journal(source);
+    }
+
+    /**
+     * Modifie le niveau minimal des messages écrits.
+     *
+     * @param niveau le nouveau seuil
+     */
+    public static void definirNiveau(NiveauJournal niveau) {
+        seuil = niveau.ordinal();
+    }
+
+    /**
+     * @return le niveau minimal des messages écrits
+     */
+    public static NiveauJournal obtenirNiveau() {
+        return NiveauJournal.values()[seuil];
+    }
+
+    /**
+     * Indique si les messages du niveau donné seront écrits. À utiliser pour
+     * éviter de construire un message coûteux qui serait ignoré.
+     *
+     * @param niveau le niveau du message
+     * @return vrai si le message serait écrit
+     */
+    public boolean estActif(NiveauJournal niveau) {
+        return niveau.ordinal() >= seuil;
+    }
+
+    public void trace(String message) {
+        journaliser(NiveauJournal.TRACE, message, null);
+    }
+
+    public void debug(String message) {
+        journaliser(NiveauJournal.DEBUG, message, null);
+    }
+
+    public void info(String message) {
+        journaliser(NiveauJournal.INFO, message, null);
+    }
+
+    public void attention(String message) {
+        journaliser(NiveauJournal.ATTENTION, message, null);
+    }
+
+    public void erreur(String message) {
+        journaliser(NiveauJournal.ERREUR, message, null);
+    }
+
+    public void erreur(String message, Throwable exception) {
+        journaliser(NiveauJournal.ERREUR, message, exception);
+    }
+
+    /**
+     * Confie un message à l'écrivain s'il passe le seuil.
+     *
+     * @param niveau le niveau du message
+     * @param message le texte du message
+     * @param exception l'exception associée, ou null
+     */
+    public void journaliser(NiveauJournal niveau, String message, Throwable exception) {
+        if (niveau.ordinal() < seuil) {
+            return;
+        }
+        Evenement evenement = new Evenement(niveau, source, message, exception);
+        while (!ANNEAU.publier(evenement)) {
+            // Anneau plein : on laisse l'écrivain rattraper son retard
+            reveillerEcrivain();
+            Thread.yield();
+        }
+        if (ecrivainEnAttente) {
+            reveillerEcrivain();
+        }
+    }
+
+    /**
+     * Attend que tous les messages émis avant l'appel soient écrits.
+     * <br><strong>À utiliser à l'arrêt de l'application, pas sur le chemin
+     * d'une requête.</strong>
+     */
+    public static void vider() {
+        long cible = ANNEAU.sequenceProduite();
+        long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (ANNEAU.sequenceConsommee() < cible && System.nanoTime() < limite) {
+            reveillerEcrivain();
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        SORTIE.flush();
+    }
+
+    private static void reveillerEcrivain() {
+        LockSupport.unpark(ECRIVAIN);
+    }
+
+    /**
+     * Boucle du thread écrivain : vide l'anneau, n'appelle flush() qu'une
+     * fois le lot écrit, puis se suspend jusqu'au prochain message.
+     */
+    private static void ecrire() {
+        boolean aVider = false;
+        while (true) {
+            Evenement evenement = (Evenement) ANNEAU.prendre();
+            if (evenement != null) {
+                ecrire(evenement);
+                aVider = true;
+                continue;
+            }
+            if (aVider) {
+                SORTIE.flush();
+                aVider = false;
+            }
+            ecrivainEnAttente = true;
+            if (ANNEAU.estVide()) {
+                LockSupport.park(Journal.class);
+            } else {
+                // Une séquence est réservée mais pas encore publiée
+                Thread.yield();
+            }
+            ecrivainEnAttente = false;
+        }
+    }
+
+    private static void ecrire(Evenement evenement) {
+        String message = String.valueOf(evenement.message);
+        StringBuilder ligne = new StringBuilder(64 + message.length());
+        ligne.append(HORODATE_FORMAT.format(evenement.horodatage))
+                .append(' ').append(evenement.niveau)
+                .append(" [").append(evenement.source).append("] ")
+                .append('(').append(evenement.thread).append(") ")
+                .append(message);
+        SORTIE.println(ligne);
+        if (evenement.exception != null) {
+            SORTIE.println("[**EXCEPTION**] " + evenement.exception.getMessage());
+            SORTIE.print("[**EXCEPTION**] >>> ");
+            evenement.exception.printStackTrace(SORTIE);
+        }
+    }
+}
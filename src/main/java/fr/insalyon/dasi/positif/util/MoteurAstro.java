@@ -0,0 +1,153 @@
+package fr.insalyon.dasi.positif.util;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Moteur astral local : calcule le signe du zodiaque et le signe chinois à
+ * partir de la date de naissance, sans appel réseau, par lecture de tables.
+ * <br>Le signe chinois change au Nouvel An chinois, qui tombe entre le 21
+ * janvier et le 20 février : ses dates publiées de 1900 à 2100 sont dans
+ * une table.
+ * <br>La couleur porte-bonheur et l'animal totem restent demandés au
+ * Service Web (cf.&nbsp;EnrichisseurProfils) ; si le service reste
+ * indisponible, ils sont dérivés localement du prénom et de la date de
+ * naissance, toujours de la même façon (cf.&nbsp;couleurLocale(),
+ * animalLocal()).
+ *
+ * @author DASI Team
+ */
+public class MoteurAstro {
+
+    private static final String[] SIGNES_ZODIAQUE = {
+        "Capricorne", "Verseau", "Poissons", "Bélier", "Taureau", "Gémeaux",
+        "Cancer", "Lion", "Vierge", "Balance", "Scorpion", "Sagittaire"
+    };
+
+    /**
+     * Jour du mois (janvier à décembre) où commence le signe suivant : le
+     * signe du 20 janvier est le Verseau, celui du 19 le Capricorne
+     */
+    private static final int[] DEBUT_SIGNE_SUIVANT = {20, 19, 21, 20, 21, 21, 23, 23, 23, 23, 22, 22};
+
+    /**
+     * Dans l'ordre du cycle, à partir de l'année 4 (Rat)
+     */
+    private static final String[] SIGNES_CHINOIS = {
+        "Rat", "Buffle", "Tigre", "Lapin", "Dragon", "Serpent",
+        "Cheval", "Chèvre", "Singe", "Coq", "Chien", "Cochon"
+    };
+
+    private static final String[] COULEURS = {
+        "Rouge", "Orange", "Jaune", "Vert", "Bleu", "Indigo",
+        "Violet", "Rose", "Blanc", "Noir", "Or", "Argent"
+    };
+
+    private static final String[] ANIMAUX = {
+        "Loup", "Ours", "Aigle", "Renard", "Cerf", "Chouette",
+        "Dauphin", "Tortue", "Cheval", "Chat", "Lynx", "Corbeau"
+    };
+
+    public static final int PREMIERE_ANNEE = 1900;
+
+    public static final int DERNIERE_ANNEE = 2100;
+
+    /**
+     * Date du Nouvel An chinois de chaque année de PREMIERE_ANNEE à
+     * DERNIERE_ANNEE, codée mois * 100 + jour
+     */
+    private static final int[] NOUVEL_AN_CHINOIS = {
+        131, 219, 208, 129, 216, 204, 125, 213, 202, 122,   // 1900-1909
+        210, 130, 218, 206, 126, 214, 203, 123, 211, 201,   // 1910-1919
+        220, 208, 128, 216, 205, 124, 213, 202, 123, 210,   // 1920-1929
+        130, 217, 206, 126, 214, 204, 124, 211, 131, 219,   // 1930-1939
+        208, 127, 215, 205, 125, 213, 202, 122, 210, 129,   // 1940-1949
+        217, 206, 127, 214, 203, 124, 212, 131, 218, 208,   // 1950-1959
+        128, 215, 205, 125, 213, 202, 121, 209, 130, 217,   // 1960-1969
+        206, 127, 215, 203, 123, 211, 131, 218, 207, 128,   // 1970-1979
+        216, 205, 125, 213, 202, 220, 209, 129, 217, 206,   // 1980-1989
+        127, 215, 204, 123, 210, 131, 219, 207, 128, 216,   // 1990-1999
+        205, 124, 212, 201, 122, 209, 129, 218, 207, 126,   // 2000-2009
+        214, 203, 123, 210, 131, 219, 208, 128, 216, 205,   // 2010-2019
+        125, 212, 201, 122, 210, 129, 217, 206, 126, 213,   // 2020-2029
+        203, 123, 211, 131, 219, 208, 128, 215, 204, 124,   // 2030-2039
+        212, 201, 122, 210, 130, 217, 206, 126, 214, 202,   // 2040-2049
+        123, 211, 201, 219, 208, 128, 215, 204, 124, 212,   // 2050-2059
+        202, 121, 209, 129, 217, 205, 126, 214, 203, 123,   // 2060-2069
+        211, 131, 219, 207, 127, 215, 205, 124, 212, 202,   // 2070-2079
+        122, 209, 129, 217, 206, 126, 214, 203, 124, 210,   // 2080-2089
+        130, 218, 207, 127, 215, 205, 125, 212, 201, 121,   // 2090-2099
+        209 // 2100
+    };
+
+    private MoteurAstro() {
+    }
+
+    /**
+     * @param dateNaissance la date de naissance
+     * @return le signe du zodiaque
+     */
+    public static String signeZodiaque(Date dateNaissance) {
+        Calendar c = calendrier(dateNaissance);
+        int mois = c.get(Calendar.MONTH);
+        int signe = c.get(Calendar.DAY_OF_MONTH) >= DEBUT_SIGNE_SUIVANT[mois] ? mois + 1 : mois;
+        return SIGNES_ZODIAQUE[signe % 12];
+    }
+
+    /**
+     * @param dateNaissance la date de naissance
+     * @return le signe chinois (l'animal de l'année lunaire)
+     */
+    public static String signeChinois(Date dateNaissance) {
+        Calendar c = calendrier(dateNaissance);
+        int annee = c.get(Calendar.YEAR);
+        int jour = (c.get(Calendar.MONTH) + 1) * 100 + c.get(Calendar.DAY_OF_MONTH);
+        if (annee >= PREMIERE_ANNEE && annee <= DERNIERE_ANNEE) {
+            if (jour < NOUVEL_AN_CHINOIS[annee - PREMIERE_ANNEE]) {
+                annee--;
+            }
+        } else if (jour < 205) {
+            // Hors de la table : date moyenne du Nouvel An
+            annee--;
+        }
+        return SIGNES_CHINOIS[Math.floorMod(annee - 4, 12)];
+    }
+
+    /**
+     * @return la couleur porte-bonheur dérivée du prénom et de la date de
+     * naissance
+     */
+    public static String couleurLocale(String prenom, Date dateNaissance) {
+        return COULEURS[Math.floorMod(empreinte(prenom, dateNaissance), COULEURS.length)];
+    }
+
+    /**
+     * @return l'animal totem dérivé du prénom et de la date de naissance
+     */
+    public static String animalLocal(String prenom, Date dateNaissance) {
+        return ANIMAUX[Math.floorMod(empreinte(prenom, dateNaissance) / COULEURS.length, ANIMAUX.length)];
+    }
+
+    /**
+     * Empreinte stable (indépendante de l'exécution) du prénom et du jour de
+     * naissance.
+     */
+    private static int empreinte(String prenom, Date dateNaissance) {
+        int h = prenom == null ? 0 : prenom.trim().toLowerCase(Locale.FRENCH).hashCode();
+        if (dateNaissance != null) {
+            Calendar c = calendrier(dateNaissance);
+            h = h * 31 + c.get(Calendar.YEAR) * 372 + c.get(Calendar.MONTH) * 31 + c.get(Calendar.DAY_OF_MONTH);
+        }
+        h ^= h >>> 16;
+        h *= 0x45D9F3B;
+        h ^= h >>> 16;
+        return h & Integer.MAX_VALUE;
+    }
+
+    private static Calendar calendrier(Date date) {
+        Calendar c = Calendar.getInstance();
+        c.setTime(date);
+        return c;
+    }
+}
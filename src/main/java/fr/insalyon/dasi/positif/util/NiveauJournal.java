@@ -0,0 +1,37 @@
+package fr.insalyon.dasi.positif.util;
+
+/**
+ * Les niveaux de gravité des messages du Journal, du plus bavard au plus
+ * grave.
+ *
+ * @author DASI Team
+ */
+public enum NiveauJournal {
+    TRACE,
+    DEBUG,
+    INFO,
+    ATTENTION,
+    ERREUR,
+    /**
+     * Niveau seuil uniquement : désactive tous les messages.
+     */
+    AUCUN;
+
+    /**
+     * Convertit un nom de niveau (insensible à la casse) en NiveauJournal.
+     *
+     * @param nom le nom du niveau
+     * @param parDefaut le niveau à retourner si le nom est absent ou inconnu
+     * @return le niveau correspondant
+     */
+    public static NiveauJournal depuisNom(String nom, NiveauJournal parDefaut) {
+        if (nom == null) {
+            return parDefaut;
+        }
+        try {
+            return NiveauJournal.valueOf(nom.trim().toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            return parDefaut;
+        }
+    }
+}
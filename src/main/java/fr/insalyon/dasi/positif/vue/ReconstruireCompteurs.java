@@ -0,0 +1,30 @@
+package fr.insalyon.dasi.positif.vue;
+
+import fr.insalyon.dasi.positif.dao.JpaUtil;
+import fr.insalyon.dasi.positif.metier.service.Service;
+
+/**
+ * Commande de réparation : recalcule les compteurs de voyances à partir des
+ * conversations enregistrées dans la base.
+ * <br>À lancer une première fois sur une base existante, puis en cas de
+ * doute sur les statistiques, application arrêtée.
+ *
+ * @author Liam BETTE, Alexis BOSIO, Thibault REMY
+ */
+public class ReconstruireCompteurs {
+
+    /**
+     * Méthode main(): point d'entrée de la commande.
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        JpaUtil.init();
+        try {
+            int nombre = Service.reconstruireCompteurs();
+            System.out.println(nombre + " compteurs de voyances reconstruits.");
+        } finally {
+            JpaUtil.destroy();
+        }
+    }
+}
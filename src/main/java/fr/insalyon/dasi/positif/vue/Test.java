@@ -4,6 +4,7 @@ import fr.insalyon.dasi.positif.dao.JpaUtil;
 import fr.insalyon.dasi.positif.metier.modele.Client;
 import fr.insalyon.dasi.positif.metier.modele.Conversation;
 import fr.insalyon.dasi.positif.metier.modele.Employe;
+import fr.insalyon.dasi.positif.metier.modele.LigneStatistique;
 import fr.insalyon.dasi.positif.metier.modele.Medium;
 import fr.insalyon.dasi.positif.metier.modele.Personne;
 import fr.insalyon.dasi.positif.metier.service.Service;
@@ -17,10 +18,7 @@ import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,8 +36,9 @@ public class Test {
      */
     public static void main(String[] args) {
 
-        // Initialisation du JpaUtil
+        // Initialisation du JpaUtil et du moteur d'affectation
         JpaUtil.init();
+        Service.demarrer();
         
         Service service = new Service();
         /* System.out.println("\n\n========== INITIALISATION ==========");
@@ -56,7 +55,8 @@ public class Test {
         // demonstrationIHM();
         //demonstrationTest();
         
-        // Libération du JpaUtil
+        // Arrêt du moteur d'affectation et libération du JpaUtil
+        Service.arreter();
         JpaUtil.destroy();
     }
     
@@ -268,45 +268,33 @@ public class Test {
                     
                     switch (choixEmploye){
                         case 1: //HISTOGRAMME VOYANCES PAR MÉDIUM
-                            HashMap<String,Integer> stats1 = service.ObtenirHistogrammeVoyancesParMedium();
+                            List<LigneStatistique> stats1 = service.ObtenirHistogrammeVoyancesParMedium();
                             System.out.println("\n========================================");
                             System.out.println("    HISTOGRAMME VOYANCES PAR MÉDIUM");
                             System.out.println("========================================");
-                            Set cles = stats1.keySet();
-                            Iterator it = cles.iterator();
-                            while (it.hasNext()){
-                               String cle = (String) it.next(); 
-                               int valeur = stats1.get(cle); 
-                               System.out.println("     - " + cle + " : " + valeur);
+                            for (LigneStatistique ligne : stats1){
+                               System.out.println("     - " + ligne.getLibelle() + " : " + ligne.getNombre());
                             }
                             System.out.println("\n");
                             break;
                         
                         case 2: //HISTOGRAME DE VOYANCES PAR EMPLOYÉ
-                            HashMap<String,Integer> stats2 = Service.ObtenirHistogrammeVoyancesParEmploye();
+                            List<LigneStatistique> stats2 = Service.ObtenirHistogrammeVoyancesParEmploye();
                             System.out.println("\n========================================");
                             System.out.println("   HISTOGRAME DE VOYANCES PAR EMPLOYÉ");
                             System.out.println("========================================");
-                            Set cles2 = stats2.keySet();
-                            Iterator it2 = cles2.iterator();
-                            while (it2.hasNext()){
-                               String cle = (String) it2.next(); 
-                               int valeur = stats2.get(cle); 
-                               System.out.println("     - " + cle + " : " + valeur);
+                            for (LigneStatistique ligne : stats2){
+                               System.out.println("     - " + ligne.getLibelle() + " : " + ligne.getNombre());
                             }
                             System.out.println("\n");
                             break;
                         case 3: //RÉPARTITION DES VOYANCE PAR EMPLOYÉ
-                            HashMap<String,Float> stats3 = Service.ObtenirCamembertVoyancesParEmploye();
+                            List<LigneStatistique> stats3 = Service.ObtenirCamembertVoyancesParEmploye();
                             System.out.println("\n========================================");
                             System.out.println("  RÉPARTITION DES VOYANCE PAR EMPLOYÉ");
                             System.out.println("========================================");
-                            Set cles3 = stats3.keySet();
-                            Iterator it3 = cles3.iterator();
-                            while (it3.hasNext()){
-                               String cle = (String) it3.next(); 
-                               float valeur = stats3.get(cle); 
-                               System.out.println("     - " + cle + " : " + valeur);
+                            for (LigneStatistique ligne : stats3){
+                               System.out.println("     - " + ligne.getLibelle() + " : " + ligne.getPart());
                             }
                             System.out.println("\n");
                             break;
@@ -411,36 +399,24 @@ public class Test {
         
         System.out.println("\n\n========== DEMANDER LES STATISTIQUES ==========");
         System.out.println("\nDEMANDER L'HISTOGRAMME DE VOYANCES PAR MEDIUM :");
-        HashMap<String,Integer> stats1 = service.ObtenirHistogrammeVoyancesParMedium();
+        List<LigneStatistique> stats1 = service.ObtenirHistogrammeVoyancesParMedium();
         System.out.println("RESULTAT = ");
-        Set cles = stats1.keySet();
-        Iterator it = cles.iterator();
-        while (it.hasNext()){
-           String cle = (String) it.next(); 
-           int valeur = stats1.get(cle); 
-           System.out.println("     - " + cle + " : " + valeur);
+        for (LigneStatistique ligne : stats1){
+           System.out.println("     - " + ligne.getLibelle() + " : " + ligne.getNombre());
         }
         
         System.out.println("\nDEMANDER L'HISTOGRAMME DE VOYANCES PAR EMPLOYE :");
-        HashMap<String,Integer> stats2 = Service.ObtenirHistogrammeVoyancesParEmploye();
+        List<LigneStatistique> stats2 = Service.ObtenirHistogrammeVoyancesParEmploye();
         System.out.println("RESULTAT = ");
-        Set cles2 = stats2.keySet();
-        Iterator it2 = cles2.iterator();
-        while (it2.hasNext()){
-           String cle = (String) it2.next(); 
-           int valeur = stats2.get(cle); 
-           System.out.println("     - " + cle + " : " + valeur);
+        for (LigneStatistique ligne : stats2){
+           System.out.println("     - " + ligne.getLibelle() + " : " + ligne.getNombre());
         }
         
         System.out.println("\nDEMANDER LE CAMEMBERT DE VOYANCES PAR EMPLOYE :");
-        HashMap<String,Float> stats3 = Service.ObtenirCamembertVoyancesParEmploye();
+        List<LigneStatistique> stats3 = Service.ObtenirCamembertVoyancesParEmploye();
         System.out.println("RESULTAT = ");
-        Set cles3 = stats3.keySet();
-        Iterator it3 = cles3.iterator();
-        while (it3.hasNext()){
-           String cle = (String) it3.next(); 
-           float valeur = stats3.get(cle); 
-           System.out.println("     - " + cle + " : " + valeur);
+        for (LigneStatistique ligne : stats3){
+           System.out.println("     - " + ligne.getLibelle() + " : " + ligne.getPart());
         }
         
         System.out.println("\n\n");
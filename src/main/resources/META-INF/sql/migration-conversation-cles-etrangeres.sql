@@ -0,0 +1,36 @@
+-- Migration d'une base Derby existante vers le modèle où Conversation porte
+-- les clés étrangères de son client, de son employé et de son médium.
+--
+-- Avant : Client.conversations, Employe.conversations et Medium.conversation
+-- étaient des @OneToMany unidirectionnels, stockés dans les tables de
+-- jointure CLIENT_CONVERSATION, EMPLOYE_CONVERSATION et MEDIUM_CONVERSATION.
+-- Après : ces listes sont le côté inverse (mappedBy) des colonnes
+-- CONVERSATION.CLIENT_ID, EMPLOYE_ID et MEDIUM_ID, qui sont indexées.
+--
+-- À exécuter une seule fois, application arrêtée, par exemple avec ij :
+--   java org.apache.derby.tools.ij migration-conversation-cles-etrangeres.sql
+-- après une commande connect sur la base (cf. persistence.xml).
+
+-- 1. Report des associations des tables de jointure vers les clés étrangères
+--    (colonnes restées vides, par exemple pour des lignes insérées à la main).
+UPDATE CONVERSATION SET CLIENT_ID =
+    (SELECT MIN(j.CLIENT_ID) FROM CLIENT_CONVERSATION j WHERE j.CONVERSATIONS_ID = CONVERSATION.ID)
+    WHERE CLIENT_ID IS NULL;
+UPDATE CONVERSATION SET EMPLOYE_ID =
+    (SELECT MIN(j.EMPLOYE_ID) FROM EMPLOYE_CONVERSATION j WHERE j.CONVERSATIONS_ID = CONVERSATION.ID)
+    WHERE EMPLOYE_ID IS NULL;
+UPDATE CONVERSATION SET MEDIUM_ID =
+    (SELECT MIN(j.MEDIUM_ID) FROM MEDIUM_CONVERSATION j WHERE j.CONVERSATION_ID = CONVERSATION.ID)
+    WHERE MEDIUM_ID IS NULL;
+
+-- 2. Index des clés étrangères (noms identiques à ceux de @Table(indexes)
+--    dans Conversation). Si les contraintes de clé étrangère existent déjà,
+--    Derby les adosse à un index et signale 01504 : ce n'est pas une erreur.
+CREATE INDEX IDX_CONVERSATION_CLIENT ON CONVERSATION (CLIENT_ID);
+CREATE INDEX IDX_CONVERSATION_EMPLOYE ON CONVERSATION (EMPLOYE_ID);
+CREATE INDEX IDX_CONVERSATION_MEDIUM ON CONVERSATION (MEDIUM_ID);
+
+-- 3. Suppression des tables de jointure devenues inutiles.
+DROP TABLE CLIENT_CONVERSATION;
+DROP TABLE EMPLOYE_CONVERSATION;
+DROP TABLE MEDIUM_CONVERSATION;
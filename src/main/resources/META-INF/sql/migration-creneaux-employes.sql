@@ -0,0 +1,22 @@
+-- Migration d'une base Derby existante vers le modèle où chaque Employé mène
+-- plusieurs voyances en parallèle (créneaux).
+--
+-- Avant : EMPLOYE.DISPONIBLE valait 0 pendant une voyance et 1 sinon.
+-- Après : DISPONIBLE indique si l'employé est en service ; CAPACITE est son
+-- nombre de créneaux et OCCUPATION le nombre de créneaux occupés, c'est-à-dire
+-- de conversations non terminées.
+--
+-- À exécuter une seule fois, application arrêtée, par exemple avec ij :
+--   java org.apache.derby.tools.ij migration-creneaux-employes.sql
+-- après une commande connect sur la base (cf. persistence.xml).
+
+-- 1. Nouvelles colonnes (capacité par défaut : Employe.CAPACITE_PAR_DEFAUT).
+ALTER TABLE EMPLOYE ADD COLUMN CAPACITE INTEGER NOT NULL DEFAULT 3;
+ALTER TABLE EMPLOYE ADD COLUMN OCCUPATION INTEGER NOT NULL DEFAULT 0;
+
+-- 2. Créneaux occupés par les conversations en cours.
+UPDATE EMPLOYE SET OCCUPATION =
+    (SELECT COUNT(*) FROM CONVERSATION c WHERE c.EMPLOYE_ID = EMPLOYE.ID AND c.FIN IS NULL);
+
+-- 3. Les employés occupés par une voyance restent en service.
+UPDATE EMPLOYE SET DISPONIBLE = 1;
@@ -0,0 +1,23 @@
+-- Migration d'une base Derby existante vers le modèle où les conversations
+-- abandonnées sont fermées d'office (cf. NettoyeurVoyances).
+--
+-- CONVERSATION.CREATION est l'instant de la demande de voyance ; MOTIFFIN
+-- indique si la conversation a été terminée par l'employé (TERMINEE) ou
+-- fermée d'office (EXPIREE).
+--
+-- À exécuter une seule fois, application arrêtée, par exemple avec ij :
+--   java org.apache.derby.tools.ij migration-fin-conversations.sql
+-- après une commande connect sur la base (cf. persistence.xml).
+
+-- 1. Nouvelles colonnes.
+ALTER TABLE CONVERSATION ADD COLUMN CREATION TIMESTAMP;
+ALTER TABLE CONVERSATION ADD COLUMN MOTIFFIN VARCHAR(255);
+
+-- 2. Les conversations existantes datent au plus tard de leur début ; celles
+-- qui n'ont pas commencé sont datées de la migration, pour ne pas être
+-- fermées d'office dès le redémarrage.
+UPDATE CONVERSATION SET CREATION = TIMESTAMP(DEBUT, TIME('00:00:00')) WHERE DEBUT IS NOT NULL;
+UPDATE CONVERSATION SET CREATION = CURRENT_TIMESTAMP WHERE CREATION IS NULL;
+
+-- 3. Les conversations terminées l'ont été par l'employé.
+UPDATE CONVERSATION SET MOTIFFIN = 'TERMINEE' WHERE FIN IS NOT NULL;
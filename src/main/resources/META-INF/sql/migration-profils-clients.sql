@@ -0,0 +1,26 @@
+-- Migration d'une base Derby existante vers le modèle où le profil astral
+-- des nouveaux clients est complété après l'inscription
+-- (cf. EnrichisseurProfils).
+--
+-- CLIENT.ETATPROFIL vaut EN_ATTENTE tant que la couleur et l'animal ne sont
+-- pas obtenus, puis COMPLET. PROCHAINENRICHISSEMENT est l'instant du
+-- prochain essai et ESSAISPROFIL le nombre d'essais déjà faits.
+--
+-- À exécuter une seule fois, application arrêtée, par exemple avec ij :
+--   java org.apache.derby.tools.ij migration-profils-clients.sql
+-- après une commande connect sur la base (cf. persistence.xml).
+
+-- 1. Nouvelles colonnes.
+ALTER TABLE CLIENT ADD COLUMN ETATPROFIL VARCHAR(255);
+ALTER TABLE CLIENT ADD COLUMN PROCHAINENRICHISSEMENT TIMESTAMP;
+ALTER TABLE CLIENT ADD COLUMN ESSAISPROFIL INTEGER NOT NULL DEFAULT 0;
+
+-- 2. Les clients existants ont reçu leur profil à l'inscription ; ceux
+-- auxquels il manque la couleur ou l'animal sont enrichis au redémarrage.
+UPDATE CLIENT SET ETATPROFIL = 'COMPLET';
+UPDATE CLIENT SET ETATPROFIL = 'EN_ATTENTE', PROCHAINENRICHISSEMENT = CURRENT_TIMESTAMP
+    WHERE COULEUR IS NULL OR ANIMAL IS NULL;
+
+-- 3. Index de la relève des profils en attente (nom identique à celui de
+--    @Table(indexes) dans Client).
+CREATE INDEX IDX_CLIENT_PROFIL ON CLIENT (ETATPROFIL, PROCHAINENRICHISSEMENT);
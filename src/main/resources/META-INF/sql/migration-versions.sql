@@ -0,0 +1,17 @@
+-- Migration d'une base Derby existante vers le modèle où les Personnes et
+-- les Conversations portent un numéro de version (@Version).
+--
+-- La génération du schéma (action "create" dans persistence.xml) crée les
+-- tables manquantes mais n'ajoute pas de colonne aux tables existantes.
+-- Les lignes existantes partent de la version 1, comme les nouvelles.
+--
+-- À exécuter une seule fois, application arrêtée, par exemple avec ij :
+--   java org.apache.derby.tools.ij migration-versions.sql
+-- après une commande connect sur la base (cf. persistence.xml).
+
+-- 1. Version des Personnes (Clients et Employés) : la colonne est portée par
+--    la table racine de l'héritage.
+ALTER TABLE PERSONNE ADD COLUMN VERSION BIGINT NOT NULL DEFAULT 1;
+
+-- 2. Version des Conversations.
+ALTER TABLE CONVERSATION ADD COLUMN VERSION BIGINT NOT NULL DEFAULT 1;